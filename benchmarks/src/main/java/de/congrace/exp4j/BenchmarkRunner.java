@@ -0,0 +1,22 @@
+package de.congrace.exp4j;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate and the bytes allocated per operation
+ * next to the timings. Accepts the usual JMH command line options, e.g. a regular expression selecting the
+ * benchmarks to run: <code>java -jar target/benchmarks.jar BuildBenchmark</code>
+ * 
+ * @author frank asseg
+ * 
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build())
+				.run();
+	}
+}
@@ -0,0 +1,84 @@
+package de.congrace.exp4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of turning an expression into something that can be calculated, from the single phases up to the
+ * complete {@link ExpressionBuilder#build()} and a hit in the {@link ExpressionCache}
+ * 
+ * @author frank asseg
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+	@Param({ "short", "medium", "long" })
+	public String size;
+
+	private String expression;
+
+	private Map<String, Double> variables;
+
+	private FunctionRegistry registry;
+
+	private Tokenizer tokenizer;
+
+	private ExpressionCache cache;
+
+	@Setup
+	public void setup() throws Exception {
+		expression = ExpressionCorpus.get(size);
+		variables = ExpressionCorpus.variables();
+		registry = FunctionRegistry.builtins();
+		tokenizer = new Tokenizer(variables.keySet(), registry.functions, registry.operatorTrie());
+		cache = new ExpressionCache(16);
+		cache.get(newBuilder());
+	}
+
+	private ExpressionBuilder newBuilder() {
+		return new ExpressionBuilder(expression, registry).withVariables(variables);
+	}
+
+	@Benchmark
+	public List<Token> tokenize() throws Exception {
+		return tokenizer.getTokens(expression);
+	}
+
+	@Benchmark
+	public RPNExpression convert() throws Exception {
+		return RPNConverter.toRPNExpression(expression, variables, registry.functions, registry.operatorTrie(), true);
+	}
+
+	@Benchmark
+	public Calculable build() throws Exception {
+		return newBuilder().build();
+	}
+
+	@Benchmark
+	public Calculable compile() throws Exception {
+		return newBuilder().compile();
+	}
+
+	@Benchmark
+	public Expression cacheHit() throws Exception {
+		return cache.get(newBuilder());
+	}
+}
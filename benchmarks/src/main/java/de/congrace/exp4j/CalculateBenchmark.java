@@ -0,0 +1,130 @@
+package de.congrace.exp4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of calculating a built expression with no, one and many variables, interpreted, compiled to bytecode
+ * and in batches
+ * 
+ * @author frank asseg
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculateBenchmark {
+	static final int ROWS = 4096;
+
+	@Param({ "0", "1", "many" })
+	public String variables;
+
+	private Calculable interpreted;
+
+	private Calculable compiled;
+
+	private Expression expression;
+
+	private EvaluationContext context;
+
+	private double[] values;
+
+	private double[][] columns;
+
+	private double[] out;
+
+	/**
+	 * create the builder of the benchmarked expression
+	 * 
+	 * @param variables
+	 *            "0", "1" or "many"
+	 * @return the builder
+	 */
+	static ExpressionBuilder newBuilder(String variables) {
+		if (variables.equals("0")) {
+			// without variables constant folding leaves a single number
+			return new ExpressionBuilder("2 * 3.5 + sin(1) / 4");
+		} else if (variables.equals("1")) {
+			return new ExpressionBuilder("3 * x^2 - 2 * x + sin(x) / 4").withVariableNames("x");
+		}
+		final StringBuilder formula = new StringBuilder();
+		final String[] names = new String[16];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "v" + i;
+			if (i > 0) {
+				formula.append(i % 2 == 0 ? " + " : " * ");
+			}
+			formula.append(names[i]);
+		}
+		return new ExpressionBuilder(formula.toString()).withVariableNames(names);
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		interpreted = newBuilder(variables).build();
+		compiled = newBuilder(variables).compile();
+		expression = newBuilder(variables).buildExpression();
+		context = expression.newContext();
+		final int count = expression.getVariableNames().size();
+		values = new double[count];
+		columns = new double[count][ROWS];
+		for (int i = 0; i < count; i++) {
+			values[i] = i + 0.5;
+			context.setVariable(i, values[i]);
+			interpreted.setVariable(expression.getVariableNames().get(i), values[i]);
+			compiled.setVariable(expression.getVariableNames().get(i), values[i]);
+			for (int row = 0; row < ROWS; row++) {
+				columns[i][row] = row * 0.25 + i;
+			}
+		}
+		out = new double[ROWS];
+	}
+
+	@Benchmark
+	public double interpreted() {
+		return interpreted.calculate();
+	}
+
+	@Benchmark
+	public double interpretedWithValues() {
+		return values.length == 0 ? interpreted.calculate() : interpreted.calculate(values);
+	}
+
+	@Benchmark
+	public double compiled() {
+		return compiled.calculate();
+	}
+
+	@Benchmark
+	public double expression() {
+		return expression.evaluate(context);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public double[] batch() {
+		interpreted.calculate(columns, out);
+		return out;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public double[] batchParallel() {
+		interpreted.calculateParallel(columns, out);
+		return out;
+	}
+}
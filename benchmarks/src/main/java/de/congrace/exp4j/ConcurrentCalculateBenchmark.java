@@ -0,0 +1,75 @@
+package de.congrace.exp4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of calculating an expression from several threads at once, either sharing one immutable
+ * {@link Expression} or using a copy of a {@link Calculable} per thread
+ * 
+ * @author frank asseg
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ConcurrentCalculateBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SharedExpression {
+		@Param({ "1", "many" })
+		public String variables;
+
+		Expression expression;
+
+		Calculable calculable;
+
+		@Setup
+		public void setup() throws Exception {
+			expression = CalculateBenchmark.newBuilder(variables).buildExpression();
+			calculable = CalculateBenchmark.newBuilder(variables).build();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PerThread {
+		EvaluationContext context;
+
+		Calculable calculable;
+
+		@Setup
+		public void setup(SharedExpression shared) {
+			context = shared.expression.newContext();
+			calculable = shared.calculable.copy();
+			for (int i = 0; i < shared.expression.getVariableNames().size(); i++) {
+				context.setVariable(i, i + 0.5);
+				calculable.setVariable(shared.expression.getVariableNames().get(i), i + 0.5);
+			}
+		}
+	}
+
+	@Benchmark
+	public double sharedExpression(SharedExpression shared, PerThread thread) {
+		return shared.expression.evaluate(thread.context);
+	}
+
+	@Benchmark
+	public double copiedCalculable(PerThread thread) {
+		return thread.calculable.calculate();
+	}
+}
@@ -0,0 +1,90 @@
+package de.congrace.exp4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of calculating expressions using custom functions and operators, comparing the varargs and array based
+ * implementations with the specialized ones
+ * 
+ * @author frank asseg
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomOperationBenchmark {
+	private static final String EXPRESSION = "avg(x, y) # scale(x) # avg(y, 2)";
+
+	private Calculable varargs;
+
+	private Calculable specialized;
+
+	@Setup
+	public void setup() throws Exception {
+		final CustomFunction avg = new CustomFunction("avg", 2) {
+			@Override
+			public double applyFunction(double... args) {
+				return (args[0] + args[1]) / 2;
+			}
+		};
+		final CustomFunction scale = new CustomFunction("scale") {
+			@Override
+			public double applyFunction(double... args) {
+				return args[0] * 1.5;
+			}
+		};
+		final CustomOperator max = new CustomOperator("#", true, 2) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return Math.max(values[0], values[1]);
+			}
+		};
+		varargs = new ExpressionBuilder(EXPRESSION).withVariable("x", 1.5).withVariable("y", 2.5)
+				.withCustomFunction(avg).withCustomFunction(scale).withOperation(max).build();
+
+		final CustomFunction2 avg2 = new CustomFunction2("avg") {
+			@Override
+			public double apply(double x, double y) {
+				return (x + y) / 2;
+			}
+		};
+		final CustomFunction1 scale1 = new CustomFunction1("scale") {
+			@Override
+			public double apply(double x) {
+				return x * 1.5;
+			}
+		};
+		final CustomOperator maxBinary = new CustomOperator("#", true, 2) {
+			@Override
+			protected double applyBinary(double left, double right) {
+				return Math.max(left, right);
+			}
+		};
+		specialized = new ExpressionBuilder(EXPRESSION).withVariable("x", 1.5).withVariable("y", 2.5)
+				.withCustomFunction(avg2).withCustomFunction(scale1).withOperation(maxBinary).build();
+	}
+
+	@Benchmark
+	public double varargs() {
+		return varargs.calculate();
+	}
+
+	@Benchmark
+	public double specialized() {
+		return specialized.calculate();
+	}
+}
@@ -0,0 +1,65 @@
+package de.congrace.exp4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The expressions the benchmarks are run with. The short expression is a typical formula of a rule engine, the
+ * medium one uses most builtin functions and operators, and the long one is a generated sum of a few hundred terms
+ * like the formulas exported from spreadsheets. All expressions use the variables x, y and z
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class ExpressionCorpus {
+	static final String SHORT = "2 * x + 1";
+
+	static final String MEDIUM = "sin(x) * cos(y) + sqrt(x^2 + y^2) / (1 + abs(z)) - log(1 + x * x) % 7 + -z^3";
+
+	static final String LONG = createLong(250);
+
+	private static String createLong(int terms) {
+		final StringBuilder expression = new StringBuilder(terms * 24);
+		final String[] variables = { "x", "y", "z" };
+		final String[] functions = { "sin", "cos", "exp", "sqrt", "abs" };
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) {
+				expression.append(i % 4 == 0 ? " - " : " + ");
+			}
+			expression.append(i + 1).append(".5 * ").append(functions[i % functions.length]).append('(')
+					.append(variables[i % variables.length]).append(" / ").append(i % 7 + 2).append(") ^ 2");
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * get an expression of the corpus
+	 * 
+	 * @param size
+	 *            "short", "medium" or "long"
+	 * @return the expression
+	 */
+	static String get(String size) {
+		if (size.equals("short")) {
+			return SHORT;
+		} else if (size.equals("medium")) {
+			return MEDIUM;
+		} else if (size.equals("long")) {
+			return LONG;
+		}
+		throw new IllegalArgumentException("Unknown expression size '" + size + "'");
+	}
+
+	/**
+	 * get the variables used by the expressions of the corpus
+	 * 
+	 * @return the variables and their values in declaration order
+	 */
+	static Map<String, Double> variables() {
+		final Map<String, Double> variables = new LinkedHashMap<String, Double>();
+		variables.put("x", 0.5);
+		variables.put("y", 1.5);
+		variables.put("z", -2.5);
+		return variables;
+	}
+}
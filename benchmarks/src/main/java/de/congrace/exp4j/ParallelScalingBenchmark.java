@@ -0,0 +1,74 @@
+package de.congrace.exp4j;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the scaling of parallel batch calculations with the number of threads of the pool. Other thread counts
+ * are selected with the usual JMH option, e.g.
+ * <code>java -jar target/benchmarks.jar ParallelScaling -p threads=1,16</code>
+ * 
+ * @author frank asseg
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelScalingBenchmark {
+	static final String EXPRESSION = "log(x) - y * (sqrt(x^cos(y))) + (x + y) * (x + y)";
+
+	static final int ROWS = 1 << 22;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private Calculable calc;
+
+	private ForkJoinPool pool;
+
+	private double[][] columns;
+
+	private double[] out;
+
+	@Setup
+	public void setup() throws Exception {
+		calc = new ExpressionBuilder(EXPRESSION).withVariableNames("x", "y").build();
+		pool = new ForkJoinPool(threads);
+		final Random rnd = new Random(42);
+		columns = new double[2][ROWS];
+		for (final double[] column : columns) {
+			for (int i = 0; i < ROWS; i++) {
+				column[i] = rnd.nextDouble() * 100d;
+			}
+		}
+		out = new double[ROWS];
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public double[] calculateParallel() {
+		calc.calculateParallel(columns, out, pool);
+		return out;
+	}
+}
@@ -0,0 +1,219 @@
+package de.congrace.exp4j;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Base class for {@link Calculable} implementations holding the variable state of an expression. The variables are
+ * kept in a double array indexed by the slot of the variable, i.e. its position in the declaration order
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class AbstractCalculable implements Calculable {
+	final List<Token> postfix;
+
+	private String expression;
+
+	final Map<String, Double> variables;
+
+	private final Map<String, Integer> variableSlots;
+
+	private final double[] variableValues;
+
+	// the listener notified of calculations and the expression reported to it, null if calculations are not observed
+	final ExpressionListener listener;
+
+	final String source;
+
+	/**
+	 * construct a new {@link AbstractCalculable}
+	 * 
+	 * @param postfix
+	 *            the tokens of the expression in reverse polish notation as written by the user
+	 * @param variables
+	 *            the variables in declaration order. The position of a variable in this map is its slot
+	 * @param listener
+	 *            the {@link ExpressionListener} notified of the calculations of this expression or null
+	 * @param source
+	 *            the expression reported to the listener
+	 */
+	AbstractCalculable(List<Token> postfix, Map<String, Double> variables, ExpressionListener listener,
+			String source) {
+		super();
+		this.postfix = postfix;
+		this.listener = listener;
+		this.source = source;
+		this.variables = new LinkedHashMap<String, Double>(variables);
+		this.variableSlots = new HashMap<String, Integer>(variables.size());
+		this.variableValues = new double[variables.size()];
+		int slot = 0;
+		for (Map.Entry<String, Double> entry : variables.entrySet()) {
+			variableSlots.put(entry.getKey(), slot);
+			// variables declared without a value evaluate to NaN until they are set
+			variableValues[slot++] = entry.getValue() == null ? Double.NaN : entry.getValue();
+		}
+	}
+
+	/**
+	 * evaluate the expression
+	 * 
+	 * @param values
+	 *            the variable values indexed by slot
+	 * @return the result of the calculation
+	 */
+	abstract double evaluate(double[] values);
+
+	/**
+	 * calculate the result of the expression and substitute the variables by their values beforehand
+	 * 
+	 * @param values
+	 *            the variable values to be substituted
+	 * @return the result of the calculation
+	 * @throws IllegalArgumentException
+	 *             if the variables are invalid
+	 */
+	public double calculate(double... values) throws IllegalArgumentException {
+		if (variables.size() == 0 && values != null) {
+			throw new IllegalArgumentException("there are no variables to set values");
+		} else if (values != null && values.length != variables.size()) {
+			throw new IllegalArgumentException("The are an unequal number of variables and arguments");
+		}
+		if (listener == null) {
+			return evaluate(values != null ? values : variableValues);
+		}
+		final long start = System.nanoTime();
+		final double result;
+		try {
+			result = evaluate(values != null ? values : variableValues);
+		} catch (RuntimeException e) {
+			listener.calculationFailed(source, e);
+			throw e;
+		}
+		listener.expressionCalculated(source, 1, System.nanoTime() - start);
+		return result;
+	}
+
+	public void calculate(double[][] columns, double[] out) throws IllegalArgumentException {
+		checkColumns(columns, out.length);
+		// the scratch space is allocated per call, so calculations on several threads do not share it
+		final double[][] batchScratch = newBatchScratch();
+		if (listener == null) {
+			evaluate(columns, out, 0, out.length, batchScratch);
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			evaluate(columns, out, 0, out.length, batchScratch);
+		} catch (RuntimeException e) {
+			listener.calculationFailed(source, e);
+			throw e;
+		}
+		listener.expressionCalculated(source, out.length, System.nanoTime() - start);
+	}
+
+	public void calculateParallel(double[][] columns, double[] out) throws IllegalArgumentException {
+		calculateParallel(columns, out, ForkJoinPool.commonPool());
+	}
+
+	public void calculateParallel(double[][] columns, double[] out, ForkJoinPool pool)
+			throws IllegalArgumentException {
+		checkColumns(columns, out.length);
+		final ParallelCalculation calculation = new ParallelCalculation(this, columns, out, 0, out.length,
+				new ConcurrentLinkedQueue<double[][]>());
+		if (listener == null) {
+			pool.invoke(calculation);
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			pool.invoke(calculation);
+		} catch (RuntimeException e) {
+			listener.calculationFailed(source, e);
+			throw e;
+		}
+		listener.expressionCalculated(source, out.length, System.nanoTime() - start);
+	}
+
+	/**
+	 * validate the columns of a batch calculation
+	 * 
+	 * @param columns
+	 *            the variable columns
+	 * @param rowCount
+	 *            the number of rows to be calculated
+	 * @throws IllegalArgumentException
+	 *             if the columns are invalid
+	 */
+	void checkColumns(double[][] columns, int rowCount) throws IllegalArgumentException {
+		if (columns.length != variables.size()) {
+			throw new IllegalArgumentException("The are an unequal number of variables and columns");
+		}
+		for (final double[] column : columns) {
+			if (column.length < rowCount) {
+				throw new IllegalArgumentException("A column has less than " + rowCount + " rows");
+			}
+		}
+	}
+
+	/**
+	 * create the scratch space a single thread needs for batch calculations. This implementation returns a single
+	 * array holding the variable values of a row
+	 * 
+	 * @return the scratch space to be passed to {@link #evaluate(double[][], double[], int, int, double[][])}
+	 */
+	double[][] newBatchScratch() {
+		return new double[1][variables.size()];
+	}
+
+	/**
+	 * evaluate the expression for a range of rows. This implementation evaluates one row after another, subclasses
+	 * may evaluate the rows in blocks
+	 * 
+	 * @param columns
+	 *            the variable values, one column per slot
+	 * @param out
+	 *            the array receiving the results
+	 * @param from
+	 *            the first row, inclusive
+	 * @param to
+	 *            the last row, exclusive
+	 * @param scratch
+	 *            the scratch space created by {@link #newBatchScratch()}, which must not be used by another thread at
+	 *            the same time
+	 */
+	void evaluate(double[][] columns, double[] out, int from, int to, double[][] scratch) {
+		final double[] values = scratch[0];
+		for (int row = from; row < to; row++) {
+			for (int slot = 0; slot < values.length; slot++) {
+				values[slot] = columns[slot][row];
+			}
+			out[row] = evaluate(values);
+		}
+	}
+
+	public double calculate() {
+		return calculate(null);
+	}
+
+	public String getExpression() {
+		// the string is only needed for display so it is not created before it is asked for
+		if (expression == null) {
+			expression = RPNConverter.toPostfixString(postfix);
+		}
+		return expression;
+	}
+
+	public void setVariable(String name, double value) {
+		final Integer slot = variableSlots.get(name);
+		if (slot == null) {
+			throw new IllegalArgumentException("Unknown variable '" + name + "'");
+		}
+		this.variables.put(name, value);
+		this.variableValues[slot] = value;
+	}
+}
@@ -0,0 +1,16 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link CustomFunction1} which is part of exp4j. Builtin functions are deterministic single argument functions
+ * corresponding to the {@link Math} method of the same name, which allows them to be evaluated at build time or
+ * compiled to direct method calls
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class BuiltinFunction extends CustomFunction1 {
+
+	BuiltinFunction(String name) throws InvalidCustomFunctionException {
+		super(name, true);
+	}
+}
@@ -0,0 +1,193 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link CustomOperator} which is part of exp4j. Builtin operators are deterministic, which allows them to be
+ * evaluated at build time or compiled to bytecode instructions. Every builtin operator is identified by an opcode
+ * which the evaluator switches on instead of calling the operator
+ * 
+ * @author frank asseg
+ * 
+ */
+final class BuiltinOperator extends CustomOperator {
+	static final int ADD = 1;
+
+	static final int SUBTRACT = 2;
+
+	static final int MULTIPLY = 3;
+
+	static final int DIVIDE = 4;
+
+	static final int MODULO = 5;
+
+	static final int POWER = 6;
+
+	static final int NEGATE = 7;
+
+	static final int SQUARE = 8;
+
+	static final int SQUARE_ROOT = 9;
+
+	final int opcode;
+
+	/**
+	 * construct a new {@link BuiltinOperator}
+	 * 
+	 * @param symbol
+	 *            the symbol of the operator
+	 * @param leftAssociative
+	 *            true is the operation is left associative
+	 * @param precedence
+	 *            the precedence of the operation
+	 * @param operandCount
+	 *            the number of operands of the operation
+	 * @param opcode
+	 *            the opcode of the operation
+	 */
+	BuiltinOperator(String symbol, boolean leftAssociative, int precedence, int operandCount, int opcode) {
+		super(symbol, leftAssociative, precedence, operandCount);
+		this.opcode = opcode;
+	}
+
+	@Override
+	protected double applyBinary(double left, double right) {
+		return applyBinary(opcode, left, right);
+	}
+
+	@Override
+	protected double applyUnary(double operand) {
+		return applyUnary(opcode, operand);
+	}
+
+	/**
+	 * apply a binary builtin operation
+	 * 
+	 * @param opcode
+	 *            the opcode of the operation
+	 * @param left
+	 *            the left operand
+	 * @param right
+	 *            the right operand
+	 * @return the result of the operation
+	 */
+	static double applyBinary(int opcode, double left, double right) {
+		switch (opcode) {
+		case ADD:
+			return left + right;
+		case SUBTRACT:
+			return left - right;
+		case MULTIPLY:
+			return left * right;
+		case DIVIDE:
+			if (right == 0d) {
+				throw new ArithmeticException("Division by zero!");
+			}
+			return left / right;
+		case MODULO:
+			if (right == 0d) {
+				throw new ArithmeticException("Division by zero!");
+			}
+			return left % right;
+		case POWER:
+			return Math.pow(left, right);
+		default:
+			throw new IllegalArgumentException("Unknown binary opcode " + opcode);
+		}
+	}
+
+	/**
+	 * apply an unary builtin operation
+	 * 
+	 * @param opcode
+	 *            the opcode of the operation
+	 * @param operand
+	 *            the operand
+	 * @return the result of the operation
+	 */
+	static double applyUnary(int opcode, double operand) {
+		switch (opcode) {
+		case NEGATE:
+			return -operand;
+		case SQUARE:
+			return operand * operand;
+		case SQUARE_ROOT:
+			return RPNSimplifier.squareRoot(operand);
+		default:
+			throw new IllegalArgumentException("Unknown unary opcode " + opcode);
+		}
+	}
+
+	/**
+	 * apply the operation to a block of rows, writing the results into the left operand column. The builtin
+	 * operations are plain loops over primitive arrays which the JIT is able to unroll and vectorize
+	 * 
+	 * @param left
+	 *            the left or only operand of every row, receives the results
+	 * @param right
+	 *            the right operand of every row or null for unary operators
+	 * @param length
+	 *            the number of rows
+	 */
+	void applyOperation(double[] left, double[] right, int length) {
+		switch (opcode) {
+		case ADD:
+			for (int i = 0; i < length; i++) {
+				left[i] += right[i];
+			}
+			break;
+		case SUBTRACT:
+			for (int i = 0; i < length; i++) {
+				left[i] -= right[i];
+			}
+			break;
+		case MULTIPLY:
+			for (int i = 0; i < length; i++) {
+				left[i] *= right[i];
+			}
+			break;
+		case DIVIDE:
+			checkDivisors(right, length);
+			for (int i = 0; i < length; i++) {
+				left[i] /= right[i];
+			}
+			break;
+		case MODULO:
+			checkDivisors(right, length);
+			for (int i = 0; i < length; i++) {
+				left[i] %= right[i];
+			}
+			break;
+		case POWER:
+			for (int i = 0; i < length; i++) {
+				left[i] = Math.pow(left[i], right[i]);
+			}
+			break;
+		case NEGATE:
+			for (int i = 0; i < length; i++) {
+				left[i] = -left[i];
+			}
+			break;
+		case SQUARE:
+			for (int i = 0; i < length; i++) {
+				left[i] *= left[i];
+			}
+			break;
+		case SQUARE_ROOT:
+			for (int i = 0; i < length; i++) {
+				left[i] = RPNSimplifier.squareRoot(left[i]);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown opcode " + opcode);
+		}
+	}
+
+	private static void checkDivisors(double[] divisors, int length) {
+		boolean zero = false;
+		for (int i = 0; i < length; i++) {
+			zero |= divisors[i] == 0d;
+		}
+		if (zero) {
+			throw new ArithmeticException("Division by zero!");
+		}
+	}
+}
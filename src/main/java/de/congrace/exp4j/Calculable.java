@@ -1,16 +1,22 @@
 package de.congrace.exp4j;
 
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * This is the basic result class of the exp4j {@link ExpressionBuilder}
+ * This is the basic result class of the exp4j {@link ExpressionBuilder}. The calculations of a {@link Calculable} keep
+ * their operands in arrays of their own, so several threads may calculate the same instance at the same time as long
+ * as none of them changes its variables via {@link #setVariable(String, double)}. Use {@link #copy()} to give every
+ * thread its own variable values. An {@link Expression} built by {@link ExpressionBuilder#buildExpression()} calculates
+ * without allocating any memory on an {@link EvaluationContext} per thread
  * 
  * @author frank asseg
  * 
  */
 public interface Calculable {
 	/**
-	 * calculate the result of the expression
+	 * calculate the result of the expression using the variable values set on the {@link ExpressionBuilder} or via
+	 * {@link #setVariable(String, double)}. Variables that have been declared without a value evaluate to NaN
 	 * 
 	 * @return the result of the calculation
 	 */
@@ -26,6 +32,79 @@ public interface Calculable {
 	 */
 	public double calculate(double... variableValues);
 
+	/**
+	 * calculate the result of the expression for many rows at once. The {@link Calculable}s built by exp4j evaluate
+	 * the rows in blocks, applying every operation of the expression to all rows of a block before moving on to the
+	 * next operation. The default implementation calls {@link #calculate(double...)} for one row after another
+	 * 
+	 * @param columns
+	 *            the values of the variables, one column per variable in the same order as the declaration of
+	 *            variables in the {@link ExpressionBuilder}. Row i is calculated using the values columns[n][i]
+	 * @param out
+	 *            the array receiving the result of every row. Its length determines the number of rows
+	 * @throws IllegalArgumentException
+	 *             if a column has less rows than out. The {@link Calculable}s built by exp4j also check that the
+	 *             number of columns matches the number of variables, the default implementation passes every row on
+	 *             to {@link #calculate(double...)} which decides how a wrong number of values is reported
+	 */
+	public default void calculate(double[][] columns, double[] out) {
+		for (final double[] column : columns) {
+			if (column.length < out.length) {
+				throw new IllegalArgumentException("A column has less than " + out.length + " rows");
+			}
+		}
+		final double[] values = new double[columns.length];
+		for (int row = 0; row < out.length; row++) {
+			for (int slot = 0; slot < values.length; slot++) {
+				values[slot] = columns[slot][row];
+			}
+			// an expression without variables does not accept an array of values
+			out[row] = values.length == 0 ? calculate() : calculate(values);
+		}
+	}
+
+	/**
+	 * calculate the result of the expression for many rows at once using all cores. The rows are split into chunks
+	 * which are calculated on the common {@link ForkJoinPool}. Custom functions and operators used in the expression
+	 * have to be thread safe. The default implementation calls
+	 * {@link #calculateParallel(double[][], double[], ForkJoinPool)} with the common pool
+	 * 
+	 * @param columns
+	 *            the values of the variables, one column per variable in the same order as the declaration of
+	 *            variables in the {@link ExpressionBuilder}. Row i is calculated using the values columns[n][i]
+	 * @param out
+	 *            the array receiving the result of every row. Its length determines the number of rows
+	 * @throws IllegalArgumentException
+	 *             if a column has less rows than out, or in the cases described at
+	 *             {@link #calculate(double[][], double[])}
+	 * @see #calculate(double[][], double[])
+	 */
+	public default void calculateParallel(double[][] columns, double[] out) {
+		calculateParallel(columns, out, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * calculate the result of the expression for many rows at once using the given {@link ForkJoinPool}. Custom
+	 * functions and operators used in the expression have to be thread safe. The default implementation can not
+	 * assume that this {@link Calculable} may be used by several threads, so it calculates the rows on the calling
+	 * thread via {@link #calculate(double[][], double[])} and ignores the pool
+	 * 
+	 * @param columns
+	 *            the values of the variables, one column per variable in the same order as the declaration of
+	 *            variables in the {@link ExpressionBuilder}. Row i is calculated using the values columns[n][i]
+	 * @param out
+	 *            the array receiving the result of every row. Its length determines the number of rows
+	 * @param pool
+	 *            the pool running the calculation
+	 * @throws IllegalArgumentException
+	 *             if a column has less rows than out, or in the cases described at
+	 *             {@link #calculate(double[][], double[])}
+	 * @see #calculate(double[][], double[])
+	 */
+	public default void calculateParallel(double[][] columns, double[] out, ForkJoinPool pool) {
+		calculate(columns, out);
+	}
+
 	/**
 	 * return the expression in reverse polish postfix notation
 	 * 
@@ -40,11 +119,16 @@ public interface Calculable {
 	 *            the variable name
 	 * @param value
 	 *            the value of the variable
+	 * @throws IllegalArgumentException
+	 *             if no variable with the given name has been declared
 	 */
 	public void setVariable(String name, double value);
 
     /**
-     * clone Calculable so that two calculables don't share the same states
+     * clone Calculable so that two calculables don't share the same states. The copy has its own variable values, so
+     * the variables of the original and the copy can be set by two threads at the same time
+     * 
+     * @return a new {@link Calculable} for the same expression
      */
     public Calculable copy();
 }
@@ -1,14 +1,48 @@
 package de.congrace.exp4j;
 
-import java.util.Map;
-import java.util.Stack;
-
 abstract class CalculationToken extends Token {
 
 	CalculationToken(String value) {
 		super(value);
 	}
 
-	abstract void mutateStackForCalculation(Stack<Double> stack, Map<String, Double> variableValues);
+	/**
+	 * apply this token to the operand stack
+	 * 
+	 * @param stack
+	 *            the operand stack
+	 * @param top
+	 *            the number of operands currently on the stack
+	 * @param variableValues
+	 *            the values of the variables indexed by their slot
+	 * @return the number of operands on the stack after this token has been applied
+	 */
+	abstract int mutateStackForCalculation(double[] stack, int top, double[] variableValues);
+
+	/**
+	 * apply this token to a block of rows at once. Every element of the stack is a column holding the operand of each
+	 * row in the block
+	 * 
+	 * @param stack
+	 *            the operand stack of columns
+	 * @param top
+	 *            the number of operand columns currently on the stack
+	 * @param columns
+	 *            the values of the variables indexed by their slot, one column per variable
+	 * @param offset
+	 *            the row in the variable columns the block starts at
+	 * @param length
+	 *            the number of rows in the block
+	 * @return the number of operand columns on the stack after this token has been applied
+	 */
+	abstract int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length);
+
+	/**
+	 * get the number of operands this token takes off the stack. Every {@link CalculationToken} pushes exactly one
+	 * result back onto the stack
+	 * 
+	 * @return the number of operands consumed
+	 */
+	abstract int getOperandCount();
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package de.congrace.exp4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * {@link Calculable} implementation delegating the calculation to a function generated by the
+ * {@link ExpressionCompiler}. The generated code is stateless so copies share the same instance.
+ */
+class CompiledCalculable extends AbstractCalculable {
+	final ToDoubleFunction<double[]> bytecode;
+
+	CompiledCalculable(ToDoubleFunction<double[]> bytecode, List<Token> postfix, Map<String, Double> variables,
+			ExpressionListener listener, String source) {
+		super(postfix, variables, listener, source);
+		this.bytecode = bytecode;
+	}
+
+	public Calculable copy() {
+		return new CompiledCalculable(bytecode, postfix, variables, listener, source);
+	}
+
+	@Override
+	double evaluate(double[] values) {
+		return bytecode.applyAsDouble(values);
+	}
+}
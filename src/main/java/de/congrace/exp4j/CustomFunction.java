@@ -23,6 +23,8 @@ public abstract class CustomFunction {
 
 	final String name;
 
+	final boolean pure;
+
 	/**
 	 * create a new single value input CustomFunction with a set name
 	 * 
@@ -32,6 +34,7 @@ public abstract class CustomFunction {
 	protected CustomFunction(String name) throws InvalidCustomFunctionException {
 		this.argc = 1;
 		this.name = name;
+		this.pure = false;
 		int firstChar = (int) name.charAt(0);
 		if ((firstChar < 65 || firstChar > 90) && (firstChar < 97 || firstChar > 122)) {
 			throw new InvalidCustomFunctionException("functions have to start with a lowercase or uppercase character");
@@ -47,11 +50,39 @@ public abstract class CustomFunction {
 	protected CustomFunction(String name, int argumentCount) throws InvalidCustomFunctionException {
 		this.argc = argumentCount;
 		this.name = name;
+		this.pure = false;
+	}
+
+	/**
+	 * create a new CustomFunction with a set name and number of arguments
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 * @param argumentCount
+	 *            the number of arguments of the function
+	 * @param pure
+	 *            true if the function always returns the same result for the same arguments and has no side effects.
+	 *            Identical calls of a pure function in an expression are calculated only once per calculation, while
+	 *            every call of a function which is not pure is executed
+	 */
+	protected CustomFunction(String name, int argumentCount, boolean pure) throws InvalidCustomFunctionException {
+		this.argc = argumentCount;
+		this.name = name;
+		this.pure = pure;
 	}
 
 	public int getArgumentCount(){
 		return argc;
 	}
+
+	/**
+	 * check if the function is pure, which allows exp4j to reuse the result of a call for identical calls
+	 * 
+	 * @return true if the function always returns the same result for the same arguments and has no side effects
+	 */
+	public boolean isPure() {
+		return pure;
+	}
 	
 	public abstract double applyFunction(double... args);
 }
@@ -0,0 +1,57 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link CustomFunction} taking a single argument. exp4j passes the argument straight from the operand stack to
+ * {@link #apply(double)}, so no argument array is allocated when the function is called.<br/>
+ * <br/>
+ * <b>Example</b><br/>
+ * <code><pre>{@code}
+ * CustomFunction1 triple = new CustomFunction1("triple") {
+ *     public double apply(double x) {
+ *         return 3 * x;
+ *     }
+ * };
+ * }</pre></code>
+ * 
+ * @author frank asseg
+ * 
+ */
+public abstract class CustomFunction1 extends CustomFunction {
+
+	/**
+	 * create a new {@link CustomFunction1} which is not pure
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 */
+	protected CustomFunction1(String name) throws InvalidCustomFunctionException {
+		super(name, 1, false);
+	}
+
+	/**
+	 * create a new {@link CustomFunction1}
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 * @param pure
+	 *            true if the function always returns the same result for the same arguments and has no side effects
+	 * @see CustomFunction#isPure()
+	 */
+	protected CustomFunction1(String name, boolean pure) throws InvalidCustomFunctionException {
+		super(name, 1, pure);
+	}
+
+	/**
+	 * apply the function
+	 * 
+	 * @param x
+	 *            the argument
+	 * @return the result of the function
+	 */
+	public abstract double apply(double x);
+
+	@Override
+	public final double applyFunction(double... args) {
+		return apply(args[0]);
+	}
+}
@@ -0,0 +1,60 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link CustomFunction} taking two arguments. exp4j passes the arguments straight from the operand stack to
+ * {@link #apply(double, double)} in the order they are written in the expression, so no argument array is allocated
+ * when the function is called.<br/>
+ * <br/>
+ * <b>Example</b><br/>
+ * <code><pre>{@code}
+ * CustomFunction2 hypot = new CustomFunction2("hypot", true) {
+ *     public double apply(double x, double y) {
+ *         return Math.hypot(x, y);
+ *     }
+ * };
+ * }</pre></code>
+ * 
+ * @author frank asseg
+ * 
+ */
+public abstract class CustomFunction2 extends CustomFunction {
+
+	/**
+	 * create a new {@link CustomFunction2} which is not pure
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 */
+	protected CustomFunction2(String name) throws InvalidCustomFunctionException {
+		super(name, 2, false);
+	}
+
+	/**
+	 * create a new {@link CustomFunction2}
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 * @param pure
+	 *            true if the function always returns the same result for the same arguments and has no side effects
+	 * @see CustomFunction#isPure()
+	 */
+	protected CustomFunction2(String name, boolean pure) throws InvalidCustomFunctionException {
+		super(name, 2, pure);
+	}
+
+	/**
+	 * apply the function
+	 * 
+	 * @param x
+	 *            the first argument
+	 * @param y
+	 *            the second argument
+	 * @return the result of the function
+	 */
+	public abstract double apply(double x, double y);
+
+	@Override
+	public final double applyFunction(double... args) {
+		return apply(args[0], args[1]);
+	}
+}
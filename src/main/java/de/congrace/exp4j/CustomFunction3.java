@@ -0,0 +1,62 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link CustomFunction} taking three arguments. exp4j passes the arguments straight from the operand stack to
+ * {@link #apply(double, double, double)} in the order they are written in the expression, so no argument array
+ * is allocated when the function is called.<br/>
+ * <br/>
+ * <b>Example</b><br/>
+ * <code><pre>{@code}
+ * CustomFunction3 clamp = new CustomFunction3("clamp", true) {
+ *     public double apply(double value, double min, double max) {
+ *         return Math.max(min, Math.min(max, value));
+ *     }
+ * };
+ * }</pre></code>
+ * 
+ * @author frank asseg
+ * 
+ */
+public abstract class CustomFunction3 extends CustomFunction {
+
+	/**
+	 * create a new {@link CustomFunction3} which is not pure
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 */
+	protected CustomFunction3(String name) throws InvalidCustomFunctionException {
+		super(name, 3, false);
+	}
+
+	/**
+	 * create a new {@link CustomFunction3}
+	 * 
+	 * @param name
+	 *            the name of the function (e.g. foo)
+	 * @param pure
+	 *            true if the function always returns the same result for the same arguments and has no side effects
+	 * @see CustomFunction#isPure()
+	 */
+	protected CustomFunction3(String name, boolean pure) throws InvalidCustomFunctionException {
+		super(name, 3, pure);
+	}
+
+	/**
+	 * apply the function
+	 * 
+	 * @param x
+	 *            the first argument
+	 * @param y
+	 *            the second argument
+	 * @param z
+	 *            the third argument
+	 * @return the result of the function
+	 */
+	public abstract double apply(double x, double y, double z);
+
+	@Override
+	public final double applyFunction(double... args) {
+		return apply(args[0], args[1], args[2]);
+	}
+}
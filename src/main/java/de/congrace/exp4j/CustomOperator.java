@@ -2,7 +2,9 @@ package de.congrace.exp4j;
 
 /**
  * This class is used to create custom operators for use in expressions<br/>
- * The applyOperation(double[] values) will have to be implemented by users of this class. <br/>
+ * Users of this class have to override either applyOperation(double[] values) or the method matching the number of
+ * operands, applyUnary(double operand) or applyBinary(double left, double right). The constructors throw an
+ * {@link IllegalArgumentException} if none of them is overridden. <br/>
  * <b>Example</b><br/>
  * <code><pre>{@code} 
  *      CustomOperator greaterEq = new CustomOperator(">=", true, 4, 2) {
@@ -46,6 +48,9 @@ public abstract class CustomOperator {
 	 *            true is the operation is left associative
 	 * @param precedence
 	 *            the precedence of the operation
+	 * @throws IllegalArgumentException
+	 *             if the operator overrides neither {@link #applyOperation(double[])} nor the method matching its
+	 *             number of operands
 	 */
 	protected CustomOperator(final String symbol, final boolean leftAssociative, final int precedence) {
 		super();
@@ -53,6 +58,7 @@ public abstract class CustomOperator {
 		this.symbol = symbol;
 		this.precedence = precedence;
 		this.operandCount = 2;
+		checkImplemented();
 	}
 
 	/**
@@ -67,6 +73,9 @@ public abstract class CustomOperator {
 	 * @param operandCount
 	 *            the number of operands of the operation. A value of 1 means the operation takes one operand. Any other
 	 *            value means the operation takes 2 arguments.
+	 * @throws IllegalArgumentException
+	 *             if the operator overrides neither {@link #applyOperation(double[])} nor the method matching its
+	 *             number of operands
 	 */
 
 	protected CustomOperator(final String symbol, final boolean leftAssociative, final int precedence,
@@ -76,6 +85,7 @@ public abstract class CustomOperator {
 		this.symbol = symbol;
 		this.precedence = precedence;
 		this.operandCount = operandCount == 1 ? 1 : 2;
+		checkImplemented();
 	}
 
 	/**
@@ -83,6 +93,9 @@ public abstract class CustomOperator {
 	 * 
 	 * @param symbol
 	 *            the {@link String} to use a symbol for this operation
+	 * @throws IllegalArgumentException
+	 *             if the operator overrides neither {@link #applyOperation(double[])} nor the method matching its
+	 *             number of operands
 	 */
 	protected CustomOperator(final String symbol) {
 		super();
@@ -90,6 +103,7 @@ public abstract class CustomOperator {
 		this.symbol = symbol;
 		this.precedence = 1;
 		this.operandCount = 2;
+		checkImplemented();
 	}
 
 	/**
@@ -99,6 +113,9 @@ public abstract class CustomOperator {
 	 *            the {@link String} to use a symbol for this operation
 	 * @param precedence
 	 *            the precedence of the operation
+	 * @throws IllegalArgumentException
+	 *             if the operator overrides neither {@link #applyOperation(double[])} nor the method matching its
+	 *             number of operands
 	 */
 	protected CustomOperator(final String symbol, final int precedence) {
 		super();
@@ -106,6 +123,38 @@ public abstract class CustomOperator {
 		this.symbol = symbol;
 		this.precedence = precedence;
 		this.operandCount = 2;
+		checkImplemented();
+	}
+
+	/*
+	 * the default implementations of the apply methods call each other, so an operator overriding none of them would
+	 * recurse until the stack overflows on its first calculation
+	 */
+	private void checkImplemented() {
+		final String name = operandCount == 1 ? "applyUnary" : "applyBinary";
+		final Class<?>[] parameterTypes = operandCount == 1 ? new Class<?>[] { double.class } : new Class<?>[] {
+				double.class, double.class };
+		try {
+			for (Class<?> type = getClass(); type != CustomOperator.class; type = type.getSuperclass()) {
+				if (declares(type, "applyOperation", double[].class) || declares(type, name, parameterTypes)) {
+					return;
+				}
+			}
+		} catch (SecurityException e) {
+			// the methods can not be inspected, so the operator is trusted to implement one of them
+			return;
+		}
+		throw new IllegalArgumentException("The operator '" + symbol
+				+ "' has to override applyOperation(double[]) or " + name);
+	}
+
+	private static boolean declares(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			type.getDeclaredMethod(name, parameterTypes);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
 	}
 
 	/**
@@ -119,7 +168,10 @@ public abstract class CustomOperator {
 	 *       }
 	 * </pre>
 	 * 
-	 * </code>
+	 * </code> This implementation passes the operands on to {@link #applyUnary(double)} or
+	 * {@link #applyBinary(double, double)}. Operators have to override either this method or the method matching
+	 * their number of operands. Overriding the primitive methods avoids allocating the values array for every
+	 * operation.
 	 * 
 	 * @param values
 	 *            the operands for the operation. If the {@link CustomOperator} uses only one operand such as a
@@ -130,5 +182,42 @@ public abstract class CustomOperator {
 	 *            array.
 	 * @return the result of the operation
 	 */
-	protected abstract double applyOperation(double[] values);
+	protected double applyOperation(double[] values) {
+		return operandCount == 1 ? applyUnary(values[0]) : applyBinary(values[0], values[1]);
+	}
+
+	/**
+	 * Apply the operation to two operands. This implementation passes the operands to
+	 * {@link #applyOperation(double[])} in a new array, operators taking two operands should override it:
+	 * 
+	 * <pre>
+	 * <code>{@code}
+	 *       protected double applyBinary(double left, double right) {
+	 *           return left * right;
+	 *       }
+	 * </pre>
+	 * 
+	 * </code>
+	 * 
+	 * @param left
+	 *            the operand to the left of the symbol
+	 * @param right
+	 *            the operand to the right of the symbol
+	 * @return the result of the operation
+	 */
+	protected double applyBinary(double left, double right) {
+		return applyOperation(new double[] { left, right });
+	}
+
+	/**
+	 * Apply the operation to a single operand. This implementation passes the operand to
+	 * {@link #applyOperation(double[])} in a new array, operators taking one operand should override it
+	 * 
+	 * @param operand
+	 *            the operand
+	 * @return the result of the operation
+	 */
+	protected double applyUnary(double operand) {
+		return applyOperation(new double[] { operand });
+	}
 }
@@ -0,0 +1,97 @@
+package de.congrace.exp4j;
+
+/**
+ * The mutable state of a calculation of an {@link Expression}: the variable values and the operand stack. A context is
+ * cheap to create and reusable for any number of calculations, but it must not be used by more than one thread at a
+ * time
+ * 
+ * @author frank asseg
+ * 
+ */
+public final class EvaluationContext {
+	final Expression expression;
+
+	final double[] values;
+
+	final double[] stack;
+
+	/**
+	 * construct a new {@link EvaluationContext}
+	 * 
+	 * @param expression
+	 *            the expression this context belongs to
+	 * @param values
+	 *            the variable values indexed by slot
+	 * @param stack
+	 *            the operand stack
+	 */
+	EvaluationContext(Expression expression, double[] values, double[] stack) {
+		super();
+		this.expression = expression;
+		this.values = values;
+		this.stack = stack;
+	}
+
+	/**
+	 * set a variable value for the calculation
+	 * 
+	 * @param name
+	 *            the variable name
+	 * @param value
+	 *            the value of the variable
+	 * @return this {@link EvaluationContext}
+	 * @throws IllegalArgumentException
+	 *             if no variable with the given name has been declared
+	 */
+	public EvaluationContext setVariable(String name, double value) throws IllegalArgumentException {
+		values[expression.getVariableSlot(name)] = value;
+		return this;
+	}
+
+	/**
+	 * set a variable value for the calculation
+	 * 
+	 * @param slot
+	 *            the slot of the variable as returned by {@link Expression#getVariableSlot(String)}
+	 * @param value
+	 *            the value of the variable
+	 * @return this {@link EvaluationContext}
+	 * @throws IndexOutOfBoundsException
+	 *             if the slot is not valid
+	 */
+	public EvaluationContext setVariable(int slot, double value) throws IndexOutOfBoundsException {
+		values[slot] = value;
+		return this;
+	}
+
+	/**
+	 * set the values of all variables for the calculation
+	 * 
+	 * @param variableValues
+	 *            the values of the variables in the same order as the declaration of variables in the
+	 *            {@link ExpressionBuilder}
+	 * @return this {@link EvaluationContext}
+	 * @throws IllegalArgumentException
+	 *             if the number of values does not match the number of variables
+	 */
+	public EvaluationContext setVariables(double... variableValues) throws IllegalArgumentException {
+		if (variableValues.length != values.length) {
+			throw new IllegalArgumentException("The are an unequal number of variables and arguments");
+		}
+		System.arraycopy(variableValues, 0, values, 0, values.length);
+		return this;
+	}
+
+	/**
+	 * get the value of a variable
+	 * 
+	 * @param name
+	 *            the variable name
+	 * @return the value of the variable
+	 * @throws IllegalArgumentException
+	 *             if no variable with the given name has been declared
+	 */
+	public double getVariable(String name) throws IllegalArgumentException {
+		return values[expression.getVariableSlot(name)];
+	}
+}
@@ -0,0 +1,161 @@
+package de.congrace.exp4j;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * An immutable and thread safe expression created by {@link ExpressionBuilder#buildExpression()}. The variable values
+ * and the operand stack of a calculation live in an {@link EvaluationContext}, so a single {@link Expression} can be
+ * shared by any number of threads without copying or locking as long as every thread uses its own context<br/>
+ * <b>Example</b><br/>
+ * <code><pre>{@code} 
+ *      Expression expression = new ExpressionBuilder("3 * x + y").withVariableNames("x", "y").buildExpression();
+ *      // in every thread
+ *      EvaluationContext context = expression.newContext();
+ *      double result = expression.evaluate(context.setVariable("x", 1d).setVariable("y", 2d));
+ * </pre></code>
+ * 
+ * @author frank asseg
+ * 
+ */
+public final class Expression {
+	private final List<Token> postfix;
+
+	private String expression;
+
+	private final List<String> variableNames;
+
+	private final Map<String, Integer> variableSlots;
+
+	private final double[] defaultValues;
+
+	private final CalculationToken[] tokens;
+
+	private final int temporaryCount;
+
+	private final int stackSize;
+
+	private final ToDoubleFunction<double[]> bytecode;
+
+	private final ExpressionListener listener;
+
+	private final String source;
+
+	/**
+	 * construct a new {@link Expression}
+	 * 
+	 * @param rpn
+	 *            the interpreted expression
+	 * @param bytecode
+	 *            the compiled expression or null if the expression is interpreted
+	 */
+	Expression(RPNExpression rpn, ToDoubleFunction<double[]> bytecode) {
+		super();
+		this.postfix = rpn.postfix;
+		this.variableNames = Collections.unmodifiableList(Arrays.asList(rpn.variables.keySet().toArray(
+				new String[rpn.variables.size()])));
+		this.variableSlots = new HashMap<String, Integer>(variableNames.size());
+		this.defaultValues = new double[variableNames.size()];
+		int slot = 0;
+		for (Map.Entry<String, Double> entry : rpn.variables.entrySet()) {
+			variableSlots.put(entry.getKey(), slot);
+			// variables declared without a value evaluate to NaN until they are set
+			defaultValues[slot++] = entry.getValue() == null ? Double.NaN : entry.getValue();
+		}
+		this.tokens = rpn.calculationTokens;
+		this.temporaryCount = rpn.temporaryCount;
+		this.stackSize = rpn.temporaryCount + rpn.stackDepth;
+		this.bytecode = bytecode;
+		this.listener = rpn.listener;
+		this.source = rpn.source;
+	}
+
+	/**
+	 * create a new {@link EvaluationContext} for this expression. The context holds the variable values set on the
+	 * {@link ExpressionBuilder}, variables declared without a value evaluate to NaN
+	 * 
+	 * @return a new context which must not be used by more than one thread at a time
+	 */
+	public EvaluationContext newContext() {
+		return new EvaluationContext(this, defaultValues.clone(), new double[bytecode == null ? stackSize : 0]);
+	}
+
+	/**
+	 * calculate the result of the expression using the variable values of a context
+	 * 
+	 * @param context
+	 *            the {@link EvaluationContext} created by {@link #newContext()}
+	 * @return the result of the calculation
+	 * @throws IllegalArgumentException
+	 *             if the context has been created by another {@link Expression}
+	 */
+	public double evaluate(EvaluationContext context) throws IllegalArgumentException {
+		if (context.expression != this) {
+			throw new IllegalArgumentException("The context has been created by another expression");
+		}
+		if (listener == null) {
+			return evaluate(context.values, context.stack);
+		}
+		final long start = System.nanoTime();
+		final double result;
+		try {
+			result = evaluate(context.values, context.stack);
+		} catch (RuntimeException e) {
+			listener.calculationFailed(source, e);
+			throw e;
+		}
+		listener.expressionCalculated(source, 1, System.nanoTime() - start);
+		return result;
+	}
+
+	private double evaluate(double[] values, double[] stack) {
+		if (bytecode != null) {
+			return bytecode.applyAsDouble(values);
+		}
+		return RPNExpression.evaluate(tokens, temporaryCount, stack, values);
+	}
+
+	/**
+	 * get the slot of a variable. Setting variables by slot saves the lookup of the name on every calculation
+	 * 
+	 * @param name
+	 *            the name of the variable
+	 * @return the position of the variable in the declaration order
+	 * @throws IllegalArgumentException
+	 *             if no variable with the given name has been declared
+	 * @see EvaluationContext#setVariable(int, double)
+	 */
+	public int getVariableSlot(String name) throws IllegalArgumentException {
+		final Integer slot = variableSlots.get(name);
+		if (slot == null) {
+			throw new IllegalArgumentException("Unknown variable '" + name + "'");
+		}
+		return slot;
+	}
+
+	/**
+	 * get the names of the variables
+	 * 
+	 * @return the variable names in declaration order
+	 */
+	public List<String> getVariableNames() {
+		return variableNames;
+	}
+
+	/**
+	 * return the expression in reverse polish postfix notation
+	 * 
+	 * @return the expression used to construct this {@link Expression}
+	 */
+	public String getExpression() {
+		// a racy but safe initialization, like String#hashCode() every thread computes the same immutable value
+		if (expression == null) {
+			expression = RPNConverter.toPostfixString(postfix);
+		}
+		return expression;
+	}
+}
@@ -1,5 +1,6 @@
 package de.congrace.exp4j;
 
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -24,17 +25,25 @@ public class ExpressionBuilder {
 
 	private final Map<String, Double> variables = new LinkedHashMap<String, Double>();
 
-	private final Map<String, CustomFunction> customFunctions;
+	private static final List<Character> VALID_OPERATOR_SYMBOLS = Arrays.asList('!', '#', '§', '$', '&', ';', ':', '~',
+			'<', '>', '|', '=', '\'');
+
+	private final FunctionRegistry registry;
 
 	private final Map<String, CustomOperator> builtInOperators;
 
-	private Map<String, CustomOperator> customOperators = new HashMap<String, CustomOperator>();
+	// functions and operators added to this builder only, created on first use
+	private Map<String, CustomFunction> customFunctions;
+
+	private Map<String, CustomOperator> customOperators;
+
+	private boolean simplify = true;
 
-	private final List<Character> validOperatorSymbols;
+	private CharSequence expression;
 
-	private final boolean highUnaryPrecedence;
+	private static volatile ExpressionListener defaultListener;
 
-	private String expression;
+	private ExpressionListener listener = defaultListener;
 
 	/**
 	 * Create a new ExpressionBuilder
@@ -43,208 +52,75 @@ public class ExpressionBuilder {
 	 *            the expression to evaluate 
 	 */
 	public ExpressionBuilder(String expression) {
-		if (expression.trim().isEmpty()) {
-			throw new IllegalArgumentException("Expression can not be empty!.");
-		}
-		this.expression = expression;
-		highUnaryPrecedence = System.getProperty(PROPERTY_UNARY_HIGH_PRECEDENCE) == null
-				|| !System.getProperty(PROPERTY_UNARY_HIGH_PRECEDENCE).equals("false");
-		customFunctions = getBuiltinFunctions();
-		builtInOperators = getBuiltinOperators();
-		validOperatorSymbols = getValidOperators();
+		this(expression, FunctionRegistry.builtins());
 	}
 
-	private List<Character> getValidOperators() {
-		return Arrays.asList('!', '#', '§', '$', '&', ';', ':', '~', '<', '>', '|', '=');
+	/**
+	 * Create a new ExpressionBuilder using the functions and operators of a {@link FunctionRegistry}
+	 * 
+	 * @param expression
+	 *            the expression to evaluate
+	 * @param registry
+	 *            the functions and operators which can be used in the expression
+	 */
+	public ExpressionBuilder(String expression, FunctionRegistry registry) {
+		this((CharSequence) expression, registry);
 	}
 
-	private Map<String, CustomOperator> getBuiltinOperators() {
-		CustomOperator add = new CustomOperator("+") {
-			@Override
-			protected double applyOperation(double[] values) {
-				return values[0] + values[1];
-			}
-		};
-		CustomOperator sub = new CustomOperator("-") {
-			@Override
-			protected double applyOperation(double[] values) {
-				return values[0] - values[1];
-			}
-		};
-		CustomOperator div = new CustomOperator("/", 3) {
-			@Override
-			protected double applyOperation(double[] values) {
-				if (values[1] == 0d) {
-					throw new ArithmeticException("Division by zero!");
-				}
-				return values[0] / values[1];
-			}
-		};
-		CustomOperator mul = new CustomOperator("*", 3) {
-			@Override
-			protected double applyOperation(double[] values) {
-				return values[0] * values[1];
-			}
-		};
-		CustomOperator mod = new CustomOperator("%", true, 3) {
-			@Override
-			protected double applyOperation(double[] values) {
-				if (values[1] == 0d){
-					throw new ArithmeticException("Division by zero!");
-				}
-				return values[0] % values[1];
-			}
-		};
-		CustomOperator umin = new CustomOperator("\'", false, this.highUnaryPrecedence ? 7 : 5, 1) {
-			@Override
-			protected double applyOperation(double[] values) {
-				return -values[0];
-			}
-		};
-		CustomOperator pow = new CustomOperator("^", false, 5, 2) {
-			@Override
-			protected double applyOperation(double[] values) {
-				return Math.pow(values[0], values[1]);
-			}
-		};
-		Map<String, CustomOperator> operations = new HashMap<String, CustomOperator>();
-		operations.put("+", add);
-		operations.put("-", sub);
-		operations.put("*", mul);
-		operations.put("/", div);
-		operations.put("\'", umin);
-		operations.put("^", pow);
-		operations.put("%", mod);
-		return operations;
+	/**
+	 * Create a new ExpressionBuilder for an expression which is not a {@link String}. The backing array of a
+	 * {@link CharBuffer} is parsed in place without copying the expression, other character sequences are copied once
+	 * per build. The characters are read when the expression is built, so they must not be changed before the
+	 * expression has been built
+	 * 
+	 * @param expression
+	 *            the expression to evaluate
+	 */
+	public ExpressionBuilder(CharSequence expression) {
+		this(expression, FunctionRegistry.builtins());
 	}
 
-	private Map<String, CustomFunction> getBuiltinFunctions() {
-		try {
-			CustomFunction abs = new CustomFunction("abs") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.abs(args[0]);
-				}
-			};
-			CustomFunction acos = new CustomFunction("acos") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.acos(args[0]);
-				}
-			};
-			CustomFunction asin = new CustomFunction("asin") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.asin(args[0]);
-				}
-			};
-			CustomFunction atan = new CustomFunction("atan") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.atan(args[0]);
-				}
-			};
-			CustomFunction cbrt = new CustomFunction("cbrt") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.cbrt(args[0]);
-				}
-			};
-			CustomFunction ceil = new CustomFunction("ceil") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.ceil(args[0]);
-				}
-			};
-			CustomFunction cos = new CustomFunction("cos") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.cos(args[0]);
-				}
-			};
-			CustomFunction cosh = new CustomFunction("cosh") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.cosh(args[0]);
-				}
-			};
-			CustomFunction exp = new CustomFunction("exp") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.exp(args[0]);
-				}
-			};
-			CustomFunction expm1 = new CustomFunction("expm1") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.expm1(args[0]);
-				}
-			};
-			CustomFunction floor = new CustomFunction("floor") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.floor(args[0]);
-				}
-			};
-			CustomFunction log = new CustomFunction("log") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.log(args[0]);
-				}
-			};
-			CustomFunction sine = new CustomFunction("sin") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.sin(args[0]);
-				}
-			};
-			CustomFunction sinh = new CustomFunction("sinh") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.sinh(args[0]);
-				}
-			};
-			CustomFunction sqrt = new CustomFunction("sqrt") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.sqrt(args[0]);
-				}
-			};
-			CustomFunction tan = new CustomFunction("tan") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.tan(args[0]);
-				}
-			};
-			CustomFunction tanh = new CustomFunction("tanh") {
-				@Override
-				public double applyFunction(double... args) {
-					return Math.tanh(args[0]);
-				}
-			};
-			Map<String, CustomFunction> customFunctions = new HashMap<String, CustomFunction>();
-			customFunctions.put("abs", abs);
-			customFunctions.put("acos", acos);
-			customFunctions.put("asin", asin);
-			customFunctions.put("atan", atan);
-			customFunctions.put("cbrt", cbrt);
-			customFunctions.put("ceil", ceil);
-			customFunctions.put("cos", cos);
-			customFunctions.put("cosh", cosh);
-			customFunctions.put("exp", exp);
-			customFunctions.put("expm1", expm1);
-			customFunctions.put("floor", floor);
-			customFunctions.put("log", log);
-			customFunctions.put("sin", sine);
-			customFunctions.put("sinh", sinh);
-			customFunctions.put("sqrt", sqrt);
-			customFunctions.put("tan", tan);
-			customFunctions.put("tanh", tanh);
-			return customFunctions;
-		} catch (InvalidCustomFunctionException e) {
-			// this should not happen...
-			throw new RuntimeException(e);
+	/**
+	 * Create a new ExpressionBuilder for an expression which is not a {@link String} using the functions and operators
+	 * of a {@link FunctionRegistry}
+	 * 
+	 * @param expression
+	 *            the expression to evaluate
+	 * @param registry
+	 *            the functions and operators which can be used in the expression
+	 * @see #ExpressionBuilder(CharSequence)
+	 */
+	public ExpressionBuilder(CharSequence expression, FunctionRegistry registry) {
+		this.expression = checkExpression(expression);
+		this.registry = registry;
+		this.builtInOperators = registry.operators;
+	}
+
+	/**
+	 * Create a new ExpressionBuilder for an expression stored in a range of a char array, e.g. a buffer read from a
+	 * file or a socket. The range is parsed in place without copying it and must not be changed before the expression
+	 * has been built
+	 * 
+	 * @param chars
+	 *            the array holding the expression
+	 * @param offset
+	 *            the position of the first character of the expression
+	 * @param length
+	 *            the number of characters of the expression
+	 */
+	public ExpressionBuilder(char[] chars, int offset, int length) {
+		this(CharBuffer.wrap(chars, offset, length), FunctionRegistry.builtins());
+	}
+
+	private static CharSequence checkExpression(CharSequence expression) {
+		for (int i = 0; i < expression.length(); i++) {
+			// the same characters String.trim() removes
+			if (expression.charAt(i) > ' ') {
+				// a buffer gets its own position and limit so the caller can move the original
+				return expression instanceof CharBuffer ? ((CharBuffer) expression).slice() : expression;
+			}
 		}
+		throw new IllegalArgumentException("Expression can not be empty!.");
 	}
 
 	/**
@@ -257,26 +133,164 @@ public class ExpressionBuilder {
 	 *             if the expression could not be parsed
 	 */
 	public Calculable build() throws UnknownFunctionException, UnparsableExpressionException {
-		for (CustomOperator op : customOperators.values()) {
+		final long[] timings = newTimings();
+		final RPNExpression rpn = buildRPNExpression(timings);
+		built(rpn, timings);
+		return rpn;
+	}
+
+	/**
+	 * build a new {@link Calculable} from the expression using the supplied variables. The expression is compiled to
+	 * JVM bytecode in which variables are local variables and builtin operators and functions are plain arithmetic
+	 * instructions and calls of the {@link Math} methods, so the JIT can optimize it like handwritten Java code.
+	 * Compilation takes considerably longer than {@link #build()} and only pays off for expressions which are
+	 * evaluated very often. Expressions using custom functions or custom operators can not be compiled and are
+	 * evaluated like the expressions created by {@link #build()}
+	 * 
+	 * @return the {@link Calculable} which can be used to evaluate the expression
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 */
+	public Calculable compile() throws UnknownFunctionException, UnparsableExpressionException {
+		final long[] timings = newTimings();
+		final RPNExpression rpn = buildRPNExpression(timings);
+		final long start = timings == null ? 0 : System.nanoTime();
+		final Calculable calc = ExpressionCompiler.compile(rpn);
+		if (timings != null) {
+			timings[RPNConverter.COMPILE] = System.nanoTime() - start;
+			built(rpn, timings);
+		}
+		return calc;
+	}
+
+	/**
+	 * build a new immutable {@link Expression} from the expression using the supplied variables. Unlike a
+	 * {@link Calculable} an {@link Expression} keeps no state, the variable values are held by an
+	 * {@link EvaluationContext}, so a single instance can be shared by any number of threads
+	 * 
+	 * @return the {@link Expression} which can be used to evaluate the expression
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 */
+	public Expression buildExpression() throws UnknownFunctionException, UnparsableExpressionException {
+		final long[] timings = newTimings();
+		final RPNExpression rpn = buildRPNExpression(timings);
+		final Expression expression = new Expression(rpn, null);
+		built(rpn, timings);
+		return expression;
+	}
+
+	/**
+	 * build a new immutable {@link Expression} from the expression using the supplied variables and compile it to JVM
+	 * bytecode like {@link #compile()} does
+	 * 
+	 * @return the {@link Expression} which can be used to evaluate the expression
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 */
+	public Expression compileExpression() throws UnknownFunctionException, UnparsableExpressionException {
+		final long[] timings = newTimings();
+		final RPNExpression rpn = buildRPNExpression(timings);
+		final long start = timings == null ? 0 : System.nanoTime();
+		final Expression expression = new Expression(rpn, ExpressionCompiler.generate(rpn));
+		if (timings != null) {
+			timings[RPNConverter.COMPILE] = System.nanoTime() - start;
+			built(rpn, timings);
+		}
+		return expression;
+	}
+
+	/**
+	 * create the key of the expression this builder builds in an {@link ExpressionCache}
+	 *
+	 * @param compile
+	 *            true if the expression is compiled to JVM bytecode
+	 * @return the cache key
+	 */
+	ExpressionCache.Key cacheKey(boolean compile) {
+		return new ExpressionCache.Key(expression.toString(), variables, registry, customFunctions, customOperators,
+				simplify, compile, listener);
+	}
+
+	private long[] newTimings() {
+		return listener == null ? null : new long[RPNConverter.PHASE_COUNT];
+	}
+
+	private void built(RPNExpression rpn, long[] timings) {
+		if (timings != null) {
+			// the source has been converted to a string once for the listener when the expression was built
+			listener.expressionBuilt(rpn.source, timings[RPNConverter.TOKENIZE],
+					timings[RPNConverter.CONVERT], timings[RPNConverter.VALIDATE], timings[RPNConverter.COMPILE]);
+		}
+	}
+
+	private RPNExpression buildRPNExpression(long[] timings) throws UnknownFunctionException,
+			UnparsableExpressionException {
+		if (listener == null) {
+			return buildRPNExpression(null, null);
+		}
+		final String source = expression.toString();
+		try {
+			return buildRPNExpression(source, timings);
+		} catch (UnknownFunctionException e) {
+			listener.buildFailed(source, e);
+			throw e;
+		} catch (UnparsableExpressionException e) {
+			listener.buildFailed(source, e);
+			throw e;
+		}
+	}
+
+	private RPNExpression buildRPNExpression(String source, long[] timings) throws UnknownFunctionException,
+			UnparsableExpressionException {
+		final long start = timings == null ? 0 : System.nanoTime();
+		// only copy the shared maps of the registry if functions or operators have been added to this builder
+		Map<String, CustomFunction> functions = registry.functions;
+		if (customFunctions != null) {
+			functions = new HashMap<String, CustomFunction>(functions);
+			functions.putAll(customFunctions);
+		}
+		Map<String, CustomOperator> operators = builtInOperators;
+		final OperatorTrie operatorTrie;
+		if (customOperators != null) {
+			operators = new HashMap<String, CustomOperator>(operators);
+			operators.putAll(customOperators);
+			operatorTrie = new OperatorTrie(operators);
+		} else {
+			operatorTrie = registry.operatorTrie();
+		}
+		for (CustomOperator op : operators.values()) {
+			if (op instanceof BuiltinOperator) {
+				continue;
+			}
 			for (int i = 0; i < op.symbol.length(); i++) {
-				if (!validOperatorSymbols.contains(op.symbol.charAt(i))) {
+				if (!VALID_OPERATOR_SYMBOLS.contains(op.symbol.charAt(i))) {
 					throw new UnparsableExpressionException("" + op.symbol
-							+ " is not a valid symbol for an operator please choose from: !,#,§,$,&,;,:,~,<,>,|,=");
+							+ " is not a valid symbol for an operator please choose from: !,#,§,$,&,;,:,~,<,>,|,=,'");
 				}
 			}
 		}
 		for (String varName : variables.keySet()) {
 			checkVariableName(varName);
-			if (customFunctions.containsKey(varName)) {
+			if (functions.containsKey(varName)) {
 				throw new UnparsableExpressionException("Variable '" + varName
 						+ "' cannot have the same name as a function");
 			}
 		}
-		builtInOperators.putAll(customOperators);
-		return RPNConverter.toRPNExpression(expression, variables, customFunctions, builtInOperators);
+		if (timings != null) {
+			timings[RPNConverter.VALIDATE] = System.nanoTime() - start;
+		}
+		return RPNConverter.toRPNExpression(source != null ? source : expression, variables, functions,
+				operatorTrie, simplify, timings, listener);
 	}
 
-	private void checkVariableName(String varName) throws UnparsableExpressionException {
+	static void checkVariableName(String varName) throws UnparsableExpressionException {
 		char[] name = varName.toCharArray();
 		for (int i = 0; i < name.length; i++) {
 			if (i == 0) {
@@ -301,6 +315,9 @@ public class ExpressionBuilder {
 	 * @return the {@link ExpressionBuilder} instance
 	 */
 	public ExpressionBuilder withCustomFunction(CustomFunction function) {
+		if (customFunctions == null) {
+			customFunctions = new HashMap<String, CustomFunction>();
+		}
 		customFunctions.put(function.name, function);
 		return this;
 	}
@@ -362,6 +379,9 @@ public class ExpressionBuilder {
 	 * @return the {@link ExpressionBuilder} instance
 	 */
 	public ExpressionBuilder withOperation(CustomOperator operation) {
+		if (customOperators == null) {
+			customOperators = new HashMap<String, CustomOperator>();
+		}
 		customOperators.put(operation.symbol, operation);
 		return this;
 	}
@@ -380,6 +400,57 @@ public class ExpressionBuilder {
 		return this;
 	}
 
+	/**
+	 * enable or disable the algebraic simplification of the expression. Simplification is enabled by default and
+	 * replaces operations like <code>x*1</code>, <code>--x</code> or <code>x^2</code> with cheaper operations
+	 * yielding the same result. <code>x^2</code> and <code>x^0.5</code> are calculated by a multiplication and a
+	 * square root, which are within 1 ulp of {@link Math#pow(double, double)} and identical to it on HotSpot, so
+	 * disable the simplification if results have to match <code>Math.pow</code> bit for bit on any JVM
+	 * 
+	 * @param simplify
+	 *            false to calculate the expression exactly as it is written
+	 * @return the {@link ExpressionBuilder} instance
+	 */
+	public ExpressionBuilder withSimplification(boolean simplify) {
+		this.simplify = simplify;
+		return this;
+	}
+
+	/**
+	 * set the {@link ExpressionListener} notified of the build of the expression and of the calculations of the
+	 * built {@link Calculable} or {@link Expression}. A new builder uses the listener set by
+	 * {@link #setDefaultListener(ExpressionListener)}
+	 * 
+	 * @param listener
+	 *            the listener or null to neither time the build nor the calculations
+	 * @return the {@link ExpressionBuilder} instance
+	 */
+	public ExpressionBuilder withListener(ExpressionListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * set the {@link ExpressionListener} used by every {@link ExpressionBuilder} created afterwards. Builders which
+	 * already exist and the expressions they built are not affected
+	 * 
+	 * @param listener
+	 *            the listener or null to stop observing new expressions
+	 * @see #withListener(ExpressionListener)
+	 */
+	public static void setDefaultListener(ExpressionListener listener) {
+		defaultListener = listener;
+	}
+
+	/**
+	 * get the {@link ExpressionListener} used by new builders
+	 * 
+	 * @return the listener set by {@link #setDefaultListener(ExpressionListener)} or null
+	 */
+	public static ExpressionListener getDefaultListener() {
+		return defaultListener;
+	}
+
 	/**
 	 * set the mathematical expression for parsing
 	 * 
@@ -391,4 +462,33 @@ public class ExpressionBuilder {
 		this.expression = expression;
 		return this;
 	}
+
+	/**
+	 * set the mathematical expression for parsing from a {@link CharSequence}
+	 * 
+	 * @param expression
+	 *            a mathematical expression
+	 * @return the {@link ExpressionBuilder} instance
+	 * @see #ExpressionBuilder(CharSequence)
+	 */
+	public ExpressionBuilder withExpression(CharSequence expression) {
+		this.expression = checkExpression(expression);
+		return this;
+	}
+
+	/**
+	 * set the mathematical expression for parsing from a range of a char array
+	 * 
+	 * @param chars
+	 *            the array holding the expression
+	 * @param offset
+	 *            the position of the first character of the expression
+	 * @param length
+	 *            the number of characters of the expression
+	 * @return the {@link ExpressionBuilder} instance
+	 * @see #ExpressionBuilder(char[], int, int)
+	 */
+	public ExpressionBuilder withExpression(char[] chars, int offset, int length) {
+		return withExpression(CharBuffer.wrap(chars, offset, length));
+	}
 }
@@ -0,0 +1,359 @@
+package de.congrace.exp4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A file holding many named expressions in the format of {@link ExpressionSerializer}, which is mapped into memory
+ * instead of being read. Opening a bundle only checks its header, an expression is decoded the first time it is
+ * asked for, so the startup time does not depend on the number of expressions in the bundle. The pages of the file
+ * are shared by every JVM on the host mapping the same bundle. The layout of version {@value #VERSION} is:
+ *
+ * <pre>
+ * int    magic number 0x65787062
+ * byte   format version
+ * int    number of expressions
+ * int[]  the file offset of every expression, ordered by name
+ * then for every expression: UTF name, the expression as written by {@link ExpressionSerializer}
+ * </pre>
+ *
+ * The names are ordered by the bytes of their modified UTF-8 encoding, leaving out the two byte length written in
+ * front of them. For names of ASCII characters this is the order of {@link String#compareTo(String)}, e.g.
+ * "rule1", "rule10", "rule2". An expression is found by a binary search on the mapped file. A bundle is limited to
+ * 2GB, the size of a single mapping. An {@link ExpressionBundle} can be used by many threads at the same time.
+ *
+ * <pre>
+ * ExpressionBundle bundle = ExpressionBundle.open(path, registry);
+ * Calculable calc = bundle.get(&quot;discount&quot;);
+ * </pre>
+ *
+ * @author frank asseg
+ *
+ */
+public final class ExpressionBundle {
+	/**
+	 * the version of the bundle format written by this class
+	 */
+	public static final int VERSION = 1;
+
+	static final int MAGIC = 0x65787062;
+
+	private static final int HEADER_SIZE = 9;
+
+	private final ByteBuffer buffer;
+
+	private final FunctionRegistry registry;
+
+	private final int size;
+
+	// the decoded expressions, created on first use and copied for every caller
+	private final AtomicReferenceArray<Calculable> expressions;
+
+	private ExpressionBundle(ByteBuffer buffer, FunctionRegistry registry) throws IOException {
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("File is not an expression bundle");
+		}
+		final int version = buffer.get(4) & 0xff;
+		if (version != VERSION) {
+			throw new IOException("Unsupported bundle version " + version + ", expected " + VERSION);
+		}
+		this.size = buffer.getInt(5);
+		if (size < 0 || size > (buffer.limit() - HEADER_SIZE) / 4) {
+			throw new IOException("Invalid number of expressions " + size);
+		}
+		this.buffer = buffer;
+		this.registry = registry;
+		this.expressions = new AtomicReferenceArray<Calculable>(size);
+	}
+
+	/**
+	 * map a bundle file into memory
+	 *
+	 * @param file
+	 *            the bundle file written by {@link #write(Map, Path)}
+	 * @param registry
+	 *            the functions and operators the expressions of the bundle can use
+	 * @return the {@link ExpressionBundle}
+	 * @throws IOException
+	 *             if the file could not be mapped or is not a bundle in a supported version of the format
+	 */
+	public static ExpressionBundle open(Path file, FunctionRegistry registry) throws IOException {
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Bundle " + file + " is larger than 2GB");
+			}
+			// the mapping stays valid after the channel has been closed
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new ExpressionBundle(mapped, registry);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * write named expressions to a bundle file, replacing an existing file
+	 *
+	 * @param expressions
+	 *            the {@link Calculable}s created by {@link ExpressionBuilder#build()} by their names
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file could not be written
+	 * @throws IllegalArgumentException
+	 *             if an expression was compiled to bytecode
+	 */
+	public static void write(Map<String, ? extends Calculable> expressions, Path file) throws IOException {
+		final Map<byte[], Calculable> byName = new IdentityHashMap<byte[], Calculable>(expressions.size());
+		for (final Map.Entry<String, ? extends Calculable> entry : expressions.entrySet()) {
+			byName.put(encodeName(entry.getKey()), entry.getValue());
+		}
+		final byte[][] sorted = byName.keySet().toArray(new byte[byName.size()][]);
+		Arrays.sort(sorted, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return compareBytes(a, b);
+			}
+		});
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			final int[] offsets = new int[sorted.length];
+			final int indexEnd = HEADER_SIZE + 4 * sorted.length;
+			// the entries are written first, the index is filled in when their offsets are known
+			channel.position(indexEnd);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(channel)));
+			for (int i = 0; i < sorted.length; i++) {
+				offsets[i] = indexEnd + out.size();
+				out.write(sorted[i]);
+				ExpressionSerializer.write(byName.get(sorted[i]), out);
+				if (out.size() >= Integer.MAX_VALUE - indexEnd) {
+					throw new IOException("Bundle " + file + " would be larger than 2GB");
+				}
+			}
+			out.flush();
+			final ByteBuffer header = ByteBuffer.allocate(indexEnd);
+			header.putInt(MAGIC).put((byte) VERSION).putInt(sorted.length);
+			for (final int offset : offsets) {
+				header.putInt(offset);
+			}
+			header.flip();
+			channel.position(0);
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * get the number of expressions in the bundle
+	 *
+	 * @return the number of expressions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * get the name of an expression
+	 *
+	 * @param index
+	 *            the position of the expression in the bundle, which is ordered by the encoded names as described
+	 *            in the class documentation
+	 * @return the name of the expression
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no expression at the index
+	 * @throws IllegalStateException
+	 *             if the bundle is corrupt
+	 */
+	public String getName(int index) {
+		final int offset;
+		final int end;
+		try {
+			offset = entryOffset(index);
+			end = nameEnd(index, offset);
+		} catch (IOException e) {
+			throw new IllegalStateException("The bundle is corrupt: " + e.getMessage(), e);
+		}
+		final byte[] name = new byte[end - offset];
+		final ByteBuffer entry = buffer.duplicate();
+		entry.position(offset);
+		entry.get(name);
+		return decodeName(name);
+	}
+
+	/**
+	 * get a new {@link Calculable} for the expression at a position of the bundle. The expression is decoded on the
+	 * first call, later calls return a copy of it
+	 *
+	 * @param index
+	 *            the position of the expression in the bundle, which is ordered by the encoded names as described
+	 *            in the class documentation
+	 * @return a new {@link Calculable} which can be used to evaluate the expression
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no expression at the index
+	 * @throws UnknownFunctionException
+	 *             if a function of the expression is not registered
+	 * @throws UnparsableExpressionException
+	 *             if an operator of the expression is not registered or the expression or the index of the bundle is
+	 *             corrupt
+	 */
+	public Calculable get(int index) throws UnknownFunctionException, UnparsableExpressionException {
+		Calculable calc = expressions.get(index);
+		if (calc == null) {
+			final ByteBuffer entry = buffer.duplicate();
+			try {
+				entry.position(nameEnd(index, entryOffset(index)));
+				calc = ExpressionSerializer.read(entry, registry);
+			} catch (IOException e) {
+				throw new UnparsableExpressionException("Expression " + index + " of the bundle is corrupt: "
+						+ e.getMessage());
+			}
+			// another thread may have decoded the expression at the same time, which is harmless
+			expressions.lazySet(index, calc);
+		}
+		return calc.copy();
+	}
+
+	/**
+	 * get a new {@link Calculable} for a named expression of the bundle
+	 *
+	 * @param name
+	 *            the name of the expression
+	 * @return a new {@link Calculable} which can be used to evaluate the expression or null if the bundle does not
+	 *         contain an expression of this name
+	 * @throws UnknownFunctionException
+	 *             if a function of the expression is not registered
+	 * @throws UnparsableExpressionException
+	 *             if an operator of the expression is not registered or the expression or the index of the bundle is
+	 *             corrupt
+	 * @see #get(int)
+	 */
+	public Calculable get(String name) throws UnknownFunctionException, UnparsableExpressionException {
+		final int index;
+		try {
+			index = find(name);
+		} catch (IOException e) {
+			throw new UnparsableExpressionException("The bundle is corrupt: " + e.getMessage());
+		}
+		return index < 0 ? null : get(index);
+	}
+
+	/**
+	 * find the position of a named expression
+	 *
+	 * @param name
+	 *            the name of the expression
+	 * @return the position of the expression or -1 if the bundle does not contain an expression of this name
+	 * @throws IllegalStateException
+	 *             if the bundle is corrupt
+	 */
+	public int indexOf(String name) {
+		try {
+			return find(name);
+		} catch (IOException e) {
+			throw new IllegalStateException("The bundle is corrupt: " + e.getMessage(), e);
+		}
+	}
+
+	private int find(String name) throws IOException {
+		final byte[] key = encodeName(name);
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compareName(mid, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	// the offset of an entry read from the index, which has to leave room for the length of the name
+	private int entryOffset(int index) throws IOException {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		final int offset = buffer.getInt(HEADER_SIZE + 4 * index);
+		if (offset < HEADER_SIZE + 4 * size || offset > buffer.limit() - 2) {
+			throw new IOException("Invalid offset " + offset + " of expression " + index);
+		}
+		return offset;
+	}
+
+	// the position after the name of an entry, which has to lie within the bundle
+	private int nameEnd(int index, int offset) throws IOException {
+		final long end = offset + 2L + (buffer.getShort(offset) & 0xffff);
+		if (end > buffer.limit()) {
+			throw new IOException("The name of expression " + index + " exceeds the bundle");
+		}
+		return (int) end;
+	}
+
+	// compare the encoded name of an entry with an encoded key without copying it, skipping the length of both
+	private int compareName(int index, byte[] key) throws IOException {
+		final int offset = entryOffset(index);
+		final int length = nameEnd(index, offset) - offset;
+		final int n = Math.min(length, key.length);
+		for (int i = 2; i < n; i++) {
+			final int cmp = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	// compare two encoded names, skipping their length
+	private static int compareBytes(byte[] a, byte[] b) {
+		final int n = Math.min(a.length, b.length);
+		for (int i = 2; i < n; i++) {
+			final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static byte[] encodeName(String name) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(name.length() + 2);
+		try {
+			new DataOutputStream(bytes).writeUTF(name);
+		} catch (IOException e) {
+			// a ByteArrayOutputStream does not throw, but the name may be too long
+			throw new IllegalArgumentException("Invalid expression name '" + name + "'", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String decodeName(byte[] name) {
+		try {
+			return new DataInputStream(new ByteArrayInputStream(name)).readUTF();
+		} catch (IOException e) {
+			throw new IllegalStateException("Invalid expression name in bundle", e);
+		}
+	}
+}
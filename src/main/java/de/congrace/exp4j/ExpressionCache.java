@@ -0,0 +1,267 @@
+package de.congrace.exp4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe cache of built {@link Expression}s, so that an expression which is used over and over is tokenized
+ * and converted only once. The cache is keyed on the state of an {@link ExpressionBuilder}: the expression text, the
+ * variable names and default values in declaration order, the {@link FunctionRegistry} and the custom functions and
+ * operators added to the builder and its {@link ExpressionListener}, which are compared by identity, and the
+ * simplification setting. The returned {@link Expression}s are immutable and can be shared by any number of threads.
+ * When the cache is full the least recently used expression is evicted.
+ *
+ * <pre>
+ * ExpressionCache cache = new ExpressionCache(10000);
+ * Expression expression = cache.get(new ExpressionBuilder(formula).withVariableNames(&quot;x&quot;, &quot;y&quot;));
+ * </pre>
+ *
+ * @author frank asseg
+ *
+ */
+public final class ExpressionCache {
+	private final int maximumSize;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	// guarded by itself, an access ordered map moves every hit to the end
+	private final LinkedHashMap<Key, Expression> expressions;
+
+	/**
+	 * construct a new {@link ExpressionCache}
+	 *
+	 * @param maximumSize
+	 *            the maximum number of expressions kept in the cache
+	 * @throws IllegalArgumentException
+	 *             if the maximum size is not positive
+	 */
+	public ExpressionCache(final int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("The maximum size of a cache has to be positive");
+		}
+		this.maximumSize = maximumSize;
+		this.expressions = new LinkedHashMap<Key, Expression>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Expression> eldest) {
+				if (size() > ExpressionCache.this.maximumSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * get the {@link Expression} built by an {@link ExpressionBuilder}, building it on a cache miss like
+	 * {@link ExpressionBuilder#buildExpression()} does. The expression is built outside of the cache's lock, so two
+	 * threads missing the same key at the same time may both build it, but they get the same instance. Only the
+	 * request whose expression is inserted counts as a miss, the other one as a hit
+	 *
+	 * @param builder
+	 *            the builder of the expression, which is only used to build the expression on a cache miss
+	 * @return the shared {@link Expression}
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 */
+	public Expression get(ExpressionBuilder builder) throws UnknownFunctionException, UnparsableExpressionException {
+		return get(builder, false);
+	}
+
+	/**
+	 * get the {@link Expression} built by an {@link ExpressionBuilder} and compiled to JVM bytecode, compiling it on a
+	 * cache miss like {@link ExpressionBuilder#compileExpression()} does
+	 *
+	 * @param builder
+	 *            the builder of the expression, which is only used to compile the expression on a cache miss
+	 * @return the shared {@link Expression}
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 * @see #get(ExpressionBuilder)
+	 */
+	public Expression getCompiled(ExpressionBuilder builder) throws UnknownFunctionException,
+			UnparsableExpressionException {
+		return get(builder, true);
+	}
+
+	private Expression get(ExpressionBuilder builder, boolean compile) throws UnknownFunctionException,
+			UnparsableExpressionException {
+		final Key key = builder.cacheKey(compile);
+		Expression expression;
+		synchronized (expressions) {
+			expression = expressions.get(key);
+		}
+		if (expression != null) {
+			hits.incrementAndGet();
+			return expression;
+		}
+		Expression built = null;
+		try {
+			built = compile ? builder.compileExpression() : builder.buildExpression();
+		} finally {
+			if (built == null) {
+				// a failed build is not cached, so every request for the expression misses
+				misses.incrementAndGet();
+			}
+		}
+		synchronized (expressions) {
+			expression = expressions.get(key);
+			if (expression == null) {
+				expressions.put(key, built);
+			}
+		}
+		if (expression != null) {
+			// another thread inserted the same key in the meantime, so this request is answered by the cache
+			hits.incrementAndGet();
+			return expression;
+		}
+		misses.incrementAndGet();
+		return built;
+	}
+
+	/**
+	 * remove all expressions from the cache. The counters are not reset
+	 */
+	public void clear() {
+		synchronized (expressions) {
+			expressions.clear();
+		}
+	}
+
+	/**
+	 * get the number of expressions in the cache
+	 *
+	 * @return the number of cached expressions
+	 */
+	public int size() {
+		synchronized (expressions) {
+			return expressions.size();
+		}
+	}
+
+	/**
+	 * get the maximum number of expressions kept in the cache
+	 *
+	 * @return the maximum size
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * get the number of requests answered from the cache
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * get the number of requests which inserted the expression they built into the cache or failed to build it
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * get the number of expressions removed to make room for new ones
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * The state of an {@link ExpressionBuilder} which determines the expression it builds
+	 */
+	static final class Key {
+		private final String expression;
+
+		private final List<String> variableNames;
+
+		private final double[] variableValues;
+
+		private final FunctionRegistry registry;
+
+		private final Map<String, CustomFunction> customFunctions;
+
+		private final Map<String, CustomOperator> customOperators;
+
+		private final boolean simplify;
+
+		private final boolean compile;
+
+		private final ExpressionListener listener;
+
+		private final int hash;
+
+		Key(String expression, Map<String, Double> variables, FunctionRegistry registry,
+				Map<String, CustomFunction> customFunctions, Map<String, CustomOperator> customOperators,
+				boolean simplify, boolean compile, ExpressionListener listener) {
+			this.expression = expression;
+			this.variableNames = new ArrayList<String>(variables.keySet());
+			this.variableValues = new double[variables.size()];
+			int slot = 0;
+			for (final Double value : variables.values()) {
+				variableValues[slot++] = value == null ? Double.NaN : value;
+			}
+			this.registry = registry;
+			// the functions and operators do not override equals, so the maps are compared by identity of their values
+			this.customFunctions = customFunctions == null ? null : new HashMap<String, CustomFunction>(
+					customFunctions);
+			this.customOperators = customOperators == null ? null : new HashMap<String, CustomOperator>(
+					customOperators);
+			this.simplify = simplify;
+			this.compile = compile;
+			this.listener = listener;
+			int h = expression.hashCode();
+			h = 31 * h + variableNames.hashCode();
+			h = 31 * h + Arrays.hashCode(variableValues);
+			h = 31 * h + System.identityHashCode(registry);
+			h = 31 * h + (customFunctions == null ? 0 : customFunctions.hashCode());
+			h = 31 * h + (customOperators == null ? 0 : customOperators.hashCode());
+			h = 31 * h + System.identityHashCode(listener);
+			this.hash = 31 * h + (simplify ? 2 : 0) + (compile ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hash == other.hash && registry == other.registry && simplify == other.simplify
+					&& compile == other.compile && listener == other.listener && expression.equals(other.expression)
+					&& variableNames.equals(other.variableNames)
+					&& Arrays.equals(variableValues, other.variableValues)
+					&& (customFunctions == null ? other.customFunctions == null : customFunctions
+							.equals(other.customFunctions))
+					&& (customOperators == null ? other.customOperators == null : customOperators
+							.equals(other.customOperators));
+		}
+	}
+}
@@ -0,0 +1,579 @@
+package de.congrace.exp4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Compiler translating the tokens of an {@link RPNExpression} into a JVM class implementing {@link ToDoubleFunction}
+ * for the variable values. The generated classes only refer to types of the JDK, so they can be defined by a class
+ * loader of their own without exp4j exposing a base class as public API.
+ * Variables are loaded into local variables once, numbers become constants, the builtin operators become bytecode
+ * instructions and the builtin functions become direct calls to the corresponding {@link Math} methods, so that the
+ * JIT is able to inline the whole expression. Expressions containing custom functions or custom operators are not
+ * compiled and keep being evaluated by the interpreter.
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class ExpressionCompiler {
+
+	private static final String CLASS_NAME_PREFIX = "de/congrace/exp4j/generated/Expression";
+
+	private static final String SUPER_CLASS = "java/lang/Object";
+
+	private static final String INTERFACE = "java/util/function/ToDoubleFunction";
+
+	// class files of version 49 are verified by type inference and do not need stack map frames
+	private static final int CLASS_FILE_VERSION = 49;
+
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	private static final AtomicInteger classCount = new AtomicInteger();
+
+	// weak references to the generated expressions, removed once an expression has been garbage collected
+	private static final Set<Reference<ToDoubleFunction<double[]>>> liveExpressions = Collections
+			.newSetFromMap(new ConcurrentHashMap<Reference<ToDoubleFunction<double[]>>, Boolean>());
+
+	private static final ReferenceQueue<ToDoubleFunction<double[]>> collectedExpressions =
+			new ReferenceQueue<ToDoubleFunction<double[]>>();
+
+	private static final int ICONST_0 = 0x03;
+
+	private static final int DCONST_0 = 0x0e;
+
+	private static final int DCONST_1 = 0x0f;
+
+	private static final int BIPUSH = 0x10;
+
+	private static final int SIPUSH = 0x11;
+
+	private static final int LDC = 0x12;
+
+	private static final int LDC_W = 0x13;
+
+	private static final int LDC2_W = 0x14;
+
+	private static final int DLOAD = 0x18;
+
+	private static final int ALOAD_0 = 0x2a;
+
+	private static final int ALOAD_1 = 0x2b;
+
+	private static final int ASTORE_1 = 0x4c;
+
+	private static final int DALOAD = 0x31;
+
+	private static final int DSTORE = 0x39;
+
+	private static final int POP2 = 0x58;
+
+	private static final int DUP = 0x59;
+
+	private static final int DUP2 = 0x5c;
+
+	private static final int DADD = 0x63;
+
+	private static final int DSUB = 0x67;
+
+	private static final int DMUL = 0x6b;
+
+	private static final int DDIV = 0x6f;
+
+	private static final int DREM = 0x73;
+
+	private static final int DNEG = 0x77;
+
+	private static final int DCMPL = 0x97;
+
+	private static final int IFNE = 0x9a;
+
+	private static final int GOTO = 0xa7;
+
+	private static final int DRETURN = 0xaf;
+
+	private static final int RETURN = 0xb1;
+
+	private static final int INVOKESPECIAL = 0xb7;
+
+	private static final int INVOKESTATIC = 0xb8;
+
+	private static final int NEW = 0xbb;
+
+	private static final int ATHROW = 0xbf;
+
+	private static final int CHECKCAST = 0xc0;
+
+	private static final int WIDE = 0xc4;
+
+	/**
+	 * compile an expression to bytecode
+	 * 
+	 * @param expression
+	 *            the interpreted expression
+	 * @return a {@link Calculable} evaluating generated bytecode or the interpreted expression if it can not be
+	 *         compiled
+	 */
+	static Calculable compile(RPNExpression expression) {
+		final ToDoubleFunction<double[]> bytecode = generate(expression);
+		if (bytecode == null) {
+			return expression;
+		}
+		return new CompiledCalculable(bytecode, expression.postfix, expression.variables, expression.listener,
+				expression.source);
+	}
+
+	/**
+	 * generate the bytecode of an expression
+	 * 
+	 * @param expression
+	 *            the interpreted expression
+	 * @return the generated function of the variable values or null if the expression can not be compiled
+	 */
+	static ToDoubleFunction<double[]> generate(RPNExpression expression) {
+		if (!isCompilable(expression)) {
+			return null;
+		}
+		final String className = CLASS_NAME_PREFIX + classCount.incrementAndGet();
+		final byte[] classFile = generateClass(className, expression);
+		if (classFile == null) {
+			// the expression exceeds the size limits of a class file
+			return null;
+		}
+		try {
+			final ExpressionClassLoader loader = new ExpressionClassLoader(ExpressionCompiler.class.getClassLoader());
+			// the generated class implements the raw interface for double arrays
+			@SuppressWarnings("unchecked")
+			final ToDoubleFunction<double[]> bytecode = loader.define(className.replace('/', '.'), classFile)
+					.asSubclass(ToDoubleFunction.class).getDeclaredConstructor().newInstance();
+			expungeCollected();
+			liveExpressions.add(new WeakReference<ToDoubleFunction<double[]>>(bytecode, collectedExpressions));
+			return bytecode;
+		} catch (SecurityException e) {
+			// not allowed to define classes so fall back to the interpreter
+			return null;
+		} catch (ReflectiveOperationException e) {
+			// the generated class has a public constructor without arguments, so this should not happen...
+			throw new IllegalStateException("Unable to instantiate the generated class " + className, e);
+		}
+	}
+
+	/**
+	 * get the number of compiled expressions which are still reachable. The generated class of an expression is
+	 * unloaded together with its class loader once the expression has been garbage collected
+	 * 
+	 * @return the number of live compiled expressions
+	 */
+	static int getLiveCount() {
+		expungeCollected();
+		return liveExpressions.size();
+	}
+
+	private static void expungeCollected() {
+		Reference<? extends ToDoubleFunction<double[]>> collected;
+		while ((collected = collectedExpressions.poll()) != null) {
+			liveExpressions.remove(collected);
+		}
+	}
+
+	private static boolean isCompilable(RPNExpression expression) {
+		for (final Token token : expression.tokens) {
+			if (token instanceof FunctionToken && !(((FunctionToken) token).function instanceof BuiltinFunction)) {
+				return false;
+			} else if (token instanceof OperatorToken && !(((OperatorToken) token).operation instanceof BuiltinOperator)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] generateClass(String className, RPNExpression expression) {
+		final ConstantPool pool = new ConstantPool();
+		final int thisClass = pool.classEntry(className);
+		final int superClass = pool.classEntry(SUPER_CLASS);
+		final int interfaceClass = pool.classEntry(INTERFACE);
+		final int codeName = pool.utf8("Code");
+
+		final ClassFileBuffer constructor = new ClassFileBuffer();
+		constructor.u1(ALOAD_0);
+		constructor.u1(INVOKESPECIAL);
+		constructor.u2(pool.methodEntry(SUPER_CLASS, "<init>", "()V"));
+		constructor.u1(RETURN);
+
+		final int variableCount = expression.variables.size();
+		final ClassFileBuffer evaluate = new ClassFileBuffer();
+		final int maxLocals = generateEvaluate(evaluate, pool, expression, variableCount);
+		if (evaluate.size() > MAX_CODE_LENGTH || maxLocals > 0xffff) {
+			return null;
+		}
+		// every double takes two words on the operand stack and a division needs four more for the zero check
+		final int maxStack = 2 * expression.stackDepth + 4;
+
+		final int methodName = pool.utf8("applyAsDouble");
+		final int methodDescriptor = pool.utf8("(Ljava/lang/Object;)D");
+		final int constructorName = pool.utf8("<init>");
+		final int constructorDescriptor = pool.utf8("()V");
+		if (pool.size() > 0xffff) {
+			return null;
+		}
+
+		final ClassFileBuffer out = new ClassFileBuffer();
+		out.u4(0xcafebabe);
+		out.u2(0);
+		out.u2(CLASS_FILE_VERSION);
+		pool.writeTo(out);
+		out.u2(0x0001 | 0x0010 | 0x0020); // public final super
+		out.u2(thisClass);
+		out.u2(superClass);
+		out.u2(1); // interfaces
+		out.u2(interfaceClass);
+		out.u2(0); // fields
+		out.u2(2); // methods
+		writeMethod(out, constructorName, constructorDescriptor, codeName, 1, 1, constructor);
+		writeMethod(out, methodName, methodDescriptor, codeName, maxStack, maxLocals, evaluate);
+		out.u2(0); // attributes
+		return out.toByteArray();
+	}
+
+	private static int generateEvaluate(ClassFileBuffer code, ConstantPool pool, RPNExpression expression,
+			int variableCount) {
+		// the argument of applyAsDouble is declared as an Object, it is cast to the array of variable values once
+		code.u1(ALOAD_1);
+		code.u1(CHECKCAST);
+		code.u2(pool.classEntry("[D"));
+		code.u1(ASTORE_1);
+		// load every variable used in the expression into a local variable once. local 0 is this, local 1 the array
+		final int[] locals = new int[variableCount];
+		int maxLocals = 2;
+		for (final Token token : expression.tokens) {
+			if (token instanceof VariableToken) {
+				final int slot = ((VariableToken) token).slot;
+				if (locals[slot] == 0) {
+					locals[slot] = maxLocals;
+					maxLocals += 2;
+					code.u1(ALOAD_1);
+					pushInt(code, pool, slot);
+					code.u1(DALOAD);
+					localInstruction(code, DSTORE, locals[slot]);
+				}
+			}
+		}
+		// the temporary slots of common subexpressions follow the variables
+		final int temporaries = maxLocals;
+		maxLocals += 2 * expression.temporaryCount;
+		for (final Token token : expression.tokens) {
+			if (token instanceof NumberToken) {
+				pushDouble(code, pool, ((NumberToken) token).doubleValue);
+			} else if (token instanceof VariableToken) {
+				localInstruction(code, DLOAD, locals[((VariableToken) token).slot]);
+			} else if (token instanceof StoreToken) {
+				code.u1(DUP2);
+				localInstruction(code, DSTORE, temporaries + 2 * ((StoreToken) token).index);
+			} else if (token instanceof LoadToken) {
+				localInstruction(code, DLOAD, temporaries + 2 * ((LoadToken) token).index);
+			} else if (token instanceof FunctionToken) {
+				code.u1(INVOKESTATIC);
+				code.u2(pool.methodEntry("java/lang/Math", ((FunctionToken) token).getName(), "(D)D"));
+			} else {
+				generateOperator(code, pool, token.getValue());
+			}
+		}
+		code.u1(DRETURN);
+		return maxLocals;
+	}
+
+	private static void generateOperator(ClassFileBuffer code, ConstantPool pool, String symbol) {
+		if (symbol.equals("+")) {
+			code.u1(DADD);
+		} else if (symbol.equals("-")) {
+			code.u1(DSUB);
+		} else if (symbol.equals("*")) {
+			code.u1(DMUL);
+		} else if (symbol.equals("/")) {
+			checkDivisor(code, pool);
+			code.u1(DDIV);
+		} else if (symbol.equals("%")) {
+			checkDivisor(code, pool);
+			code.u1(DREM);
+		} else if (symbol.equals("^")) {
+			code.u1(INVOKESTATIC);
+			code.u2(pool.methodEntry("java/lang/Math", "pow", "(DD)D"));
+		} else if (symbol.equals("'")) {
+			code.u1(DNEG);
+		} else if (symbol.equals(RPNSimplifier.SQUARE.symbol)) {
+			code.u1(DUP2);
+			code.u1(DMUL);
+		} else if (symbol.equals(RPNSimplifier.SQUARE_ROOT.symbol)) {
+			squareRoot(code, pool);
+		} else {
+			throw new IllegalArgumentException("Unknown builtin operator " + symbol);
+		}
+	}
+
+	/*
+	 * throw an ArithmeticException if the divisor on top of the stack is zero, as the builtin operators do
+	 */
+	private static void checkDivisor(ClassFileBuffer code, ConstantPool pool) {
+		code.u1(DUP2);
+		code.u1(DCONST_0);
+		code.u1(DCMPL);
+		final int branch = code.size();
+		code.u1(IFNE);
+		code.u2(0);
+		code.u1(NEW);
+		code.u2(pool.classEntry("java/lang/ArithmeticException"));
+		code.u1(DUP);
+		final int message = pool.stringEntry("Division by zero!");
+		if (message > 0xff) {
+			code.u1(LDC_W);
+			code.u2(message);
+		} else {
+			code.u1(LDC);
+			code.u1(message);
+		}
+		code.u1(INVOKESPECIAL);
+		code.u2(pool.methodEntry("java/lang/ArithmeticException", "<init>", "(Ljava/lang/String;)V"));
+		code.u1(ATHROW);
+		code.patchU2(branch + 1, code.size() - branch);
+	}
+
+	/*
+	 * the same as RPNSimplifier.squareRoot(double): negative infinity yields positive infinity, anything else the
+	 * square root of the operand plus zero
+	 */
+	private static void squareRoot(ClassFileBuffer code, ConstantPool pool) {
+		code.u1(DUP2);
+		pushDouble(code, pool, Double.NEGATIVE_INFINITY);
+		code.u1(DCMPL);
+		final int branch = code.size();
+		code.u1(IFNE);
+		code.u2(0);
+		code.u1(POP2);
+		pushDouble(code, pool, Double.POSITIVE_INFINITY);
+		final int jump = code.size();
+		code.u1(GOTO);
+		code.u2(0);
+		code.patchU2(branch + 1, code.size() - branch);
+		code.u1(DCONST_0);
+		code.u1(DADD);
+		code.u1(INVOKESTATIC);
+		code.u2(pool.methodEntry("java/lang/Math", "sqrt", "(D)D"));
+		code.patchU2(jump + 1, code.size() - jump);
+	}
+
+	private static void pushDouble(ClassFileBuffer code, ConstantPool pool, double value) {
+		final long bits = Double.doubleToRawLongBits(value);
+		if (bits == 0L) {
+			code.u1(DCONST_0);
+		} else if (bits == Double.doubleToRawLongBits(1d)) {
+			code.u1(DCONST_1);
+		} else {
+			code.u1(LDC2_W);
+			code.u2(pool.doubleEntry(value));
+		}
+	}
+
+	private static void pushInt(ClassFileBuffer code, ConstantPool pool, int value) {
+		if (value <= 5) {
+			code.u1(ICONST_0 + value);
+		} else if (value <= Byte.MAX_VALUE) {
+			code.u1(BIPUSH);
+			code.u1(value);
+		} else if (value <= Short.MAX_VALUE) {
+			code.u1(SIPUSH);
+			code.u2(value);
+		} else {
+			code.u1(LDC_W);
+			code.u2(pool.integerEntry(value));
+		}
+	}
+
+	private static void localInstruction(ClassFileBuffer code, int opcode, int local) {
+		if (local > 0xff) {
+			code.u1(WIDE);
+			code.u1(opcode);
+			code.u2(local);
+		} else {
+			code.u1(opcode);
+			code.u1(local);
+		}
+	}
+
+	private static void writeMethod(ClassFileBuffer out, int name, int descriptor, int codeName, int maxStack,
+			int maxLocals, ClassFileBuffer code) {
+		out.u2(0x0001); // public
+		out.u2(name);
+		out.u2(descriptor);
+		out.u2(1); // attributes
+		out.u2(codeName);
+		out.u4(12 + code.size());
+		out.u2(maxStack);
+		out.u2(maxLocals);
+		out.u4(code.size());
+		code.writeTo(out);
+		out.u2(0); // exception table
+		out.u2(0); // attributes
+	}
+
+	private static final class ClassFileBuffer extends ByteArrayOutputStream {
+		void u1(int value) {
+			write(value);
+		}
+
+		void u2(int value) {
+			write(value >>> 8);
+			write(value);
+		}
+
+		void u4(int value) {
+			u2(value >>> 16);
+			u2(value);
+		}
+
+		void patchU2(int position, int value) {
+			buf[position] = (byte) (value >>> 8);
+			buf[position + 1] = (byte) value;
+		}
+
+		void writeTo(ClassFileBuffer out) {
+			out.write(buf, 0, count);
+		}
+	}
+
+	private static final class ConstantPool {
+		private final ClassFileBuffer entries = new ClassFileBuffer();
+
+		private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+		private int nextIndex = 1;
+
+		int utf8(String value) {
+			final String key = "U" + value;
+			Integer index = indices.get(key);
+			if (index == null) {
+				entries.u1(1);
+				try {
+					new DataOutputStream(entries).writeUTF(value);
+				} catch (IOException e) {
+					// this should not happen...
+					throw new RuntimeException(e);
+				}
+				index = register(key, 1);
+			}
+			return index;
+		}
+
+		int classEntry(String internalName) {
+			final String key = "C" + internalName;
+			Integer index = indices.get(key);
+			if (index == null) {
+				final int name = utf8(internalName);
+				entries.u1(7);
+				entries.u2(name);
+				index = register(key, 1);
+			}
+			return index;
+		}
+
+		int stringEntry(String value) {
+			final String key = "S" + value;
+			Integer index = indices.get(key);
+			if (index == null) {
+				final int string = utf8(value);
+				entries.u1(8);
+				entries.u2(string);
+				index = register(key, 1);
+			}
+			return index;
+		}
+
+		int integerEntry(int value) {
+			final String key = "I" + value;
+			Integer index = indices.get(key);
+			if (index == null) {
+				entries.u1(3);
+				entries.u4(value);
+				index = register(key, 1);
+			}
+			return index;
+		}
+
+		int doubleEntry(double value) {
+			final long bits = Double.doubleToRawLongBits(value);
+			final String key = "D" + bits;
+			Integer index = indices.get(key);
+			if (index == null) {
+				entries.u1(6);
+				entries.u4((int) (bits >>> 32));
+				entries.u4((int) bits);
+				// double constants take up two entries in the pool
+				index = register(key, 2);
+			}
+			return index;
+		}
+
+		int methodEntry(String owner, String name, String descriptor) {
+			final String key = "M" + owner + '.' + name + descriptor;
+			Integer index = indices.get(key);
+			if (index == null) {
+				final int ownerClass = classEntry(owner);
+				final int nameIndex = utf8(name);
+				final int descriptorIndex = utf8(descriptor);
+				final int nameAndType = nameAndTypeEntry(nameIndex, descriptorIndex);
+				entries.u1(10);
+				entries.u2(ownerClass);
+				entries.u2(nameAndType);
+				index = register(key, 1);
+			}
+			return index;
+		}
+
+		private int nameAndTypeEntry(int name, int descriptor) {
+			final String key = "N" + name + ':' + descriptor;
+			Integer index = indices.get(key);
+			if (index == null) {
+				entries.u1(12);
+				entries.u2(name);
+				entries.u2(descriptor);
+				index = register(key, 1);
+			}
+			return index;
+		}
+
+		int size() {
+			return nextIndex;
+		}
+
+		private int register(String key, int size) {
+			final int index = nextIndex;
+			indices.put(key, index);
+			nextIndex += size;
+			return index;
+		}
+
+		void writeTo(ClassFileBuffer out) {
+			out.u2(nextIndex);
+			entries.writeTo(out);
+		}
+	}
+
+	private static final class ExpressionClassLoader extends ClassLoader {
+		ExpressionClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+}
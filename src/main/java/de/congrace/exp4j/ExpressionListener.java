@@ -0,0 +1,65 @@
+package de.congrace.exp4j;
+
+/**
+ * A listener receiving the timings of the builds and calculations of expressions, e.g. to feed them into a metrics
+ * library. A listener is set on an {@link ExpressionBuilder} via
+ * {@link ExpressionBuilder#withListener(ExpressionListener)} or for every new builder via
+ * {@link ExpressionBuilder#setDefaultListener(ExpressionListener)} and is passed on to the {@link Calculable}s and
+ * {@link Expression}s it builds. Expressions built without a listener pay a single null check per calculation. The
+ * methods are called on the thread building or calculating the expression, so an implementation has to be thread
+ * safe and should return quickly. {@link ExpressionMetrics} is an implementation collecting counters and latency
+ * histograms.
+ *
+ * @author frank asseg
+ *
+ */
+public interface ExpressionListener {
+	/**
+	 * called after an expression has been built
+	 *
+	 * @param expression
+	 *            the expression as passed to the {@link ExpressionBuilder}
+	 * @param tokenizeNanos
+	 *            the time spent splitting the expression into tokens
+	 * @param convertNanos
+	 *            the time spent converting the tokens to reverse polish notation and optimizing them
+	 * @param validateNanos
+	 *            the time spent checking the variable names, the operators and the structure of the expression
+	 * @param compileNanos
+	 *            the time spent compiling the expression to JVM bytecode, 0 if the expression has not been compiled
+	 */
+	public void expressionBuilt(String expression, long tokenizeNanos, long convertNanos, long validateNanos,
+			long compileNanos);
+
+	/**
+	 * called when an expression could not be built
+	 *
+	 * @param expression
+	 *            the expression as passed to the {@link ExpressionBuilder}
+	 * @param e
+	 *            the exception thrown by the {@link ExpressionBuilder}
+	 */
+	public void buildFailed(String expression, Exception e);
+
+	/**
+	 * called after an expression has been calculated
+	 *
+	 * @param expression
+	 *            the expression as passed to the {@link ExpressionBuilder}
+	 * @param rows
+	 *            the number of results calculated, 1 unless the expression has been calculated for many rows at once
+	 * @param nanos
+	 *            the time spent calculating the expression
+	 */
+	public void expressionCalculated(String expression, int rows, long nanos);
+
+	/**
+	 * called when a calculation threw an exception, e.g. an {@link ArithmeticException} on a division by zero
+	 *
+	 * @param expression
+	 *            the expression as passed to the {@link ExpressionBuilder}
+	 * @param e
+	 *            the exception thrown by the calculation
+	 */
+	public void calculationFailed(String expression, RuntimeException e);
+}
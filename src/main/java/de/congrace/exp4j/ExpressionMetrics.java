@@ -0,0 +1,269 @@
+package de.congrace.exp4j;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe {@link ExpressionListener} collecting the build times by phase and the calculation counts and latency
+ * histograms of every expression. The histograms use buckets of powers of two, so recording a calculation takes a few
+ * atomic increments. The statistics are kept for every distinct expression text ever calculated, so applications
+ * generating an unbounded number of different expressions should not use a single instance forever.
+ *
+ * <pre>
+ * ExpressionMetrics metrics = new ExpressionMetrics();
+ * ExpressionBuilder.setDefaultListener(metrics);
+ * ...
+ * long p99 = metrics.getStatistics(&quot;3 * x + y&quot;).getPercentileNanos(99);
+ * </pre>
+ *
+ * @author frank asseg
+ *
+ */
+public final class ExpressionMetrics implements ExpressionListener {
+	private final AtomicLong buildFailures = new AtomicLong();
+
+	private final AtomicLong tokenizeNanos = new AtomicLong();
+
+	private final AtomicLong convertNanos = new AtomicLong();
+
+	private final AtomicLong validateNanos = new AtomicLong();
+
+	private final AtomicLong compileNanos = new AtomicLong();
+
+	private final LatencyHistogram buildTimes = new LatencyHistogram();
+
+	private final AtomicLong calculations = new AtomicLong();
+
+	private final AtomicLong calculationFailures = new AtomicLong();
+
+	private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+	public void expressionBuilt(String expression, long tokenizeNanos, long convertNanos, long validateNanos,
+			long compileNanos) {
+		this.tokenizeNanos.addAndGet(tokenizeNanos);
+		this.convertNanos.addAndGet(convertNanos);
+		this.validateNanos.addAndGet(validateNanos);
+		this.compileNanos.addAndGet(compileNanos);
+		buildTimes.record(tokenizeNanos + convertNanos + validateNanos + compileNanos);
+	}
+
+	public void buildFailed(String expression, Exception e) {
+		buildFailures.incrementAndGet();
+	}
+
+	public void expressionCalculated(String expression, int rows, long nanos) {
+		calculations.incrementAndGet();
+		final Statistics stats = statistics(expression);
+		stats.rows.addAndGet(rows);
+		stats.latencies.record(nanos);
+	}
+
+	public void calculationFailed(String expression, RuntimeException e) {
+		calculationFailures.incrementAndGet();
+		statistics(expression).failures.incrementAndGet();
+	}
+
+	private Statistics statistics(String expression) {
+		Statistics stats = statistics.get(expression);
+		if (stats == null) {
+			final Statistics created = new Statistics();
+			stats = statistics.putIfAbsent(expression, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * get the number of expressions built
+	 *
+	 * @return the number of successful builds
+	 */
+	public long getBuildCount() {
+		return buildTimes.getCount();
+	}
+
+	/**
+	 * get the number of expressions which could not be built
+	 *
+	 * @return the number of failed builds
+	 */
+	public long getBuildFailureCount() {
+		return buildFailures.get();
+	}
+
+	/**
+	 * get the total time spent building expressions
+	 *
+	 * @return the sum of the build times of all phases in nanoseconds
+	 */
+	public long getBuildNanos() {
+		return buildTimes.getTotalNanos();
+	}
+
+	/**
+	 * get the total time spent splitting expressions into tokens
+	 *
+	 * @return the tokenize time in nanoseconds
+	 */
+	public long getTokenizeNanos() {
+		return tokenizeNanos.get();
+	}
+
+	/**
+	 * get the total time spent converting expressions to reverse polish notation and optimizing them
+	 *
+	 * @return the convert time in nanoseconds
+	 */
+	public long getConvertNanos() {
+		return convertNanos.get();
+	}
+
+	/**
+	 * get the total time spent validating expressions
+	 *
+	 * @return the validate time in nanoseconds
+	 */
+	public long getValidateNanos() {
+		return validateNanos.get();
+	}
+
+	/**
+	 * get the total time spent compiling expressions to JVM bytecode
+	 *
+	 * @return the compile time in nanoseconds
+	 */
+	public long getCompileNanos() {
+		return compileNanos.get();
+	}
+
+	/**
+	 * get an upper bound of a percentile of the build times
+	 *
+	 * @param percentile
+	 *            the percentile between 0 and 100
+	 * @return the build time in nanoseconds, accurate to a factor of two, or 0 if no expression has been built
+	 * @throws IllegalArgumentException
+	 *             if the percentile is not between 0 and 100
+	 */
+	public long getBuildPercentileNanos(double percentile) throws IllegalArgumentException {
+		return buildTimes.getPercentile(percentile);
+	}
+
+	/**
+	 * get the number of calculations of all expressions. A calculation of many rows at once is counted once
+	 *
+	 * @return the number of successful calculations
+	 */
+	public long getCalculationCount() {
+		return calculations.get();
+	}
+
+	/**
+	 * get the number of calculations of all expressions which threw an exception
+	 *
+	 * @return the number of failed calculations
+	 */
+	public long getCalculationFailureCount() {
+		return calculationFailures.get();
+	}
+
+	/**
+	 * get the statistics of the calculations of an expression
+	 *
+	 * @param expression
+	 *            the expression as passed to the {@link ExpressionBuilder}
+	 * @return the {@link Statistics} of the expression or null if it has not been calculated
+	 */
+	public Statistics getStatistics(String expression) {
+		return statistics.get(expression);
+	}
+
+	/**
+	 * get the statistics of the calculations of all expressions
+	 *
+	 * @return an unmodifiable live view of the {@link Statistics} by expression
+	 */
+	public Map<String, Statistics> getStatistics() {
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	/**
+	 * The counters and the latency histogram of the calculations of a single expression
+	 */
+	public static final class Statistics {
+		private final AtomicLong rows = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		Statistics() {
+			super();
+		}
+
+		/**
+		 * get the number of calculations of the expression. A calculation of many rows at once is counted once
+		 *
+		 * @return the number of successful calculations
+		 */
+		public long getCalculationCount() {
+			return latencies.getCount();
+		}
+
+		/**
+		 * get the number of results calculated
+		 *
+		 * @return the number of rows calculated by successful calculations
+		 */
+		public long getRowCount() {
+			return rows.get();
+		}
+
+		/**
+		 * get the number of calculations of the expression which threw an exception
+		 *
+		 * @return the number of failed calculations
+		 */
+		public long getFailureCount() {
+			return failures.get();
+		}
+
+		/**
+		 * get the total time spent calculating the expression
+		 *
+		 * @return the calculation time in nanoseconds
+		 */
+		public long getTotalNanos() {
+			return latencies.getTotalNanos();
+		}
+
+		/**
+		 * get an upper bound of a percentile of the calculation latencies
+		 *
+		 * @param percentile
+		 *            the percentile between 0 and 100
+		 * @return the latency in nanoseconds, accurate to a factor of two, or 0 if the expression has not been
+		 *         calculated
+		 * @throws IllegalArgumentException
+		 *             if the percentile is not between 0 and 100
+		 */
+		public long getPercentileNanos(double percentile) throws IllegalArgumentException {
+			return latencies.getPercentile(percentile);
+		}
+
+		/**
+		 * get the latency histogram. The element i is the number of calculations which took less than 2^i but at
+		 * least 2^(i-1) nanoseconds
+		 *
+		 * @return a snapshot of the histogram
+		 */
+		public long[] getHistogram() {
+			return latencies.getBuckets();
+		}
+	}
+}
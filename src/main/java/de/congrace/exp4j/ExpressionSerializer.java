@@ -0,0 +1,433 @@
+package de.congrace.exp4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a built expression in a compact binary format and reads it back without tokenizing or converting it again.
+ * Loading a precompiled expression only decodes the program and looks up its functions and operators by name in a
+ * {@link FunctionRegistry}, which has to contain every {@link CustomFunction} and {@link CustomOperator} the expression
+ * was built with. Only the names are written, so the registry has to hold the same implementations as the one used
+ * when the expression was written, and they have to be pure functions of their operands for a read expression to
+ * calculate the same results. The format of version {@value #VERSION} is:
+ *
+ * <pre>
+ * int    magic number 0x65787034
+ * byte   format version
+ * varint variable count, then for every variable in slot order: UTF name, double value (NaN if unset)
+ * varint function count, then for every function: UTF name, varint argument count
+ * varint operator count, then for every operator: UTF symbol, varint operand count
+ * varint program length, then the instructions evaluated by the calculation
+ * varint postfix length, then the instructions of the expression as written by the user
+ * </pre>
+ *
+ * Every instruction is an opcode byte followed by its operand: a double for a constant, the UTF text of a literal, or
+ * a varint index into the variable, function or operator table or the temporary slots. A varint is an unsigned
+ * integer written in groups of seven bits, least significant group first.
+ *
+ * @author frank asseg
+ *
+ */
+public abstract class ExpressionSerializer {
+	/**
+	 * the version of the format written by this class
+	 */
+	public static final int VERSION = 1;
+
+	static final int MAGIC = 0x65787034;
+
+	// the largest number of entries of a table or program accepted when reading
+	static final int MAX_COUNT = 1 << 24;
+
+	static final int OP_CONSTANT = 1;
+
+	static final int OP_VARIABLE = 2;
+
+	static final int OP_FUNCTION = 3;
+
+	static final int OP_OPERATOR = 4;
+
+	static final int OP_STORE = 5;
+
+	static final int OP_LOAD = 6;
+
+	static final int OP_LITERAL = 7;
+
+	/**
+	 * write a {@link Calculable} created by {@link ExpressionBuilder#build()}. The current values of the variables
+	 * are written as their default values
+	 *
+	 * @param calculable
+	 *            the expression to write
+	 * @param out
+	 *            the output to write to
+	 * @throws IOException
+	 *             if the output could not be written
+	 * @throws IllegalArgumentException
+	 *             if the {@link Calculable} was compiled to bytecode
+	 */
+	public static void write(Calculable calculable, DataOutput out) throws IOException {
+		if (!(calculable instanceof RPNExpression)) {
+			throw new IllegalArgumentException("Only expressions created by ExpressionBuilder.build() can be written");
+		}
+		final RPNExpression rpn = (RPNExpression) calculable;
+		final List<String> functionNames = new ArrayList<String>();
+		final List<CustomFunction> functions = new ArrayList<CustomFunction>();
+		final List<String> operatorSymbols = new ArrayList<String>();
+		final List<CustomOperator> operators = new ArrayList<CustomOperator>();
+		collectOperations(rpn.tokens, functionNames, functions, operatorSymbols, operators);
+		collectOperations(rpn.postfix, functionNames, functions, operatorSymbols, operators);
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		writeVarInt(out, rpn.variables.size());
+		for (final Map.Entry<String, Double> variable : rpn.variables.entrySet()) {
+			out.writeUTF(variable.getKey());
+			out.writeDouble(variable.getValue() == null ? Double.NaN : variable.getValue());
+		}
+		writeVarInt(out, functions.size());
+		for (int i = 0; i < functions.size(); i++) {
+			out.writeUTF(functionNames.get(i));
+			writeVarInt(out, functions.get(i).argc);
+		}
+		writeVarInt(out, operators.size());
+		for (int i = 0; i < operators.size(); i++) {
+			out.writeUTF(operatorSymbols.get(i));
+			writeVarInt(out, operators.get(i).operandCount);
+		}
+		writeProgram(out, rpn.tokens, functionNames, operatorSymbols, false);
+		writeProgram(out, rpn.postfix, functionNames, operatorSymbols, true);
+	}
+
+	/**
+	 * write a {@link Calculable} created by {@link ExpressionBuilder#build()} to a {@link ByteBuffer}
+	 *
+	 * @param calculable
+	 *            the expression to write
+	 * @param buffer
+	 *            the buffer to write to, starting at its position
+	 * @throws BufferOverflowException
+	 *             if the buffer is too small, in which case its position is not changed
+	 * @throws IllegalArgumentException
+	 *             if the {@link Calculable} was compiled to bytecode
+	 * @see #write(Calculable, DataOutput)
+	 */
+	public static void write(Calculable calculable, ByteBuffer buffer) throws BufferOverflowException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try {
+			write(calculable, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			// a ByteArrayOutputStream does not throw
+			throw new IllegalStateException(e);
+		}
+		buffer.put(bytes.toByteArray());
+	}
+
+	/**
+	 * read an expression written by {@link #write(Calculable, DataOutput)}. Exactly the bytes of one expression are
+	 * consumed, so several expressions can be read from the same input one after another. The variable names are
+	 * checked like {@link ExpressionBuilder} does, since the input might not have been written by this class
+	 *
+	 * @param in
+	 *            the input to read from
+	 * @param registry
+	 *            the functions and operators the expression can use. Functions and operators are looked up by name, so
+	 *            they have to be the same pure implementations the expression was written with
+	 * @return the {@link Calculable} which can be used to evaluate the expression
+	 * @throws IOException
+	 *             if the input could not be read or is not an expression in a supported version of the format
+	 * @throws UnknownFunctionException
+	 *             if a function of the expression is not registered
+	 * @throws UnparsableExpressionException
+	 *             if a variable name is invalid or the name of a registered function, an operator of the expression is
+	 *             not registered, or a function or operator does not take the number of operands it was written with
+	 */
+	public static Calculable read(DataInput in, FunctionRegistry registry) throws IOException,
+			UnknownFunctionException, UnparsableExpressionException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Input is not a serialized expression");
+		}
+		final int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported format version " + version + ", expected " + VERSION);
+		}
+		// the counts are not trusted to size any allocation, the tables grow while they are read
+		final int variableCount = readCount(in, "variable");
+		final Map<String, Double> variables = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < variableCount; i++) {
+			final String name = in.readUTF();
+			ExpressionBuilder.checkVariableName(name);
+			if (registry.functions.containsKey(name)) {
+				throw new UnparsableExpressionException("Variable '" + name
+						+ "' cannot have the same name as a function");
+			}
+			if (variables.put(name, in.readDouble()) != null) {
+				throw new IOException("Duplicate variable '" + name + "'");
+			}
+		}
+		final int functionCount = readCount(in, "function");
+		final List<CustomFunction> functions = new ArrayList<CustomFunction>();
+		for (int i = 0; i < functionCount; i++) {
+			final String name = in.readUTF();
+			final int argc = readVarInt(in);
+			final CustomFunction function = registry.functions.get(name);
+			if (function == null) {
+				throw new UnknownFunctionException(name);
+			}
+			if (function.argc != argc) {
+				throw new UnparsableExpressionException("Function '" + name + "' takes " + function.argc
+						+ " arguments instead of " + argc);
+			}
+			functions.add(function);
+		}
+		final int operatorCount = readCount(in, "operator");
+		final List<CustomOperator> operators = new ArrayList<CustomOperator>();
+		for (int i = 0; i < operatorCount; i++) {
+			final String symbol = in.readUTF();
+			final int operandCount = readVarInt(in);
+			final CustomOperator operator = resolveOperator(symbol, registry);
+			if (operator == null) {
+				throw new UnparsableExpressionException("Unknown operator '" + symbol + "'");
+			}
+			if (operator.operandCount != operandCount) {
+				throw new UnparsableExpressionException("Operator '" + symbol + "' takes " + operator.operandCount
+						+ " operands instead of " + operandCount);
+			}
+			operators.add(operator);
+		}
+		final String[] variableNames = variables.keySet().toArray(new String[variables.size()]);
+		final CustomFunction[] functionTable = functions.toArray(new CustomFunction[functions.size()]);
+		final CustomOperator[] operatorTable = operators.toArray(new CustomOperator[operators.size()]);
+		final List<Token> tokens = readProgram(in, variableNames, functionTable, operatorTable, false);
+		final List<Token> postfix = readProgram(in, variableNames, functionTable, operatorTable, true);
+		return new RPNExpression(tokens, postfix, variables, RPNConverter.computeStackDepth(tokens), null, null);
+	}
+
+	/**
+	 * read an expression written by {@link #write(Calculable, ByteBuffer)}
+	 *
+	 * @param buffer
+	 *            the buffer to read from, starting at its position. The position is moved past the expression
+	 * @param registry
+	 *            the functions and operators the expression can use
+	 * @return the {@link Calculable} which can be used to evaluate the expression
+	 * @throws IOException
+	 *             if the buffer does not contain an expression in a supported version of the format
+	 * @throws UnknownFunctionException
+	 *             if a function of the expression is not registered
+	 * @throws UnparsableExpressionException
+	 *             if a variable name is invalid or the name of a registered function, an operator of the expression is
+	 *             not registered, or a function or operator does not take the number of operands it was written with
+	 * @see #read(DataInput, FunctionRegistry)
+	 */
+	public static Calculable read(ByteBuffer buffer, FunctionRegistry registry) throws IOException,
+			UnknownFunctionException, UnparsableExpressionException {
+		return read(new DataInputStream(new ByteBufferInputStream(buffer)), registry);
+	}
+
+	private static CustomOperator resolveOperator(String symbol, FunctionRegistry registry) {
+		final CustomOperator operator = registry.operators.get(symbol);
+		if (operator != null) {
+			return operator;
+		}
+		// the operators introduced by the simplification can not be registered
+		if (symbol.equals(RPNSimplifier.SQUARE.symbol)) {
+			return RPNSimplifier.SQUARE;
+		}
+		if (symbol.equals(RPNSimplifier.SQUARE_ROOT.symbol)) {
+			return RPNSimplifier.SQUARE_ROOT;
+		}
+		return null;
+	}
+
+	private static void collectOperations(List<Token> tokens, List<String> functionNames,
+			List<CustomFunction> functions, List<String> operatorSymbols, List<CustomOperator> operators) {
+		for (final Token token : tokens) {
+			if (token instanceof FunctionToken && !functionNames.contains(token.getValue())) {
+				functionNames.add(token.getValue());
+				functions.add(((FunctionToken) token).function);
+			} else if (token instanceof OperatorToken && !operatorSymbols.contains(operatorName((OperatorToken) token))) {
+				operatorSymbols.add(operatorName((OperatorToken) token));
+				operators.add(((OperatorToken) token).operation);
+			}
+		}
+	}
+
+	/*
+	 * the name an operator is written with. The unary minus is written by its key in the registry, since its symbol
+	 * may belong to a custom operator as well
+	 */
+	private static String operatorName(OperatorToken token) {
+		if (token.operation instanceof BuiltinOperator
+				&& ((BuiltinOperator) token.operation).opcode == BuiltinOperator.NEGATE) {
+			return OperatorTrie.UNARY_MINUS;
+		}
+		return token.getValue();
+	}
+
+	private static void writeProgram(DataOutput out, List<Token> tokens, List<String> functionNames,
+			List<String> operatorSymbols, boolean literals) throws IOException {
+		writeVarInt(out, tokens.size());
+		for (final Token token : tokens) {
+			if (token instanceof NumberToken) {
+				if (literals) {
+					// keep the number as the user has written it
+					out.writeByte(OP_LITERAL);
+					out.writeUTF(token.getValue());
+				} else {
+					out.writeByte(OP_CONSTANT);
+					out.writeDouble(((NumberToken) token).doubleValue);
+				}
+			} else if (token instanceof VariableToken) {
+				out.writeByte(OP_VARIABLE);
+				writeVarInt(out, ((VariableToken) token).slot);
+			} else if (token instanceof FunctionToken) {
+				out.writeByte(OP_FUNCTION);
+				writeVarInt(out, functionNames.indexOf(token.getValue()));
+			} else if (token instanceof OperatorToken) {
+				out.writeByte(OP_OPERATOR);
+				writeVarInt(out, operatorSymbols.indexOf(operatorName((OperatorToken) token)));
+			} else if (token instanceof StoreToken) {
+				out.writeByte(OP_STORE);
+				writeVarInt(out, ((StoreToken) token).index);
+			} else if (token instanceof LoadToken) {
+				out.writeByte(OP_LOAD);
+				writeVarInt(out, ((LoadToken) token).index);
+			} else {
+				throw new IllegalArgumentException("Unable to write token '" + token.getValue() + "'");
+			}
+		}
+	}
+
+	private static List<Token> readProgram(DataInput in, String[] variableNames, CustomFunction[] functions,
+			CustomOperator[] operators, boolean literals) throws IOException, UnknownFunctionException,
+			UnparsableExpressionException {
+		final int length = readCount(in, "instruction");
+		final List<Token> tokens = new ArrayList<Token>();
+		int depth = 0;
+		// a temporary slot can only be loaded after it has been stored, and is stored once
+		int temporaryCount = 0;
+		for (int i = 0; i < length; i++) {
+			final int opcode = in.readUnsignedByte();
+			final CalculationToken token;
+			if (opcode == OP_CONSTANT && !literals) {
+				token = new NumberToken(in.readDouble());
+			} else if (opcode == OP_LITERAL && literals) {
+				try {
+					token = new NumberToken(in.readUTF());
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid number literal", e);
+				}
+			} else if (opcode == OP_VARIABLE) {
+				final int slot = readIndex(in, variableNames.length, "variable");
+				token = new VariableToken(variableNames[slot], slot);
+			} else if (opcode == OP_FUNCTION) {
+				final CustomFunction function = functions[readIndex(in, functions.length, "function")];
+				token = new FunctionToken(function.name, function);
+			} else if (opcode == OP_OPERATOR) {
+				final CustomOperator operator = operators[readIndex(in, operators.length, "operator")];
+				token = new OperatorToken(operator.symbol, operator);
+			} else if (opcode == OP_STORE && !literals) {
+				token = new StoreToken(readIndex(in, temporaryCount + 1, "temporary"));
+				if (((StoreToken) token).index == temporaryCount) {
+					temporaryCount++;
+				} else {
+					throw new IOException("Temporary slot " + ((StoreToken) token).index + " is stored twice");
+				}
+			} else if (opcode == OP_LOAD && !literals) {
+				token = new LoadToken(readIndex(in, temporaryCount, "temporary"));
+			} else {
+				throw new IOException("Invalid opcode " + opcode + " at instruction " + i);
+			}
+			depth += 1 - token.getOperandCount();
+			if (depth <= 0) {
+				throw new UnparsableExpressionException("Not enough operands for '" + token.getValue() + "'");
+			}
+			tokens.add(token);
+		}
+		if (depth != 1) {
+			throw new UnparsableExpressionException("Program leaves " + depth + " values on the stack");
+		}
+		return tokens;
+	}
+
+	private static int readIndex(DataInput in, int size, String table) throws IOException {
+		final int index = readVarInt(in);
+		if (index >= size) {
+			throw new IOException("Invalid " + table + " index " + index);
+		}
+		return index;
+	}
+
+	/*
+	 * read the number of entries of a table or program. No expression comes anywhere near MAX_COUNT entries, so a
+	 * larger count is taken for a corrupt input
+	 */
+	private static int readCount(DataInput in, String table) throws IOException {
+		final int count = readVarInt(in);
+		if (count > MAX_COUNT) {
+			throw new IOException("Invalid " + table + " count " + count);
+		}
+		return count;
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) {
+					break;
+				}
+				return value;
+			}
+		}
+		throw new IOException("Invalid varint");
+	}
+
+	/**
+	 * An {@link InputStream} reading from the position of a {@link ByteBuffer} and moving it
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int n = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, n);
+			return n;
+		}
+	}
+}
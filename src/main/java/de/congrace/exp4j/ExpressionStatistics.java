@@ -0,0 +1,202 @@
+package de.congrace.exp4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A JMX MBean exposing the counters of an {@link ExpressionMetrics} and optionally the hit ratio of an
+ * {@link ExpressionCache}, so the expression engine can be watched with the usual JMX consoles. Nothing is registered
+ * until {@link #register()} is called, and the attributes are computed from the counters when they are read, so an
+ * unused MBean costs nothing.
+ *
+ * <pre>
+ * ExpressionMetrics metrics = new ExpressionMetrics();
+ * ExpressionBuilder.setDefaultListener(metrics);
+ * new ExpressionStatistics(metrics, cache).register();
+ * </pre>
+ *
+ * @author frank asseg
+ *
+ */
+public final class ExpressionStatistics implements ExpressionStatisticsMBean {
+	/**
+	 * the name under which {@link #register()} registers the MBean
+	 */
+	public static final String DEFAULT_NAME = "de.congrace.exp4j:type=ExpressionStatistics";
+
+	private static final Comparator<Map.Entry<String, Long>> BY_COUNT = new Comparator<Map.Entry<String, Long>>() {
+		public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+			final int cmp = a.getValue().compareTo(b.getValue());
+			// expressions with the same count are ordered alphabetically
+			return cmp != 0 ? cmp : b.getKey().compareTo(a.getKey());
+		}
+	};
+
+	private final ExpressionMetrics metrics;
+
+	private final ExpressionCache cache;
+
+	private volatile int topExpressionCount = 10;
+
+	private MBeanServer server;
+
+	private ObjectName name;
+
+	/**
+	 * construct a new {@link ExpressionStatistics}
+	 *
+	 * @param metrics
+	 *            the {@link ExpressionMetrics} set as listener of the observed expressions
+	 * @param cache
+	 *            the {@link ExpressionCache} used to build the expressions or null if no cache is used
+	 * @throws IllegalArgumentException
+	 *             if the metrics are null
+	 */
+	public ExpressionStatistics(ExpressionMetrics metrics, ExpressionCache cache) {
+		super();
+		if (metrics == null) {
+			throw new IllegalArgumentException("The metrics can not be null");
+		}
+		this.metrics = metrics;
+		this.cache = cache;
+	}
+
+	/**
+	 * register this MBean with the platform MBean server under the name {@value #DEFAULT_NAME}
+	 *
+	 * @return the name of the registered MBean
+	 * @throws JMException
+	 *             if the MBean could not be registered, e.g. because another MBean is registered under the same name
+	 */
+	public ObjectName register() throws JMException {
+		return register(ManagementFactory.getPlatformMBeanServer(), new ObjectName(DEFAULT_NAME));
+	}
+
+	/**
+	 * register this MBean with an MBean server
+	 *
+	 * @param server
+	 *            the {@link MBeanServer}
+	 * @param name
+	 *            the name of the MBean
+	 * @return the name of the registered MBean
+	 * @throws JMException
+	 *             if the MBean could not be registered
+	 * @throws IllegalStateException
+	 *             if this MBean is already registered
+	 */
+	public synchronized ObjectName register(MBeanServer server, ObjectName name) throws JMException {
+		if (this.server != null) {
+			throw new IllegalStateException("The MBean is already registered as " + this.name);
+		}
+		this.name = server.registerMBean(this, name).getObjectName();
+		this.server = server;
+		return this.name;
+	}
+
+	/**
+	 * unregister this MBean from the MBean server it has been registered with. Nothing happens if it is not
+	 * registered
+	 *
+	 * @throws JMException
+	 *             if the MBean could not be unregistered
+	 */
+	public synchronized void unregister() throws JMException {
+		if (server != null) {
+			server.unregisterMBean(name);
+			server = null;
+			name = null;
+		}
+	}
+
+	public long getBuildCount() {
+		return metrics.getBuildCount();
+	}
+
+	public long getBuildFailureCount() {
+		return metrics.getBuildFailureCount();
+	}
+
+	public double getAverageBuildNanos() {
+		// the counters are read one after another, so a concurrent build may skew the average slightly
+		final long count = metrics.getBuildCount();
+		return count == 0 ? 0d : (double) metrics.getBuildNanos() / count;
+	}
+
+	public long getBuildNanos99thPercentile() {
+		return metrics.getBuildPercentileNanos(99d);
+	}
+
+	public long getCalculationCount() {
+		return metrics.getCalculationCount();
+	}
+
+	public long getCalculationFailureCount() {
+		return metrics.getCalculationFailureCount();
+	}
+
+	public double getCacheHitRatio() {
+		if (cache == null) {
+			return Double.NaN;
+		}
+		final long hits = cache.getHitCount();
+		final long requests = hits + cache.getMissCount();
+		return requests == 0 ? Double.NaN : (double) hits / requests;
+	}
+
+	public int getCacheSize() {
+		return cache == null ? 0 : cache.size();
+	}
+
+	public int getLiveCompiledExpressionCount() {
+		return ExpressionCompiler.getLiveCount();
+	}
+
+	public String[] getTopExpressions() {
+		final int count = topExpressionCount;
+		if (count == 0) {
+			return new String[0];
+		}
+		// keep the most frequent expressions in a heap whose head is the least frequent of them. The counts are read
+		// once, since they keep changing while the heap is built
+		final PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<Map.Entry<String, Long>>(count, BY_COUNT);
+		for (final Map.Entry<String, ExpressionMetrics.Statistics> statistics : metrics.getStatistics().entrySet()) {
+			final Map.Entry<String, Long> entry = new AbstractMap.SimpleImmutableEntry<String, Long>(
+					statistics.getKey(), statistics.getValue().getCalculationCount());
+			if (top.size() < count) {
+				top.add(entry);
+			} else if (BY_COUNT.compare(entry, top.peek()) > 0) {
+				top.poll();
+				top.add(entry);
+			}
+		}
+		final List<Map.Entry<String, Long>> sorted = new ArrayList<Map.Entry<String, Long>>(top);
+		Collections.sort(sorted, Collections.reverseOrder(BY_COUNT));
+		final String[] expressions = new String[sorted.size()];
+		for (int i = 0; i < expressions.length; i++) {
+			expressions[i] = sorted.get(i).getValue() + " " + sorted.get(i).getKey();
+		}
+		return expressions;
+	}
+
+	public int getTopExpressionCount() {
+		return topExpressionCount;
+	}
+
+	public void setTopExpressionCount(int count) {
+		if (count < 0) {
+			throw new IllegalArgumentException("The number of top expressions can not be negative");
+		}
+		this.topExpressionCount = count;
+	}
+}
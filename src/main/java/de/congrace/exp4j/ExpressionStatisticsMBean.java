@@ -0,0 +1,98 @@
+package de.congrace.exp4j;
+
+/**
+ * The management interface of {@link ExpressionStatistics}, exposing the statistics of the expression engine via JMX
+ * 
+ * @author frank asseg
+ * 
+ */
+public interface ExpressionStatisticsMBean {
+	/**
+	 * get the number of expressions built
+	 * 
+	 * @return the number of successful builds
+	 */
+	public long getBuildCount();
+
+	/**
+	 * get the number of expressions which could not be built
+	 * 
+	 * @return the number of failed builds
+	 */
+	public long getBuildFailureCount();
+
+	/**
+	 * get the average time spent building an expression
+	 * 
+	 * @return the average build time in nanoseconds or 0 if no expression has been built
+	 */
+	public double getAverageBuildNanos();
+
+	/**
+	 * get the 99th percentile of the build times
+	 * 
+	 * @return the build time in nanoseconds, accurate to a factor of two, or 0 if no expression has been built
+	 */
+	public long getBuildNanos99thPercentile();
+
+	/**
+	 * get the number of calculations of all expressions
+	 * 
+	 * @return the number of successful calculations
+	 */
+	public long getCalculationCount();
+
+	/**
+	 * get the number of calculations which threw an exception
+	 * 
+	 * @return the number of failed calculations
+	 */
+	public long getCalculationFailureCount();
+
+	/**
+	 * get the share of the requests to the {@link ExpressionCache} which have been answered from the cache
+	 * 
+	 * @return the hit ratio between 0 and 1 or NaN if there is no cache or it has not been used
+	 */
+	public double getCacheHitRatio();
+
+	/**
+	 * get the number of expressions in the {@link ExpressionCache}
+	 * 
+	 * @return the size of the cache or 0 if there is no cache
+	 */
+	public int getCacheSize();
+
+	/**
+	 * get the number of expressions compiled to JVM bytecode which have not been garbage collected. The number is
+	 * counted for the whole class loader of exp4j, not only for the expressions observed by this MBean
+	 * 
+	 * @return the number of live compiled expressions
+	 */
+	public int getLiveCompiledExpressionCount();
+
+	/**
+	 * get the expressions calculated most often
+	 * 
+	 * @return at most {@link #getTopExpressionCount()} entries of the form "count expression", ordered by descending
+	 *         count
+	 */
+	public String[] getTopExpressions();
+
+	/**
+	 * get the number of expressions listed by {@link #getTopExpressions()}
+	 * 
+	 * @return the maximum number of expressions listed
+	 */
+	public int getTopExpressionCount();
+
+	/**
+	 * set the number of expressions listed by {@link #getTopExpressions()}
+	 * 
+	 * @param count
+	 *            the maximum number of expressions listed
+	 * @throws IllegalArgumentException
+	 *             if the count is negative
+	 */
+	public void setTopExpressionCount(int count);
+}
@@ -0,0 +1,309 @@
+package de.congrace.exp4j;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable registry of the functions and operators known to an {@link ExpressionBuilder}. The registry of the
+ * builtin functions and operators is created once and shared by all builders. Adding functions or operators returns a
+ * new registry, leaving the original untouched, so a registry can be set up once and passed to any number of
+ * builders:<br/>
+ * <b>Example</b><br/>
+ * <code><pre>{@code} 
+ *      FunctionRegistry registry = FunctionRegistry.builtins().withCustomFunction(avg).withOperation(greaterEq);
+ *      // for every expression
+ *      Calculable calc = new ExpressionBuilder("avg(x, 2, 3) >= 2", registry).withVariableNames("x").build();
+ * </pre></code>
+ * 
+ * @author frank asseg
+ * 
+ */
+public final class FunctionRegistry {
+
+	final Map<String, CustomFunction> functions;
+
+	final Map<String, CustomOperator> operators;
+
+	private OperatorTrie operatorTrie;
+
+	private FunctionRegistry(Map<String, CustomFunction> functions, Map<String, CustomOperator> operators) {
+		// the maps are never modified after construction
+		super();
+		this.functions = functions;
+		this.operators = operators;
+	}
+
+	/*
+	 * the builtin registries are created on first use by the class loader, which also guarantees their safe
+	 * publication
+	 */
+	private static final class HighUnaryPrecedence {
+		static final FunctionRegistry BUILTINS = new FunctionRegistry(LowUnaryPrecedence.BUILTINS.functions,
+				Collections.unmodifiableMap(createBuiltinOperators(true)));
+	}
+
+	private static final class LowUnaryPrecedence {
+		static final FunctionRegistry BUILTINS = new FunctionRegistry(
+				Collections.unmodifiableMap(createBuiltinFunctions()),
+				Collections.unmodifiableMap(createBuiltinOperators(false)));
+	}
+
+	/**
+	 * get the shared registry of the builtin functions and operators. The precedence of the unary minus depends on
+	 * the system property {@link ExpressionBuilder#PROPERTY_UNARY_HIGH_PRECEDENCE}
+	 * 
+	 * @return the registry of the builtin functions and operators
+	 */
+	public static FunctionRegistry builtins() {
+		return builtins(!"false".equals(System.getProperty(ExpressionBuilder.PROPERTY_UNARY_HIGH_PRECEDENCE)));
+	}
+
+	/**
+	 * get the shared registry of the builtin functions and operators
+	 * 
+	 * @param highUnaryPrecedence
+	 *            true if the unary minus binds stronger than the power operator, i.e. "-3^2" means "(-3)^2"
+	 * @return the registry of the builtin functions and operators
+	 */
+	public static FunctionRegistry builtins(boolean highUnaryPrecedence) {
+		return highUnaryPrecedence ? HighUnaryPrecedence.BUILTINS : LowUnaryPrecedence.BUILTINS;
+	}
+
+	/**
+	 * create a registry containing an additional function
+	 * 
+	 * @param function
+	 *            the {@link CustomFunction} to add, replacing a function of the same name
+	 * @return a new registry
+	 */
+	public FunctionRegistry withCustomFunction(CustomFunction function) {
+		return withCustomFunctions(Collections.singleton(function));
+	}
+
+	/**
+	 * create a registry containing additional functions
+	 * 
+	 * @param functions
+	 *            the {@link CustomFunction}s to add, replacing functions of the same name
+	 * @return a new registry
+	 */
+	public FunctionRegistry withCustomFunctions(Collection<CustomFunction> functions) {
+		final Map<String, CustomFunction> copy = new HashMap<String, CustomFunction>(this.functions);
+		for (CustomFunction function : functions) {
+			copy.put(function.name, function);
+		}
+		return new FunctionRegistry(Collections.unmodifiableMap(copy), operators);
+	}
+
+	/**
+	 * create a registry containing an additional operator
+	 * 
+	 * @param operation
+	 *            the {@link CustomOperator} to add, replacing an operator with the same symbol
+	 * @return a new registry
+	 */
+	public FunctionRegistry withOperation(CustomOperator operation) {
+		return withOperations(Collections.singleton(operation));
+	}
+
+	/**
+	 * create a registry containing additional operators
+	 * 
+	 * @param operations
+	 *            the {@link CustomOperator}s to add, replacing operators with the same symbol
+	 * @return a new registry
+	 */
+	public FunctionRegistry withOperations(Collection<CustomOperator> operations) {
+		final Map<String, CustomOperator> copy = new HashMap<String, CustomOperator>(this.operators);
+		for (CustomOperator operation : operations) {
+			copy.put(operation.symbol, operation);
+		}
+		return new FunctionRegistry(functions, Collections.unmodifiableMap(copy));
+	}
+
+	/**
+	 * get the prefix tree of the operator symbols, which is created once per registry
+	 * 
+	 * @return the {@link OperatorTrie} of the operators
+	 */
+	OperatorTrie operatorTrie() {
+		// racy but safe, the trie only has final fields and is the same for every thread
+		if (operatorTrie == null) {
+			operatorTrie = new OperatorTrie(operators);
+		}
+		return operatorTrie;
+	}
+
+	/**
+	 * get a function by name
+	 * 
+	 * @param name
+	 *            the name of the function
+	 * @return the {@link CustomFunction} or null if there is no function with that name
+	 */
+	public CustomFunction getFunction(String name) {
+		return functions.get(name);
+	}
+
+	/**
+	 * get an operator by symbol
+	 * 
+	 * @param symbol
+	 *            the symbol of the operator
+	 * @return the {@link CustomOperator} or null if there is no operator with that symbol. The unary minus is not
+	 *         registered by its symbol, so the symbol ' is free for a custom operator
+	 */
+	public CustomOperator getOperation(String symbol) {
+		return operators.get(symbol);
+	}
+
+	private static Map<String, CustomOperator> createBuiltinOperators(boolean highUnaryPrecedence) {
+		CustomOperator add = new BuiltinOperator("+", true, 1, 2, BuiltinOperator.ADD);
+		CustomOperator sub = new BuiltinOperator("-", true, 1, 2, BuiltinOperator.SUBTRACT);
+		CustomOperator div = new BuiltinOperator("/", true, 3, 2, BuiltinOperator.DIVIDE);
+		CustomOperator mul = new BuiltinOperator("*", true, 3, 2, BuiltinOperator.MULTIPLY);
+		CustomOperator mod = new BuiltinOperator("%", true, 3, 2, BuiltinOperator.MODULO);
+		CustomOperator umin = new BuiltinOperator("\'", false, highUnaryPrecedence ? 7 : 5, 1, BuiltinOperator.NEGATE);
+		CustomOperator pow = new BuiltinOperator("^", false, 5, 2, BuiltinOperator.POWER);
+		Map<String, CustomOperator> operations = new HashMap<String, CustomOperator>();
+		operations.put("+", add);
+		operations.put("-", sub);
+		operations.put("*", mul);
+		operations.put("/", div);
+		operations.put(OperatorTrie.UNARY_MINUS, umin);
+		operations.put("^", pow);
+		operations.put("%", mod);
+		return operations;
+	}
+
+	private static Map<String, CustomFunction> createBuiltinFunctions() {
+		try {
+			CustomFunction abs = new BuiltinFunction("abs") {
+				@Override
+				public double apply(double x) {
+					return Math.abs(x);
+				}
+			};
+			CustomFunction acos = new BuiltinFunction("acos") {
+				@Override
+				public double apply(double x) {
+					return Math.acos(x);
+				}
+			};
+			CustomFunction asin = new BuiltinFunction("asin") {
+				@Override
+				public double apply(double x) {
+					return Math.asin(x);
+				}
+			};
+			CustomFunction atan = new BuiltinFunction("atan") {
+				@Override
+				public double apply(double x) {
+					return Math.atan(x);
+				}
+			};
+			CustomFunction cbrt = new BuiltinFunction("cbrt") {
+				@Override
+				public double apply(double x) {
+					return Math.cbrt(x);
+				}
+			};
+			CustomFunction ceil = new BuiltinFunction("ceil") {
+				@Override
+				public double apply(double x) {
+					return Math.ceil(x);
+				}
+			};
+			CustomFunction cos = new BuiltinFunction("cos") {
+				@Override
+				public double apply(double x) {
+					return Math.cos(x);
+				}
+			};
+			CustomFunction cosh = new BuiltinFunction("cosh") {
+				@Override
+				public double apply(double x) {
+					return Math.cosh(x);
+				}
+			};
+			CustomFunction exp = new BuiltinFunction("exp") {
+				@Override
+				public double apply(double x) {
+					return Math.exp(x);
+				}
+			};
+			CustomFunction expm1 = new BuiltinFunction("expm1") {
+				@Override
+				public double apply(double x) {
+					return Math.expm1(x);
+				}
+			};
+			CustomFunction floor = new BuiltinFunction("floor") {
+				@Override
+				public double apply(double x) {
+					return Math.floor(x);
+				}
+			};
+			CustomFunction log = new BuiltinFunction("log") {
+				@Override
+				public double apply(double x) {
+					return Math.log(x);
+				}
+			};
+			CustomFunction sine = new BuiltinFunction("sin") {
+				@Override
+				public double apply(double x) {
+					return Math.sin(x);
+				}
+			};
+			CustomFunction sinh = new BuiltinFunction("sinh") {
+				@Override
+				public double apply(double x) {
+					return Math.sinh(x);
+				}
+			};
+			CustomFunction sqrt = new BuiltinFunction("sqrt") {
+				@Override
+				public double apply(double x) {
+					return Math.sqrt(x);
+				}
+			};
+			CustomFunction tan = new BuiltinFunction("tan") {
+				@Override
+				public double apply(double x) {
+					return Math.tan(x);
+				}
+			};
+			CustomFunction tanh = new BuiltinFunction("tanh") {
+				@Override
+				public double apply(double x) {
+					return Math.tanh(x);
+				}
+			};
+			Map<String, CustomFunction> customFunctions = new HashMap<String, CustomFunction>();
+			customFunctions.put("abs", abs);
+			customFunctions.put("acos", acos);
+			customFunctions.put("asin", asin);
+			customFunctions.put("atan", atan);
+			customFunctions.put("cbrt", cbrt);
+			customFunctions.put("ceil", ceil);
+			customFunctions.put("cos", cos);
+			customFunctions.put("cosh", cosh);
+			customFunctions.put("exp", exp);
+			customFunctions.put("expm1", expm1);
+			customFunctions.put("floor", floor);
+			customFunctions.put("log", log);
+			customFunctions.put("sin", sine);
+			customFunctions.put("sinh", sinh);
+			customFunctions.put("sqrt", sqrt);
+			customFunctions.put("tan", tan);
+			customFunctions.put("tanh", tanh);
+			return customFunctions;
+		} catch (InvalidCustomFunctionException e) {
+			// this should not happen...
+			throw new RuntimeException(e);
+		}
+	}
+}
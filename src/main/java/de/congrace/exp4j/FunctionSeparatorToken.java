@@ -1,18 +1,18 @@
 package de.congrace.exp4j;
 
+import java.util.List;
 import java.util.Stack;
 
-class FunctionSeparatorToken extends Token {
+class FunctionSeparatorToken extends Token implements InfixToken {
 
 	FunctionSeparatorToken() {
 		super(",");
 	}
 
-	@Override
-	void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output) {
+	public void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output) {
 		Token token;
 		while (!((token = operatorStack.peek()) instanceof ParenthesesToken) && !token.getValue().equals("(")) {
-			output.append(operatorStack.pop().getValue()).append(" ");
+			output.add(operatorStack.pop());
 		}
 	}
 
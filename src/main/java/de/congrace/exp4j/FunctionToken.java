@@ -1,14 +1,21 @@
 package de.congrace.exp4j;
 
-import java.util.Map;
+import java.util.List;
 import java.util.Stack;
 
-class FunctionToken extends CalculationToken {
+class FunctionToken extends CalculationToken implements InfixToken {
 
 	final String functionName;
 
 	final CustomFunction function;
 
+	// the function cast to its arity specialized type, null if it does not have one
+	private final CustomFunction1 function1;
+
+	private final CustomFunction2 function2;
+
+	private final CustomFunction3 function3;
+
 	FunctionToken(String value, CustomFunction function) throws UnknownFunctionException {
 		super(value);
 		if (value == null) {
@@ -20,6 +27,9 @@ class FunctionToken extends CalculationToken {
 		} catch (IllegalArgumentException e) {
 			throw new UnknownFunctionException(value);
 		}
+		this.function1 = function instanceof CustomFunction1 ? (CustomFunction1) function : null;
+		this.function2 = function instanceof CustomFunction2 ? (CustomFunction2) function : null;
+		this.function3 = function instanceof CustomFunction3 ? (CustomFunction3) function : null;
 	}
 
 	String getName() {
@@ -41,16 +51,68 @@ class FunctionToken extends CalculationToken {
 	}
 
 	@Override
-	void mutateStackForCalculation(Stack<Double> stack, Map<String, Double> variableValues) {
-		double[] args = new double[function.argc];
-		for (int i = 0; i < function.argc; i++) {
-			args[i] = stack.pop();
+	int mutateStackForCalculation(double[] stack, int top, double[] variableValues) {
+		// the specialized functions take their arguments straight from the stack
+		if (function1 != null) {
+			stack[top - 1] = function1.apply(stack[top - 1]);
+			return top;
+		} else if (function2 != null) {
+			stack[top - 2] = function2.apply(stack[top - 2], stack[top - 1]);
+			return top - 1;
+		} else if (function3 != null) {
+			stack[top - 3] = function3.apply(stack[top - 3], stack[top - 2], stack[top - 1]);
+			return top - 2;
+		}
+		final int base = top - function.argc;
+		final double[] args = new double[function.argc];
+		System.arraycopy(stack, base, args, 0, function.argc);
+		stack[base] = this.function.applyFunction(args);
+		return base + 1;
+	}
+
+	@Override
+	int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length) {
+		if (function1 != null) {
+			final double[] x = stack[top - 1];
+			for (int row = 0; row < length; row++) {
+				x[row] = function1.apply(x[row]);
+			}
+			return top;
+		} else if (function2 != null) {
+			final double[] x = stack[top - 2];
+			final double[] y = stack[top - 1];
+			for (int row = 0; row < length; row++) {
+				x[row] = function2.apply(x[row], y[row]);
+			}
+			return top - 1;
+		} else if (function3 != null) {
+			final double[] x = stack[top - 3];
+			final double[] y = stack[top - 2];
+			final double[] z = stack[top - 1];
+			for (int row = 0; row < length; row++) {
+				x[row] = function3.apply(x[row], y[row], z[row]);
+			}
+			return top - 2;
+		}
+		final int argc = function.argc;
+		final int base = top - argc;
+		final double[] result = stack[base];
+		final double[] args = new double[argc];
+		for (int row = 0; row < length; row++) {
+			for (int i = 0; i < argc; i++) {
+				args[i] = stack[base + i][row];
+			}
+			result[row] = function.applyFunction(args);
 		}
-		stack.push(this.function.applyFunction(ArrayUtil.reverse(args)));
+		return base + 1;
 	}
 
 	@Override
-	void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output) {
+	int getOperandCount() {
+		return function.argc;
+	}
+
+	public void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output) {
 		operatorStack.push(this);
 	}
 }
\ No newline at end of file
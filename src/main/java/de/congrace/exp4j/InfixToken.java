@@ -0,0 +1,23 @@
+package de.congrace.exp4j;
+
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * A {@link Token} created by the {@link Tokenizer}, which takes part in the translation of an infix expression to
+ * reverse polish notation. Tokens created after the translation, like the temporary slots of common subexpressions,
+ * do not implement it
+ *
+ * @see RPNConverter
+ */
+interface InfixToken {
+	/**
+	 * apply this token to the operator stack of the shunting yard algorithm
+	 *
+	 * @param operatorStack
+	 *            the operators and parentheses which have not been written to the output yet
+	 * @param output
+	 *            the tokens in reverse polish notation
+	 */
+	void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output);
+}
@@ -0,0 +1,98 @@
+package de.congrace.exp4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies in nanoseconds. Bucket i counts the latencies below 2^i which are not counted
+ * by a lower bucket, so recording a latency is a few atomic increments and the memory footprint is constant. A
+ * percentile is the upper bound of the bucket it falls into, i.e. it is accurate to a factor of two
+ * 
+ * @author frank asseg
+ * 
+ */
+final class LatencyHistogram {
+	static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * record a latency
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds, negative values are counted as 0
+	 */
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * get an upper bound of a percentile of the recorded latencies
+	 * 
+	 * @param percentile
+	 *            the percentile between 0 and 100, e.g. 99 for the latency 99% of the recordings do not exceed
+	 * @return the upper bound of the bucket holding the percentile or 0 if nothing has been recorded
+	 * @throws IllegalArgumentException
+	 *             if the percentile is not between 0 and 100
+	 */
+	long getPercentile(double percentile) throws IllegalArgumentException {
+		if (!(percentile >= 0d && percentile <= 100d)) {
+			throw new IllegalArgumentException("The percentile has to be between 0 and 100");
+		}
+		final long[] counts = getBuckets();
+		long total = 0;
+		for (final long c : counts) {
+			total += c;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * get a snapshot of the buckets
+	 * 
+	 * @return the counts of the buckets, the bucket i counting the latencies up to {@link #upperBound(int)}
+	 */
+	long[] getBuckets() {
+		final long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * get the largest latency counted by a bucket
+	 * 
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the upper bound of the bucket in nanoseconds, inclusive
+	 */
+	static long upperBound(int bucket) {
+		return bucket == 0 ? 0 : (1L << bucket) - 1;
+	}
+}
@@ -0,0 +1,52 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link Token} pushing the value of a common subexpression stored in a temporary slot by a {@link StoreToken}
+ * 
+ * @see RPNSubexpressionEliminator
+ */
+class LoadToken extends CalculationToken {
+
+	final int index;
+
+	/**
+	 * construct a new {@link LoadToken}
+	 * 
+	 * @param index
+	 *            the index of the temporary slot
+	 */
+	LoadToken(int index) {
+		super("load[" + index + "]");
+		this.index = index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof LoadToken) {
+			return index == ((LoadToken) obj).index;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
+	}
+
+	@Override
+	int mutateStackForCalculation(double[] stack, int top, double[] variableValues) {
+		stack[top] = stack[index];
+		return top + 1;
+	}
+
+	@Override
+	int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length) {
+		System.arraycopy(stack[index], 0, stack[top], 0, length);
+		return top + 1;
+	}
+
+	@Override
+	int getOperandCount() {
+		return 0;
+	}
+}
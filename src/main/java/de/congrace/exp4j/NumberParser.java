@@ -0,0 +1,101 @@
+package de.congrace.exp4j;
+
+/**
+ * Parses number literals directly from a character array. Literals with at most 15 significant digits and a decimal
+ * exponent between -22 and 22 are converted exactly with a single multiplication or division of two exactly
+ * representable doubles, which is correctly rounded. All other literals are handed to {@link Double#parseDouble(String)}
+ * which rounds correctly as well
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class NumberParser {
+
+	private static final int MAX_FAST_DIGITS = 15;
+
+	// the powers of ten which are exactly representable as double
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * parse a number literal
+	 * 
+	 * @param chars
+	 *            the characters containing the literal
+	 * @param offset
+	 *            the position of the first character of the literal
+	 * @param length
+	 *            the length of the literal
+	 * @return the value of the literal
+	 * @throws NumberFormatException
+	 *             if the literal is not a valid number
+	 */
+	static double parse(char[] chars, int offset, int length) throws NumberFormatException {
+		final int end = offset + length;
+		long significand = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		int i = offset;
+		for (; i < end; i++) {
+			final char c = chars[i];
+			if (c >= '0' && c <= '9') {
+				if (significand != 0 || c != '0') {
+					if (++digits > MAX_FAST_DIGITS) {
+						return parseSlow(chars, offset, length);
+					}
+					significand = significand * 10 + (c - '0');
+				}
+				if (point) {
+					scale--;
+				}
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (i < end) {
+			// only a decimal exponent with an optional sign may follow
+			if ((chars[i] != 'e' && chars[i] != 'E') || ++i == end) {
+				return parseSlow(chars, offset, length);
+			}
+			final boolean negative = chars[i] == '-';
+			if ((negative || chars[i] == '+') && ++i == end) {
+				return parseSlow(chars, offset, length);
+			}
+			int exponent = 0;
+			for (; i < end; i++) {
+				final char c = chars[i];
+				if (c < '0' || c > '9' || exponent > 1000) {
+					return parseSlow(chars, offset, length);
+				}
+				exponent = exponent * 10 + (c - '0');
+			}
+			scale += negative ? -exponent : exponent;
+		}
+		if (significand == 0) {
+			return 0d;
+		} else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+			return significand * POWERS_OF_TEN[scale];
+		} else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+			return significand / POWERS_OF_TEN[-scale];
+		}
+		return parseSlow(chars, offset, length);
+	}
+
+	private static double parseSlow(char[] chars, int offset, int length) throws NumberFormatException {
+		final String literal = new String(chars, offset, length);
+		int pos = literal.indexOf('e');
+		if (pos == -1) {
+			pos = literal.indexOf('E');
+		}
+		if (pos > 0 && literal.indexOf('.', pos) != -1) {
+			// a fractional exponent as in 4e-0.5
+			final double mantissa = Double.parseDouble(literal.substring(0, pos));
+			final double exponent = Double.parseDouble(literal.substring(pos + 1));
+			return mantissa * Math.pow(10, exponent);
+		}
+		return Double.parseDouble(literal);
+	}
+}
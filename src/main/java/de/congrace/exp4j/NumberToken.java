@@ -16,7 +16,8 @@
  */
 package de.congrace.exp4j;
 
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -25,9 +26,18 @@ import java.util.Stack;
  * @author fas@congrace.de
  * 
  */
-class NumberToken extends CalculationToken {
+class NumberToken extends CalculationToken implements InfixToken {
 
-	private final double doubleValue;
+	final double doubleValue;
+
+	private final char[] chars;
+
+	private final int offset;
+
+	private final int length;
+
+	// the string representation is only created when it is asked for
+	private String value;
 
 	/**
 	 * construct a new {@link NumberToken}
@@ -36,17 +46,49 @@ class NumberToken extends CalculationToken {
 	 *            the value of the number as a {@link String}
 	 */
 	NumberToken(String value) {
-		super(value);
-		if (value.indexOf('E') > 0 || value.indexOf('e') > 0){
-			//scientific notation as requested in EXP-17
-			value = value.toLowerCase();
-			int pos = value.indexOf('e');
-			double mantissa = Double.parseDouble(value.substring(0,pos));
-			double exponent = Double.parseDouble(value.substring(pos + 1));
-			this.doubleValue = mantissa * Math.pow(10, exponent);
-		}else{
-			this.doubleValue = Double.parseDouble(value);
+		this(value.toCharArray(), 0, value.length());
+		this.value = value;
+	}
+
+	/**
+	 * construct a new {@link NumberToken} for a literal in an expression without copying it
+	 * 
+	 * @param chars
+	 *            the characters of the expression
+	 * @param offset
+	 *            the position of the literal
+	 * @param length
+	 *            the length of the literal
+	 */
+	NumberToken(char[] chars, int offset, int length) {
+		super(null);
+		//scientific notation as requested in EXP-17 is handled by the parser
+		this.doubleValue = NumberParser.parse(chars, offset, length);
+		this.chars = chars;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * construct a new {@link NumberToken} for a calculated value
+	 * 
+	 * @param value
+	 *            the value of the number
+	 */
+	NumberToken(double value) {
+		super(null);
+		this.doubleValue = value;
+		this.chars = null;
+		this.offset = 0;
+		this.length = 0;
+	}
+
+	@Override
+	String getValue() {
+		if (value == null) {
+			value = chars == null ? String.valueOf(doubleValue) : new String(chars, offset, length);
 		}
+		return value;
 	}
 
 	@Override
@@ -64,12 +106,23 @@ class NumberToken extends CalculationToken {
 	}
 
 	@Override
-	void mutateStackForCalculation(Stack<Double> stack, Map<String, Double> variableValues) {
-		stack.push(this.doubleValue);
+	int mutateStackForCalculation(double[] stack, int top, double[] variableValues) {
+		stack[top] = this.doubleValue;
+		return top + 1;
 	}
 
 	@Override
-	void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output) {
-		output.append(this.getValue()).append(' ');
+	int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length) {
+		Arrays.fill(stack[top], 0, length, this.doubleValue);
+		return top + 1;
+	}
+
+	@Override
+	int getOperandCount() {
+		return 0;
+	}
+
+	public void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output) {
+		output.add(this);
 	}
 }
\ No newline at end of file
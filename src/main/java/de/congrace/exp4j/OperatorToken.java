@@ -16,7 +16,7 @@
  */
 package de.congrace.exp4j;
 
-import java.util.Map;
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -24,9 +24,12 @@ import java.util.Stack;
  * 
  * @author fas@congrace.de
  */
-class OperatorToken extends CalculationToken {
+class OperatorToken extends CalculationToken implements InfixToken {
 
-	CustomOperator operation;
+	final CustomOperator operation;
+
+	// the opcode of a builtin operation, which is evaluated without calling the operator, or 0
+	private final int opcode;
 
 	/**
 	 * construct a new {@link OperatorToken}
@@ -39,6 +42,7 @@ class OperatorToken extends CalculationToken {
 	OperatorToken(String value, CustomOperator operation) {
 		super(value);
 		this.operation = operation;
+		this.opcode = operation instanceof BuiltinOperator ? ((BuiltinOperator) operation).opcode : 0;
 	}
 
 	/**
@@ -67,28 +71,78 @@ class OperatorToken extends CalculationToken {
 	}
 
 	@Override
-	void mutateStackForCalculation(Stack<Double> stack, Map<String, Double> variableValues) {
-		final double[] operands = new double[operation.operandCount];
-		for (int i = 0; i < operation.operandCount; i++) {
-			operands[operation.operandCount - i - 1] = stack.pop();
+	int mutateStackForCalculation(double[] stack, int top, double[] variableValues) {
+		switch (opcode) {
+		case BuiltinOperator.ADD:
+			stack[top - 2] += stack[top - 1];
+			return top - 1;
+		case BuiltinOperator.SUBTRACT:
+			stack[top - 2] -= stack[top - 1];
+			return top - 1;
+		case BuiltinOperator.MULTIPLY:
+			stack[top - 2] *= stack[top - 1];
+			return top - 1;
+		case BuiltinOperator.NEGATE:
+			stack[top - 1] = -stack[top - 1];
+			return top;
+		case BuiltinOperator.DIVIDE:
+		case BuiltinOperator.MODULO:
+		case BuiltinOperator.POWER:
+			stack[top - 2] = BuiltinOperator.applyBinary(opcode, stack[top - 2], stack[top - 1]);
+			return top - 1;
+		case BuiltinOperator.SQUARE:
+		case BuiltinOperator.SQUARE_ROOT:
+			stack[top - 1] = BuiltinOperator.applyUnary(opcode, stack[top - 1]);
+			return top;
+		default:
+			if (operation.operandCount == 1) {
+				stack[top - 1] = operation.applyUnary(stack[top - 1]);
+				return top;
+			}
+			stack[top - 2] = operation.applyBinary(stack[top - 2], stack[top - 1]);
+			return top - 1;
+		}
+	}
+
+	@Override
+	int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length) {
+		final int base = top - operation.operandCount;
+		if (opcode != 0) {
+			((BuiltinOperator) operation).applyOperation(stack[base], operation.operandCount == 2 ? stack[base + 1]
+					: null, length);
+		} else if (operation.operandCount == 1) {
+			final double[] operands = stack[base];
+			for (int row = 0; row < length; row++) {
+				operands[row] = operation.applyUnary(operands[row]);
+			}
+		} else {
+			final double[] left = stack[base];
+			final double[] right = stack[base + 1];
+			for (int row = 0; row < length; row++) {
+				left[row] = operation.applyBinary(left[row], right[row]);
+			}
 		}
-		stack.push(operation.applyOperation(operands));
+		return base + 1;
 	}
 
 	@Override
-	void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output) {
+	int getOperandCount() {
+		return operation.operandCount;
+	}
+
+	public void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output) {
 		Token before;
 		while (!operatorStack.isEmpty() && (before = operatorStack.peek()) != null
 				&& (before instanceof OperatorToken || before instanceof FunctionToken)) {
 			if (before instanceof FunctionToken) {
 				operatorStack.pop();
-				output.append(before.getValue()).append(" ");
+				output.add(before);
 			} else {
 				final OperatorToken stackOperator = (OperatorToken) before;
 				if (this.isLeftAssociative() && this.getPrecedence() <= stackOperator.getPrecedence()) {
-					output.append(operatorStack.pop().getValue()).append(" ");
+					output.add(operatorStack.pop());
 				} else if (!this.isLeftAssociative() && this.getPrecedence() < stackOperator.getPrecedence()) {
-					output.append(operatorStack.pop().getValue()).append(" ");
+					output.add(operatorStack.pop());
 				} else {
 					break;
 				}
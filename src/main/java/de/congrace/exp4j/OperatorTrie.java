@@ -0,0 +1,138 @@
+package de.congrace.exp4j;
+
+import java.util.Map;
+
+/**
+ * A prefix tree of operator symbols used to recognize operators while tokenizing. A character class table answers
+ * whether a character is part of any operator symbol with a single array lookup, and the tree finds the longest
+ * operator symbol at a position in O(symbol length) without creating any objects. The unary minus is not part of the
+ * tree, since it is written like the binary minus it is recognized by the {@link Tokenizer} from the context. It is
+ * looked up by the key {@link #UNARY_MINUS}, so every printable symbol remains available for custom operators
+ * 
+ * @author frank asseg
+ * 
+ */
+final class OperatorTrie {
+	private final boolean[] asciiOperatorCharacters = new boolean[128];
+
+	private final String otherOperatorCharacters;
+
+	/**
+	 * the key of the unary minus in the operator map. It starts with a character no operator symbol may contain, so
+	 * it never clashes with a custom operator. In postfix expressions the unary minus is shown as '
+	 */
+	static final String UNARY_MINUS = "\u0000-";
+
+	private final Node root = new Node();
+
+	private final CustomOperator unaryMinus;
+
+	/**
+	 * construct a new {@link OperatorTrie}
+	 * 
+	 * @param operators
+	 *            the operators to recognize by their symbol
+	 */
+	OperatorTrie(Map<String, CustomOperator> operators) {
+		super();
+		final StringBuilder others = new StringBuilder();
+		for (final Map.Entry<String, CustomOperator> entry : operators.entrySet()) {
+			final String symbol = entry.getKey();
+			if (symbol.equals(UNARY_MINUS)) {
+				continue;
+			}
+			Node node = root;
+			for (int i = 0; i < symbol.length(); i++) {
+				final char c = symbol.charAt(i);
+				if (c < asciiOperatorCharacters.length) {
+					asciiOperatorCharacters[c] = true;
+				} else if (others.indexOf(String.valueOf(c)) == -1) {
+					others.append(c);
+				}
+				node = node.childOrCreate(c);
+			}
+			node.operator = entry.getValue();
+		}
+		this.otherOperatorCharacters = others.toString();
+		this.unaryMinus = operators.get(UNARY_MINUS);
+	}
+
+	/**
+	 * get the unary minus operator
+	 * 
+	 * @return the operator registered under the key {@link #UNARY_MINUS} or null if there is none
+	 */
+	CustomOperator unaryMinus() {
+		return unaryMinus;
+	}
+
+	/**
+	 * check if a character is part of any operator symbol
+	 * 
+	 * @param c
+	 *            the character to check
+	 * @return true if an operator symbol contains the character
+	 */
+	boolean isOperatorCharacter(char c) {
+		if (c < asciiOperatorCharacters.length) {
+			return asciiOperatorCharacters[c];
+		}
+		return otherOperatorCharacters.indexOf(c) != -1;
+	}
+
+	/**
+	 * find the operator with the longest symbol starting at a position
+	 * 
+	 * @param chars
+	 *            the characters to match
+	 * @param offset
+	 *            the position of the first character of the symbol
+	 * @param end
+	 *            the position after the last character which may be part of the symbol
+	 * @return the operator with the longest matching symbol or null if no symbol matches. The length of the match is
+	 *         the length of the operator's symbol
+	 */
+	CustomOperator match(char[] chars, int offset, int end) {
+		CustomOperator longest = null;
+		Node node = root;
+		for (int i = offset; i < end && (node = node.child(chars[i])) != null; i++) {
+			if (node.operator != null) {
+				longest = node.operator;
+			}
+		}
+		return longest;
+	}
+
+	private static final class Node {
+		private char[] keys = new char[0];
+
+		private Node[] children = new Node[0];
+
+		private CustomOperator operator;
+
+		Node child(char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node childOrCreate(char c) {
+			Node child = child(c);
+			if (child == null) {
+				final int n = keys.length;
+				final char[] newKeys = new char[n + 1];
+				final Node[] newChildren = new Node[n + 1];
+				System.arraycopy(keys, 0, newKeys, 0, n);
+				System.arraycopy(children, 0, newChildren, 0, n);
+				newKeys[n] = c;
+				newChildren[n] = child = new Node();
+				keys = newKeys;
+				children = newChildren;
+			}
+			return child;
+		}
+	}
+}
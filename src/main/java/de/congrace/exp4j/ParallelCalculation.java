@@ -0,0 +1,78 @@
+package de.congrace.exp4j;
+
+import java.util.Queue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork/join task calculating a range of rows of a batch calculation. The range is split in halves until it fits
+ * into a single chunk of {@link #CHUNK_SIZE} rows. The evaluation scratch space is taken from a queue shared by all
+ * tasks of a calculation and handed back after a chunk is done, so every worker thread reuses its scratch space
+ * instead of allocating a new one per chunk
+ * 
+ * @author frank asseg
+ * 
+ */
+class ParallelCalculation extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * the number of rows calculated by a single task. The columns of a chunk fit into the L2 cache of a core
+	 */
+	static final int CHUNK_SIZE = 4096;
+
+	private final AbstractCalculable calculable;
+
+	private final double[][] columns;
+
+	private final double[] out;
+
+	private final int from;
+
+	private final int to;
+
+	private final Queue<double[][]> scratches;
+
+	/**
+	 * construct a new {@link ParallelCalculation}
+	 * 
+	 * @param calculable
+	 *            the expression to calculate
+	 * @param columns
+	 *            the variable values, one column per slot
+	 * @param out
+	 *            the array receiving the results
+	 * @param from
+	 *            the first row, inclusive
+	 * @param to
+	 *            the last row, exclusive
+	 * @param scratches
+	 *            the scratch spaces not in use by a worker at the moment
+	 */
+	ParallelCalculation(AbstractCalculable calculable, double[][] columns, double[] out, int from, int to,
+			Queue<double[][]> scratches) {
+		super();
+		this.calculable = calculable;
+		this.columns = columns;
+		this.out = out;
+		this.from = from;
+		this.to = to;
+		this.scratches = scratches;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from > CHUNK_SIZE) {
+			// split on a chunk boundary so the chunks stay aligned to the evaluation blocks
+			final int middle = from + (((to - from) / CHUNK_SIZE + 1) / 2) * CHUNK_SIZE;
+			invokeAll(new ParallelCalculation(calculable, columns, out, from, middle, scratches),
+					new ParallelCalculation(calculable, columns, out, middle, to, scratches));
+			return;
+		}
+		double[][] scratch = scratches.poll();
+		if (scratch == null) {
+			scratch = calculable.newBatchScratch();
+		}
+		calculable.evaluate(columns, out, from, to, scratch);
+		scratches.offer(scratch);
+	}
+}
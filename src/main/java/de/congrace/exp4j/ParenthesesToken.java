@@ -16,6 +16,7 @@
  */
 package de.congrace.exp4j;
 
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -23,7 +24,7 @@ import java.util.Stack;
  * 
  * @author fas@congrace.de
  */
-class ParenthesesToken extends Token {
+class ParenthesesToken extends Token implements InfixToken {
 
 	ParenthesesToken(String value) {
 		super(value);
@@ -52,15 +53,14 @@ class ParenthesesToken extends Token {
 		return getValue().equals("(") || getValue().equals("[") || getValue().equals("{");
 	}
 
-	@Override
-	void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output) {
+	public void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output) {
 		if (this.isOpen()) {
 			operatorStack.push(this);
 		} else {
 			Token next;
 			while ((next = operatorStack.peek()) instanceof OperatorToken || next instanceof FunctionToken
 					|| (next instanceof ParenthesesToken && !((ParenthesesToken) next).isOpen())) {
-				output.append(operatorStack.pop().getValue()).append(" ");
+				output.add(operatorStack.pop());
 			}
 			operatorStack.pop();
 		}
@@ -1,80 +1,225 @@
 package de.congrace.exp4j;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 abstract class RPNConverter {
+	// the indices of the build phases in the timings reported to an ExpressionListener
+	static final int TOKENIZE = 0;
 
-	private static String substituteUnaryOperators(String expr, Map<String, CustomOperator> operators) {
-		StringBuilder resultBuilder = new StringBuilder();
-		int whitespaceCount = 0;
-		for (int i = 0; i < expr.length(); i++) {
-			boolean afterOperator = false;
-			boolean afterParantheses = false;
-			boolean expressionStart = false;
-			final char c = expr.charAt(i);
-			if (Character.isWhitespace(c)) {
-				whitespaceCount++;
-				resultBuilder.append(c);
-				continue;
+	static final int CONVERT = 1;
+
+	static final int VALIDATE = 2;
+
+	static final int COMPILE = 3;
+
+	static final int PHASE_COUNT = 4;
+
+
+	static RPNExpression toRPNExpression(CharSequence infix, Map<String, Double> variables,
+			Map<String, CustomFunction> customFunctions, Map<String, CustomOperator> operators)
+			throws UnknownFunctionException, UnparsableExpressionException {
+		return toRPNExpression(infix, variables, customFunctions, operators, true);
+	}
+
+	static RPNExpression toRPNExpression(CharSequence infix, Map<String, Double> variables,
+			Map<String, CustomFunction> customFunctions, Map<String, CustomOperator> operators, boolean simplify)
+			throws UnknownFunctionException, UnparsableExpressionException {
+		return toRPNExpression(infix, variables, customFunctions, new OperatorTrie(operators), simplify);
+	}
+
+	static RPNExpression toRPNExpression(CharSequence infix, Map<String, Double> variables,
+			Map<String, CustomFunction> customFunctions, OperatorTrie operators, boolean simplify)
+			throws UnknownFunctionException, UnparsableExpressionException {
+		return toRPNExpression(infix, variables, customFunctions, operators, simplify, null, null);
+	}
+
+	/**
+	 * convert an infix expression to an {@link RPNExpression}
+	 * 
+	 * @param infix
+	 *            the expression in infix notation
+	 * @param variables
+	 *            the variables in declaration order
+	 * @param customFunctions
+	 *            the functions which can be used in the expression
+	 * @param operators
+	 *            the operators which can be used in the expression
+	 * @param simplify
+	 *            true to simplify the expression algebraically
+	 * @param timings
+	 *            an array of {@link #PHASE_COUNT} elements to which the nanoseconds spent in every phase are added or
+	 *            null if the conversion is not timed
+	 * @param listener
+	 *            the {@link ExpressionListener} notified of the calculations of the expression or null
+	 * @return the {@link RPNExpression}
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 */
+	static RPNExpression toRPNExpression(CharSequence infix, Map<String, Double> variables,
+			Map<String, CustomFunction> customFunctions, OperatorTrie operators, boolean simplify, long[] timings,
+			ExpressionListener listener) throws UnknownFunctionException, UnparsableExpressionException {
+		long time = timings == null ? 0 : System.nanoTime();
+		final Tokenizer tokenizer = new Tokenizer(variables.keySet(), customFunctions, operators);
+		final Stack<Token> operatorStack = new Stack<Token>();
+		List<Token> tokens = tokenizer.getTokens(infix);
+		time = lap(timings, TOKENIZE, time);
+		validateRPNExpression(tokens);
+		time = lap(timings, VALIDATE, time);
+		// the shunting yard algorithm moves the tokens into the postfix program directly
+		final List<Token> postfix = new ArrayList<Token>(tokens.size());
+		for (final Token token : tokens) {
+			// the tokenizer only creates tokens taking part in the translation
+			((InfixToken) token).mutateStackForInfixTranslation(operatorStack, postfix);
+		}
+		// all tokens read, put the rest of the operations on the output;
+		while (operatorStack.size() > 0) {
+			final Token token = operatorStack.pop();
+			if (!(token instanceof CalculationToken)) {
+				throw new UnparsableExpressionException("Mismatched parentheses in expression '" + infix + "'");
 			}
-			if (resultBuilder.length() == whitespaceCount){
-				expressionStart = true;
+			postfix.add(token);
+		}
+		tokens = foldConstants(postfix);
+		if (simplify) {
+			// a simplification like x^0 to 1 can make more subexpressions constant
+			tokens = foldConstants(RPNSimplifier.simplify(tokens));
+		}
+		time = lap(timings, CONVERT, time);
+		// validate the expression before building the graph of subexpressions
+		computeStackDepth(tokens);
+		time = lap(timings, VALIDATE, time);
+		tokens = RPNSubexpressionEliminator.eliminate(tokens);
+		final RPNExpression rpn = new RPNExpression(tokens, postfix, variables, computeStackDepth(tokens), listener,
+				listener == null ? null : infix.toString());
+		lap(timings, CONVERT, time);
+		return rpn;
+	}
+
+	/**
+	 * add the time elapsed since the start of a phase to its timing
+	 * 
+	 * @param timings
+	 *            the timings of the phases or null if the conversion is not timed
+	 * @param phase
+	 *            the index of the phase which ended
+	 * @param start
+	 *            the value of {@link System#nanoTime()} at the start of the phase
+	 * @return the start of the next phase
+	 */
+	private static long lap(long[] timings, int phase, long start) {
+		if (timings == null) {
+			return 0;
+		}
+		final long now = System.nanoTime();
+		timings[phase] += now - start;
+		return now;
+	}
+
+	/**
+	 * create the string representation of a postfix token list
+	 * 
+	 * @param postfix
+	 *            the tokens in reverse polish notation
+	 * @return the values of the tokens separated by a space
+	 */
+	static String toPostfixString(List<Token> postfix) {
+		final StringBuilder output = new StringBuilder(postfix.size() * 4);
+		for (final Token token : postfix) {
+			if (output.length() > 0) {
+				output.append(' ');
 			}
-			// check if last char in the result is an operator
-			if (resultBuilder.length() > whitespaceCount){
-				if (isOperatorCharacter(resultBuilder.charAt(resultBuilder.length() - 1 - whitespaceCount), operators)){
-					afterOperator = true;
-				}else if (resultBuilder.charAt(resultBuilder.length() - 1 - whitespaceCount) == '('){
-					afterParantheses = true;
+			output.append(token.getValue());
+		}
+		return output.toString();
+	}
+
+	/**
+	 * replace every builtin operator and function whose operands are all numbers by a {@link NumberToken} holding the
+	 * result, so that constant subexpressions are calculated once at build time. Operations throwing an
+	 * {@link ArithmeticException} are left in place so the exception is thrown when calculating the expression
+	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @return the folded tokens in reverse polish notation
+	 */
+	static List<Token> foldConstants(List<Token> tokens) {
+		final List<Token> folded = new ArrayList<Token>(tokens.size());
+		for (final Token token : tokens) {
+			if (isBuiltin(token)) {
+				final CalculationToken calculation = (CalculationToken) token;
+				final int operandCount = calculation.getOperandCount();
+				if (operandCount > 0 && endsWithNumbers(folded, operandCount)) {
+					final double[] stack = new double[operandCount];
+					final int base = folded.size() - operandCount;
+					for (int i = 0; i < operandCount; i++) {
+						stack[i] = ((NumberToken) folded.get(base + i)).doubleValue;
+					}
+					try {
+						calculation.mutateStackForCalculation(stack, operandCount, null);
+					} catch (ArithmeticException e) {
+						folded.add(token);
+						continue;
+					}
+					folded.subList(base, folded.size()).clear();
+					folded.add(new NumberToken(stack[0]));
+					continue;
 				}
 			}
-			switch (c) {
-			case '+':
-				if (resultBuilder.length() > 0 && !afterOperator && !afterParantheses && !expressionStart) {
-					// not an unary plus so append the char
-					resultBuilder.append(c);
-				}
-				break;
-			case '-':
-				if (resultBuilder.length() > 0 && !afterOperator && !afterParantheses && !expressionStart) {
-					// not unary 
-					resultBuilder.append(c);
-				}else{
-					//unary so we substitute it
-					resultBuilder.append('\'');
-				}
-				break;
-			default:
-				resultBuilder.append(c);
+			folded.add(token);
+		}
+		return folded;
+	}
+
+	private static boolean isBuiltin(Token token) {
+		return (token instanceof OperatorToken && ((OperatorToken) token).operation instanceof BuiltinOperator)
+				|| (token instanceof FunctionToken && ((FunctionToken) token).function instanceof BuiltinFunction);
+	}
+
+	private static boolean endsWithNumbers(List<Token> tokens, int count) {
+		if (tokens.size() < count) {
+			return false;
+		}
+		for (int i = tokens.size() - count; i < tokens.size(); i++) {
+			if (!(tokens.get(i) instanceof NumberToken)) {
+				return false;
 			}
-			whitespaceCount = 0;
 		}
-		return resultBuilder.toString();
+		return true;
 	}
 
-	static RPNExpression toRPNExpression(String infix, Map<String, Double> variables,
-			Map<String, CustomFunction> customFunctions, Map<String, CustomOperator> operators)
-			throws UnknownFunctionException, UnparsableExpressionException {
-		final Tokenizer tokenizer = new Tokenizer(variables.keySet(), customFunctions, operators);
-		final StringBuilder output = new StringBuilder(infix.length());
-		final Stack<Token> operatorStack = new Stack<Token>();
-		List<Token> tokens = tokenizer.getTokens(substituteUnaryOperators(infix, operators));
-		validateRPNExpression(tokens, operators);
+	/**
+	 * simulate the evaluation of a postfix token list in order to find the maximum number of operands on the stack
+	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @return the stack size needed to evaluate the expression
+	 * @throws UnparsableExpressionException
+	 *             if an operator or function does not find enough operands on the stack
+	 */
+	static int computeStackDepth(List<Token> tokens) throws UnparsableExpressionException {
+		int depth = 0;
+		int maxDepth = 0;
 		for (final Token token : tokens) {
-			token.mutateStackForInfixTranslation(operatorStack, output);
+			depth -= ((CalculationToken) token).getOperandCount();
+			if (depth < 0) {
+				throw new UnparsableExpressionException("Not enough operands for '" + token.getValue() + "'");
+			}
+			if (++depth > maxDepth) {
+				maxDepth = depth;
+			}
 		}
-		// all tokens read, put the rest of the operations on the output;
-		while (operatorStack.size() > 0) {
-			output.append(operatorStack.pop().getValue()).append(" ");
+		if (depth == 0) {
+			throw new UnparsableExpressionException("Expression does not contain a value to calculate");
 		}
-		String postfix = output.toString().trim();
-		tokens = tokenizer.getTokens(postfix);
-		return new RPNExpression(tokens, postfix, variables);
+		return maxDepth;
 	}
 
-	private static void validateRPNExpression(List<Token> tokens, Map<String, CustomOperator> operators)
+	private static void validateRPNExpression(List<Token> tokens)
 			throws UnparsableExpressionException {
 		for (int i = 1; i < tokens.size(); i++) {
 			Token t = tokens.get(i);
@@ -88,13 +233,4 @@ abstract class RPNConverter {
 		}
 	}
 
-	private static boolean isOperatorCharacter(char c, Map<String, CustomOperator> operators) {
-		for (String symbol : operators.keySet()) {
-			if (symbol.indexOf(c) != -1) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 }
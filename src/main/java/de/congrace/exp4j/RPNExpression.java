@@ -1,77 +1,110 @@
 package de.congrace.exp4j;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
-class RPNExpression implements Calculable {
+/**
+ * {@link Calculable} implementation evaluating a list of {@link CalculationToken}s in reverse polish notation. The
+ * operand stack is a primitive array of the size computed at build time, which is allocated by every calculation so
+ * that an instance can be shared by threads calculating it with variable values passed in. An {@link Expression}
+ * evaluates on the stack of an {@link EvaluationContext} instead and does not allocate at all. The bottom of the stack
+ * array holds the temporary slots of common subexpressions, the operands are pushed on top of them. Batch
+ * calculations evaluate the tokens column-at-a-time over blocks of {@link #BLOCK_SIZE} rows.
+ */
+class RPNExpression extends AbstractCalculable {
+	/**
+	 * the number of rows evaluated at once by a batch calculation. A block of operands fits into the L1 cache
+	 */
+	static final int BLOCK_SIZE = 256;
+
 	final List<Token> tokens;
 
-	final String expression;
+	final int stackDepth;
 
-	final Map<String, Double> variables;
+	final int temporaryCount;
 
-	public RPNExpression(List<Token> tokens, String expression, final Map<String, Double> variables) {
-		super();
+	final CalculationToken[] calculationTokens;
+
+	/**
+	 * construct a new {@link RPNExpression}
+	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @param postfix
+	 *            the tokens of the expression in reverse polish notation as written by the user
+	 * @param variables
+	 *            the variables in declaration order. The position of a variable in this map is the slot its
+	 *            {@link VariableToken}s read from
+	 * @param stackDepth
+	 *            the size of the operand stack needed to evaluate the tokens
+	 * @param listener
+	 *            the {@link ExpressionListener} notified of the calculations of this expression or null
+	 * @param source
+	 *            the expression reported to the listener
+	 */
+	public RPNExpression(List<Token> tokens, List<Token> postfix, final Map<String, Double> variables,
+			int stackDepth, ExpressionListener listener, String source) {
+		super(postfix, variables, listener, source);
 		this.tokens = tokens;
-		this.expression = expression;
-		this.variables = variables;
+		this.stackDepth = stackDepth;
+		this.temporaryCount = countTemporaries(tokens);
+		this.calculationTokens = tokens.toArray(new CalculationToken[tokens.size()]);
 	}
 
-    public Calculable copy(){
-        Map<String, Double> calculationVariables = new HashMap<String, Double>();
-        for (Map.Entry<String, Double> entry : variables.entrySet()) {
-            calculationVariables.put(entry.getKey(), entry.getValue());
-        }
-        return new RPNExpression(tokens, expression, calculationVariables);
-    }
+	private static int countTemporaries(List<Token> tokens) {
+		int count = 0;
+		for (final Token token : tokens) {
+			if (token instanceof StoreToken) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public Calculable copy() {
+		return new RPNExpression(tokens, postfix, variables, stackDepth, listener, source);
+	}
+
+	@Override
+	double evaluate(double[] values) {
+		return evaluate(calculationTokens, temporaryCount, new double[temporaryCount + stackDepth], values);
+	}
 
 	/**
-	 * calculate the result of the expression and substitute the variables by their values beforehand
+	 * evaluate tokens on an operand stack
 	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @param temporaryCount
+	 *            the number of temporary slots at the bottom of the stack
+	 * @param stack
+	 *            the operand stack
 	 * @param values
-	 *            the variable values to be substituted
+	 *            the variable values indexed by slot
 	 * @return the result of the calculation
-	 * @throws IllegalArgumentException
-	 *             if the variables are invalid
 	 */
-	public double calculate(double... values) throws IllegalArgumentException {
-		if (variables.size() == 0 && values != null) {
-			throw new IllegalArgumentException("there are no variables to set values");
-		} else if (values != null && values.length != variables.size()) {
-			throw new IllegalArgumentException("The are an unequal number of variables and arguments");
-		}
-		int i = 0;
-
-        Map<String, Double> calculationVariables = new HashMap<String, Double>();
-		if (variables.size() > 0) {
-            if (values != null){
-                for (Map.Entry<String, Double> entry : variables.entrySet()) {
-                    calculationVariables.put(entry.getKey(), values[i++]);
-                }
-            }else{
-                for (Map.Entry<String, Double> entry : variables.entrySet()) {
-                    calculationVariables.put(entry.getKey(), entry.getValue());
-                }
-            }
+	static double evaluate(CalculationToken[] tokens, int temporaryCount, double[] stack, double[] values) {
+		int top = temporaryCount;
+		for (final CalculationToken t : tokens) {
+			top = t.mutateStackForCalculation(stack, top, values);
 		}
-		final Stack<Double> stack = new Stack<Double>();
-		for (final Token t : tokens) {
-			((CalculationToken) t).mutateStackForCalculation(stack, calculationVariables);
-		}
-		return stack.pop();
-	}
-
-	public String getExpression() {
-		return expression;
+		return stack[top - 1];
 	}
 
-	public void setVariable(String name, double value) {
-		this.variables.put(name, value);
+	@Override
+	double[][] newBatchScratch() {
+		return new double[temporaryCount + stackDepth][BLOCK_SIZE];
 	}
 
-	public double calculate() {
-		return calculate(null);
+	@Override
+	void evaluate(double[][] columns, double[] out, int from, int to, double[][] blockStack) {
+		for (int offset = from; offset < to; offset += BLOCK_SIZE) {
+			final int length = Math.min(BLOCK_SIZE, to - offset);
+			int top = temporaryCount;
+			for (final CalculationToken t : calculationTokens) {
+				top = t.mutateStackForBatchCalculation(blockStack, top, columns, offset, length);
+			}
+			System.arraycopy(blockStack[top - 1], 0, out, offset, length);
+		}
 	}
 }
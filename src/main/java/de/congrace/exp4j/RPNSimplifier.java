@@ -0,0 +1,206 @@
+package de.congrace.exp4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Algebraic simplification of expressions in reverse polish notation. Operations involving the builtin operators are
+ * rewritten into cheaper forms, but only where the result is the same as the original operation for every operand:
+ * <ul>
+ * <li><code>x*1</code>, <code>1*x</code>, <code>x/1</code>, <code>x-0</code>, <code>x+(-0)</code> and
+ * <code>x^1</code> become <code>x</code></li>
+ * <li><code>--x</code> becomes <code>x</code></li>
+ * <li><code>x^2</code> becomes <code>x*x</code></li>
+ * <li><code>x^0.5</code> becomes a square root</li>
+ * <li><code>x^0</code> becomes <code>1</code> if calculating <code>x</code> can not throw an exception</li>
+ * </ul>
+ * Rewrites like <code>x+0</code> to <code>x</code> (wrong for <code>x=-0</code>) or <code>x^3</code> to
+ * <code>x*x*x</code> (rounded twice) would change results and are not applied. The rewrites of the power operator
+ * replace {@link Math#pow(double, double)}, which is only specified to be within 1 ulp of the exact result, by the
+ * correctly rounded <code>x*x</code> and {@link Math#sqrt(double)}. They are within 1 ulp of <code>Math.pow</code>
+ * and identical to the results of the HotSpot implementation of <code>Math.pow</code>, but another implementation may
+ * differ in the last bit. The simplification is disabled by {@link ExpressionBuilder#withSimplification(boolean)}.
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class RPNSimplifier {
+
+	/**
+	 * the square of the operand, replacing <code>x^2</code>
+	 */
+	static final CustomOperator SQUARE = new BuiltinOperator("^2", false, 5, 1, BuiltinOperator.SQUARE);
+
+	/**
+	 * the square root of the operand, replacing <code>x^0.5</code>. {@link Math#pow(double, double)} differs from
+	 * {@link Math#sqrt(double)} for negative zero and negative infinity, which is taken care of here
+	 */
+	static final CustomOperator SQUARE_ROOT = new BuiltinOperator("^0.5", false, 5, 1, BuiltinOperator.SQUARE_ROOT);
+
+	private static final long ONE = Double.doubleToRawLongBits(1d);
+
+	private static final long TWO = Double.doubleToRawLongBits(2d);
+
+	private static final long HALF = Double.doubleToRawLongBits(0.5d);
+
+	private static final long ZERO = Double.doubleToRawLongBits(0d);
+
+	private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0d);
+
+	/**
+	 * calculate <code>x^0.5</code> using a square root
+	 * 
+	 * @param x
+	 *            the operand
+	 * @return the correctly rounded square root, within 1 ulp of {@link Math#pow(double, double)} with an exponent of
+	 *         0.5
+	 */
+	static double squareRoot(double x) {
+		if (x == Double.NEGATIVE_INFINITY) {
+			return Double.POSITIVE_INFINITY;
+		}
+		// adding zero turns negative zero into positive zero
+		return Math.sqrt(x + 0d);
+	}
+
+	/**
+	 * simplify the given tokens
+	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @return the simplified tokens in reverse polish notation
+	 */
+	static List<Token> simplify(List<Token> tokens) {
+		final List<Token> simplified = new ArrayList<Token>(tokens.size());
+		for (final Token token : tokens) {
+			if (!(token instanceof OperatorToken) || !(((OperatorToken) token).operation instanceof BuiltinOperator)
+					|| !simplifyOperator(simplified, token.getValue())) {
+				simplified.add(token);
+			}
+		}
+		return simplified;
+	}
+
+	/*
+	 * try to simplify the operator with the given symbol whose operands are at the end of the token list. returns
+	 * false if the operator has to be appended to the token list unchanged
+	 */
+	private static boolean simplifyOperator(List<Token> tokens, String symbol) {
+		final int last = tokens.size() - 1;
+		if (last < 0) {
+			return false;
+		}
+		if (symbol.equals("'")) {
+			if (isOperator(tokens.get(last), "'")) {
+				// --x
+				tokens.remove(last);
+				return true;
+			}
+			return false;
+		}
+		final int rightStart = subtreeStart(tokens, last);
+		if (rightStart < 1) {
+			return false;
+		}
+		final Token right = tokens.get(last);
+		final Token left = tokens.get(rightStart - 1);
+		if (symbol.equals("*")) {
+			if (isNumber(right, ONE)) {
+				tokens.remove(last);
+				return true;
+			}
+			if (isNumber(left, ONE)) {
+				tokens.remove(rightStart - 1);
+				return true;
+			}
+		} else if (symbol.equals("+")) {
+			if (isNumber(right, NEGATIVE_ZERO)) {
+				tokens.remove(last);
+				return true;
+			}
+			if (isNumber(left, NEGATIVE_ZERO)) {
+				tokens.remove(rightStart - 1);
+				return true;
+			}
+		} else if (symbol.equals("-")) {
+			if (isNumber(right, ZERO)) {
+				tokens.remove(last);
+				return true;
+			}
+		} else if (symbol.equals("/")) {
+			if (isNumber(right, ONE)) {
+				tokens.remove(last);
+				return true;
+			}
+		} else if (symbol.equals("^")) {
+			if (isNumber(right, ONE)) {
+				tokens.remove(last);
+				return true;
+			} else if (isNumber(right, TWO)) {
+				tokens.set(last, new OperatorToken(SQUARE.symbol, SQUARE));
+				return true;
+			} else if (isNumber(right, HALF)) {
+				tokens.set(last, new OperatorToken(SQUARE_ROOT.symbol, SQUARE_ROOT));
+				return true;
+			} else if (isNumber(right, ZERO) || isNumber(right, NEGATIVE_ZERO)) {
+				// x^0 is 1 even for NaN, but the calculation of x must not be skipped if it might throw
+				final int leftStart = subtreeStart(tokens, rightStart - 1);
+				if (isSafe(tokens.subList(leftStart, rightStart))) {
+					tokens.subList(leftStart, tokens.size()).clear();
+					tokens.add(new NumberToken(1d));
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * find the start of the subexpression ending at the given index
+	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @param end
+	 *            the index of the last token of the subexpression
+	 * @return the index of the first token of the subexpression or -1 if the tokens do not contain a complete
+	 *         subexpression
+	 */
+	static int subtreeStart(List<Token> tokens, int end) {
+		int needed = 1;
+		for (int i = end; i >= 0; i--) {
+			needed += ((CalculationToken) tokens.get(i)).getOperandCount() - 1;
+			if (needed == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * check that the tokens only consist of builtins which can not throw an exception
+	 */
+	private static boolean isSafe(List<Token> tokens) {
+		for (final Token token : tokens) {
+			if (token instanceof FunctionToken) {
+				if (!(((FunctionToken) token).function instanceof BuiltinFunction)) {
+					return false;
+				}
+			} else if (token instanceof OperatorToken) {
+				if (!(((OperatorToken) token).operation instanceof BuiltinOperator) || isOperator(token, "/")
+						|| isOperator(token, "%")) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isOperator(Token token, String symbol) {
+		return token instanceof OperatorToken && ((OperatorToken) token).operation instanceof BuiltinOperator
+				&& token.getValue().equals(symbol);
+	}
+
+	private static boolean isNumber(Token token, long bits) {
+		return token instanceof NumberToken && Double.doubleToRawLongBits(((NumberToken) token).doubleValue) == bits;
+	}
+}
@@ -0,0 +1,144 @@
+package de.congrace.exp4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Common subexpression elimination for expressions in reverse polish notation. The tokens are turned into a directed
+ * acyclic graph in which structurally identical pure subexpressions share a node. A subexpression used more than once
+ * is calculated at its first occurrence and saved in a temporary slot by a {@link StoreToken}, every other occurrence
+ * is replaced by a {@link LoadToken}. Numbers, variables, builtin operators and builtin functions are pure, custom
+ * functions only if {@link CustomFunction#isPure()} returns true and custom operators never.
+ * 
+ * @author frank asseg
+ * 
+ */
+abstract class RPNSubexpressionEliminator {
+
+	/**
+	 * eliminate common subexpressions
+	 * 
+	 * @param tokens
+	 *            the tokens in reverse polish notation
+	 * @return the tokens with repeated subexpressions replaced by temporary slots
+	 */
+	static List<Token> eliminate(List<Token> tokens) {
+		// first pass: build the graph and count the parents of every node
+		final Map<NodeKey, Integer> nodes = new HashMap<NodeKey, Integer>();
+		final List<Integer> parentCounts = new ArrayList<Integer>();
+		final int[] nodeAt = new int[tokens.size()];
+		final int[] stack = new int[tokens.size()];
+		int top = 0;
+		boolean shared = false;
+		for (int i = 0; i < tokens.size(); i++) {
+			final CalculationToken token = (CalculationToken) tokens.get(i);
+			final int operandCount = token.getOperandCount();
+			top -= operandCount;
+			final int[] children = Arrays.copyOfRange(stack, top, top + operandCount);
+			final NodeKey key = isPure(token) ? new NodeKey(token, children) : null;
+			Integer node = key == null ? null : nodes.get(key);
+			if (node == null) {
+				node = parentCounts.size();
+				parentCounts.add(0);
+				if (key != null) {
+					nodes.put(key, node);
+				}
+				for (final int child : children) {
+					parentCounts.set(child, parentCounts.get(child) + 1);
+				}
+			} else if (operandCount > 0) {
+				shared = true;
+			}
+			nodeAt[i] = node;
+			stack[top++] = node;
+		}
+		if (!shared) {
+			return tokens;
+		}
+
+		// second pass: store shared subexpressions on first use and load them afterwards
+		final List<Token> eliminated = new ArrayList<Token>(tokens.size());
+		final Map<Integer, Integer> temporaries = new HashMap<Integer, Integer>();
+		final int[] starts = new int[tokens.size()];
+		top = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			final CalculationToken token = (CalculationToken) tokens.get(i);
+			final int operandCount = token.getOperandCount();
+			top -= operandCount;
+			final int start = operandCount > 0 ? starts[top] : eliminated.size();
+			final Integer temporary = temporaries.get(nodeAt[i]);
+			if (temporary != null) {
+				// the subexpression has been calculated before
+				eliminated.subList(start, eliminated.size()).clear();
+				eliminated.add(new LoadToken(temporary));
+			} else {
+				eliminated.add(token);
+				if (operandCount > 0 && parentCounts.get(nodeAt[i]) > 1) {
+					final int index = temporaries.size();
+					temporaries.put(nodeAt[i], index);
+					eliminated.add(new StoreToken(index));
+				}
+			}
+			starts[top++] = start;
+		}
+		return eliminated;
+	}
+
+	private static boolean isPure(CalculationToken token) {
+		if (token instanceof FunctionToken) {
+			return ((FunctionToken) token).function.isPure();
+		} else if (token instanceof OperatorToken) {
+			return ((OperatorToken) token).operation instanceof BuiltinOperator;
+		}
+		return true;
+	}
+
+	/*
+	 * identifies a node of the graph by its operation and the nodes of its operands
+	 */
+	private static final class NodeKey {
+		private final Object operation;
+
+		private final long value;
+
+		private final int[] children;
+
+		NodeKey(CalculationToken token, int[] children) {
+			if (token instanceof NumberToken) {
+				this.operation = NumberToken.class;
+				this.value = Double.doubleToRawLongBits(((NumberToken) token).doubleValue);
+			} else if (token instanceof VariableToken) {
+				this.operation = VariableToken.class;
+				this.value = ((VariableToken) token).slot;
+			} else if (token instanceof FunctionToken) {
+				this.operation = ((FunctionToken) token).function;
+				this.value = 0L;
+			} else if (token instanceof OperatorToken) {
+				this.operation = ((OperatorToken) token).operation;
+				this.value = 0L;
+			} else {
+				this.operation = token;
+				this.value = 0L;
+			}
+			this.children = children;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof NodeKey) {
+				final NodeKey other = (NodeKey) obj;
+				return operation.equals(other.operation) && value == other.value
+						&& Arrays.equals(children, other.children);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return (operation.hashCode() * 31 + (int) (value ^ (value >>> 32))) * 31 + Arrays.hashCode(children);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package de.congrace.exp4j;
+
+/**
+ * A {@link Token} copying the value on top of the stack into a temporary slot, so that a common subexpression is
+ * calculated only once. The value stays on the stack. The temporary slots occupy the bottom of the operand stack.
+ * 
+ * @see LoadToken
+ * @see RPNSubexpressionEliminator
+ */
+class StoreToken extends CalculationToken {
+
+	final int index;
+
+	/**
+	 * construct a new {@link StoreToken}
+	 * 
+	 * @param index
+	 *            the index of the temporary slot
+	 */
+	StoreToken(int index) {
+		super("store[" + index + "]");
+		this.index = index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof StoreToken) {
+			return index == ((StoreToken) obj).index;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
+	}
+
+	@Override
+	int mutateStackForCalculation(double[] stack, int top, double[] variableValues) {
+		stack[index] = stack[top - 1];
+		return top;
+	}
+
+	@Override
+	int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length) {
+		System.arraycopy(stack[top - 1], 0, stack[index], 0, length);
+		return top;
+	}
+
+	@Override
+	int getOperandCount() {
+		return 1;
+	}
+}
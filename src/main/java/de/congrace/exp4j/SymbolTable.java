@@ -0,0 +1,118 @@
+package de.congrace.exp4j;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The identifiers known to the {@link Tokenizer}. Every variable and function name is resolved by a single lookup in
+ * an open addressing hash table which compares a range of characters against the stored names, so identifiers are
+ * resolved without creating a {@link String} for them
+ * 
+ * @author frank asseg
+ * 
+ */
+final class SymbolTable {
+	private final Symbol[] table;
+
+	private final int mask;
+
+	/**
+	 * construct a new {@link SymbolTable}
+	 * 
+	 * @param variableNames
+	 *            the names of the variables in declaration order. The position of a name is the slot of the variable
+	 * @param functions
+	 *            the functions by name
+	 */
+	SymbolTable(Set<String> variableNames, Map<String, CustomFunction> functions) {
+		super();
+		final int count = (variableNames == null ? 0 : variableNames.size()) + functions.size();
+		// keep the load factor at or below one half
+		int capacity = 4;
+		while (capacity < 2 * count) {
+			capacity <<= 1;
+		}
+		this.table = new Symbol[capacity];
+		this.mask = capacity - 1;
+		for (final Map.Entry<String, CustomFunction> entry : functions.entrySet()) {
+			put(new Symbol(entry.getKey(), -1, entry.getValue()));
+		}
+		if (variableNames != null) {
+			int slot = 0;
+			for (final String name : variableNames) {
+				// a variable hides a function of the same name
+				put(new Symbol(name, slot++, null));
+			}
+		}
+	}
+
+	private void put(Symbol symbol) {
+		int index = symbol.name.hashCode() & mask;
+		while (table[index] != null && !table[index].name.equals(symbol.name)) {
+			index = (index + 1) & mask;
+		}
+		table[index] = symbol;
+	}
+
+	/**
+	 * look up an identifier
+	 * 
+	 * @param chars
+	 *            the characters containing the identifier
+	 * @param offset
+	 *            the position of the first character of the identifier
+	 * @param length
+	 *            the length of the identifier
+	 * @return the {@link Symbol} of the identifier or null if it is unknown
+	 */
+	Symbol get(char[] chars, int offset, int length) {
+		// the same hash function as String#hashCode()
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int index = hash & mask;
+		Symbol symbol;
+		while ((symbol = table[index]) != null) {
+			if (symbol.matches(chars, offset, length)) {
+				return symbol;
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * A variable or a function known to the {@link Tokenizer}
+	 */
+	static final class Symbol {
+		final String name;
+
+		final int slot;
+
+		final CustomFunction function;
+
+		Symbol(String name, int slot, CustomFunction function) {
+			super();
+			this.name = name;
+			this.slot = slot;
+			this.function = function;
+		}
+
+		boolean isVariable() {
+			return function == null;
+		}
+
+		private boolean matches(char[] chars, int offset, int length) {
+			if (name.length() != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (name.charAt(i) != chars[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
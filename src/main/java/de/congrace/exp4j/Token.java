@@ -1,7 +1,5 @@
 package de.congrace.exp4j;
 
-import java.util.Stack;
-
 abstract class Token {
 	private final String value;
 
@@ -24,6 +22,4 @@ abstract class Token {
 	String getValue() {
 		return value;
 	}
-
-	abstract void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output);
 }
\ No newline at end of file
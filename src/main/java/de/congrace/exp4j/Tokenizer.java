@@ -1,5 +1,6 @@
 package de.congrace.exp4j;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -7,16 +8,17 @@ import java.util.Set;
 
 class Tokenizer {
 
-	private final Set<String> variableNames;
+	private final SymbolTable symbols;
 
-	private final Map<String, CustomFunction> functions;
-
-	private final Map<String, CustomOperator> operators;
+	private final OperatorTrie operators;
 
 	Tokenizer(Set<String> variableNames, Map<String, CustomFunction> functions, Map<String, CustomOperator> operators) {
+		this(variableNames, functions, new OperatorTrie(operators));
+	}
+
+	Tokenizer(Set<String> variableNames, Map<String, CustomFunction> functions, OperatorTrie operators) {
 		super();
-		this.variableNames = variableNames;
-		this.functions = functions;
+		this.symbols = new SymbolTable(variableNames, functions);
 		this.operators = operators;
 	}
 
@@ -28,112 +30,129 @@ class Tokenizer {
 		return c == 'e' || c == 'E';
 	}
 
-	private boolean isVariable(String name) {
-		if (variableNames != null) {
-			for (String var : variableNames) {
-				if (name.equals(var)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	private boolean isOperatorCharacter(char c) {
+		return operators.isOperatorCharacter(c);
 	}
-
-	private boolean isFunction(String name) {
-		return functions.containsKey(name);
+	
+	private static boolean isOperand(Token token) {
+		return token instanceof NumberToken || token instanceof VariableToken
+				|| (token instanceof ParenthesesToken && !((ParenthesesToken) token).isOpen());
 	}
 
-	private boolean isOperatorCharacter(char c) {
-		for (String symbol : operators.keySet()) {
-			if (symbol.indexOf(c) != -1) {
-				return true;
+	/**
+	 * split an expression into tokens. A {@link String} is copied to a char array once, the backing array of a
+	 * {@link CharBuffer} is read in place without copying it. The number literals of an expression read in place
+	 * are copied, since the caller may reuse the buffer after the expression has been built
+	 * 
+	 * @param expression
+	 *            the expression to split
+	 * @return the tokens in infix notation
+	 * @throws UnparsableExpressionException
+	 *             if the expression could not be parsed
+	 * @throws UnknownFunctionException
+	 *             when an unrecognized function name is used in the expression
+	 */
+	List<Token> getTokens(final CharSequence expression) throws UnparsableExpressionException, UnknownFunctionException {
+		final char[] chars;
+		final int start;
+		final boolean shared;
+		if (expression instanceof String) {
+			chars = ((String) expression).toCharArray();
+			start = 0;
+			shared = false;
+		} else if (expression instanceof CharBuffer && ((CharBuffer) expression).hasArray()) {
+			final CharBuffer buffer = (CharBuffer) expression;
+			chars = buffer.array();
+			start = buffer.arrayOffset() + buffer.position();
+			shared = true;
+		} else {
+			chars = new char[expression.length()];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = expression.charAt(i);
 			}
+			start = 0;
+			shared = false;
 		}
-		return false;
+		return getTokens(expression, chars, start, start + expression.length(), shared);
 	}
-	
-	List<Token> getTokens(final String expression) throws UnparsableExpressionException, UnknownFunctionException {
+
+	private List<Token> getTokens(final CharSequence expression, final char[] chars, final int start, final int end,
+			final boolean shared) throws UnparsableExpressionException, UnknownFunctionException {
 		final List<Token> tokens = new ArrayList<Token>();
-		final char[] chars = expression.toCharArray();
 		int openBraces=0;
 		int openCurly=0;
 		int openSquare=0;
 		// iterate over the chars and fork on different types of input
 		Token lastToken=null;
-		for (int i = 0; i < chars.length; i++) {
+		for (int i = start; i < end; i++) {
 			char c = chars[i];
 			if (c == ' ')
 				continue;
 			if (Character.isDigit(c)) {
-				final StringBuilder valueBuilder = new StringBuilder(1);
 				// handle the numbers of the expression
-				valueBuilder.append(c);
 				int numberLen = 1;
 				boolean lastCharNotationSeparator = false; // needed to determine if a + or - following an e/E is a unary operation
 				boolean notationSeparatorOccured = false; // to check if only one notation separator has occured
-				while (chars.length > i + numberLen) {
+				while (end > i + numberLen) {
 					if (isDigitOrDecimalSeparator(chars[i + numberLen])) {
-						valueBuilder.append(chars[i + numberLen]);
 						lastCharNotationSeparator = false;
 					}else if (isNotationSeparator(chars[i+numberLen])){
 						if (notationSeparatorOccured){
 							throw new UnparsableExpressionException("Number can have only one notation separator 'e/E'");
 						}
-						valueBuilder.append(chars[i + numberLen]);
 						lastCharNotationSeparator = true;
 						notationSeparatorOccured = true;
 					}else if (lastCharNotationSeparator && (chars[i+numberLen] == '-' || chars[i+numberLen] == '+')){
-						valueBuilder.append(chars[i + numberLen]);
 						lastCharNotationSeparator = false;
 					}else {
 						break; // break out of the while loop here, since the number seem finished
 					}
 					numberLen++;
 				}
+				lastToken = shared ? new NumberToken(new String(chars, i, numberLen)) : new NumberToken(chars, i,
+						numberLen);
 				i += numberLen - 1;
-				lastToken = new NumberToken(valueBuilder.toString());
 			} else if (Character.isLetter(c) || c == '_') {
 				// can be a variable or function
-				final StringBuilder nameBuilder = new StringBuilder();
-				nameBuilder.append(c);
 				int offset = 1;
-				while (chars.length > i + offset
+				while (end > i + offset
 						&& (Character.isLetter(chars[i + offset]) || Character.isDigit(chars[i + offset]) || chars[i
 								+ offset] == '_')) {
-					nameBuilder.append(chars[i + offset++]);
+					offset++;
 				}
-				String name = nameBuilder.toString();
-				if (this.isVariable(name)) {
-					// a variable
-					i += offset - 1;
-					lastToken = new VariableToken(name);
-				} else if (this.isFunction(name)) {
-					// might be a function
-					i += offset - 1;
-					lastToken = new FunctionToken(name, functions.get(name));
-				} else {
+				final SymbolTable.Symbol symbol = symbols.get(chars, i, offset);
+				if (symbol == null) {
 					// an unknown symbol was encountered
-					throw new UnparsableExpressionException(expression, c, i + 1);
+					throw new UnparsableExpressionException(expression.toString(), c, i - start + 1);
+				}
+				i += offset - 1;
+				if (symbol.isVariable()) {
+					lastToken = new VariableToken(symbol.name, symbol.slot);
+				} else {
+					lastToken = new FunctionToken(symbol.name, symbol.function);
+				}
+			} else if ((c == '-' || c == '+') && !isOperand(lastToken)) {
+				// a sign is unary at the start of the expression and after an operator, an opening parenthesis or a
+				// function separator
+				if (c == '+') {
+					// an unary plus changes nothing
+					continue;
+				}
+				if (operators.unaryMinus() == null) {
+					throw new UnparsableExpressionException(expression.toString(), c, i - start + 1);
 				}
+				lastToken = new OperatorToken(operators.unaryMinus().symbol, operators.unaryMinus());
 			} else if (c == ',') {
 				// a function separator, hopefully
 				lastToken = new FunctionSeparatorToken();
 			} else if (isOperatorCharacter(c)) {
-				// might be an operation
-				StringBuilder symbolBuilder = new StringBuilder();
-				symbolBuilder.append(c);
-				int offset = 1;
-				while (chars.length > i + offset && (isOperatorCharacter(chars[i + offset]))
-						&& isOperatorStart(symbolBuilder.toString() + chars[i + offset])) {
-					symbolBuilder.append(chars[i + offset]);
-					offset++;
-				}
-				String symbol = symbolBuilder.toString();
-				if (operators.containsKey(symbol)) {
-					i += offset - 1;
-					lastToken = new OperatorToken(symbol, operators.get(symbol));
+				// might be an operation, take the longest matching symbol
+				final CustomOperator operator = operators.match(chars, i, end);
+				if (operator != null) {
+					i += operator.symbol.length() - 1;
+					lastToken = new OperatorToken(operator.symbol, operator);
 				} else {
-					throw new UnparsableExpressionException(expression,  c, i + 1);
+					throw new UnparsableExpressionException(expression.toString(), c, i - start + 1);
 				}
 			}else if (c == '('){
 				openBraces++;
@@ -155,7 +174,7 @@ class Tokenizer {
 				lastToken = new ParenthesesToken(String.valueOf(c));
 			} else {
 				// an unknown symbol was encountered
-				throw new UnparsableExpressionException(expression, c, i + 1);
+				throw new UnparsableExpressionException(expression.toString(), c, i - start + 1);
 			}
 			tokens.add(lastToken);
 		}
@@ -188,13 +207,5 @@ class Tokenizer {
 
 	}
 
-	private boolean isOperatorStart(String op) {
-		for (String operatorName : operators.keySet()) {
-			if (operatorName.startsWith(op)) {
-				return true;
-			}
-		}
-		return false;
-	}
 
 }
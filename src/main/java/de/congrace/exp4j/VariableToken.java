@@ -16,7 +16,7 @@
  */
 package de.congrace.exp4j;
 
-import java.util.Map;
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -24,15 +24,21 @@ import java.util.Stack;
  * 
  * @author fas
  */
-class VariableToken extends CalculationToken {
+class VariableToken extends CalculationToken implements InfixToken {
+
+	final int slot;
+
 	/**
 	 * construct a new {@link VariableToken}
 	 * 
 	 * @param value
 	 *            the value of the token
+	 * @param slot
+	 *            the index of the variable in the declaration order of the expression's variables
 	 */
-	VariableToken(String value) {
+	VariableToken(String value, int slot) {
 		super(value);
+		this.slot = slot;
 	}
 
 	@Override
@@ -49,13 +55,23 @@ class VariableToken extends CalculationToken {
 	}
 
 	@Override
-	void mutateStackForCalculation(Stack<Double> stack, Map<String, Double> variableValues) {
-		double value = variableValues.get(this.getValue());
-		stack.push(value);
+	int mutateStackForCalculation(double[] stack, int top, double[] variableValues) {
+		stack[top] = variableValues[slot];
+		return top + 1;
 	}
 
 	@Override
-	void mutateStackForInfixTranslation(Stack<Token> operatorStack, StringBuilder output) {
-		output.append(this.getValue()).append(" ");
+	int mutateStackForBatchCalculation(double[][] stack, int top, double[][] columns, int offset, int length) {
+		System.arraycopy(columns[slot], offset, stack[top], 0, length);
+		return top + 1;
+	}
+
+	@Override
+	int getOperandCount() {
+		return 0;
+	}
+
+	public void mutateStackForInfixTranslation(Stack<Token> operatorStack, List<Token> output) {
+		output.add(this);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Guards the number of bytes a calculation allocates, measured by the allocation counter of the current thread. The
+ * evaluation of builtin operators and functions, of the specialized custom functions and of custom operators
+ * overriding the primitive methods must not allocate anything but the operand stack of the calculation, which a
+ * {@link Calculable} allocates per call so that it can be shared between threads. An {@link Expression} and compiled
+ * code must not allocate at all
+ */
+public class AllocationTest {
+
+	private static final int WARMUP = 20000;
+
+	private static final int CALLS = 10000;
+
+	// the counter itself may allocate a few bytes when it is read
+	private static final long SLACK = 1024;
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	private static CustomFunction1 twice;
+
+	private static CustomFunction2 avg;
+
+	private static CustomFunction3 clamp;
+
+	private static CustomFunction varargsAvg;
+
+	private static CustomOperator max;
+
+	private static CustomOperator arrayMax;
+
+	private interface Calculation {
+		double run();
+	}
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		twice = new CustomFunction1("twice", true) {
+			@Override
+			public double apply(double x) {
+				return 2 * x;
+			}
+		};
+		avg = new CustomFunction2("avg", true) {
+			@Override
+			public double apply(double x, double y) {
+				return (x + y) / 2;
+			}
+		};
+		clamp = new CustomFunction3("clamp", true) {
+			@Override
+			public double apply(double value, double min, double max) {
+				return Math.max(min, Math.min(max, value));
+			}
+		};
+		varargsAvg = new CustomFunction("vavg", 2) {
+			@Override
+			public double applyFunction(double... args) {
+				return (args[0] + args[1]) / 2;
+			}
+		};
+		max = new CustomOperator("#", true, 2) {
+			@Override
+			protected double applyBinary(double left, double right) {
+				return Math.max(left, right);
+			}
+		};
+		arrayMax = new CustomOperator("#", true, 2) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return Math.max(values[0], values[1]);
+			}
+		};
+	}
+
+	/**
+	 * measure the bytes a calculation allocates per call after it has been warmed up
+	 */
+	private static double allocatedBytesPerCall(Calculation calculation) {
+		double sink = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			sink += calculation.run();
+		}
+		final long id = Thread.currentThread().getId();
+		final long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < CALLS; i++) {
+			sink += calculation.run();
+		}
+		final long allocated = threads.getThreadAllocatedBytes(id) - before;
+		// use the results so the calculations can not be removed
+		assertTrue(sink != 1d || allocated >= 0);
+		return Math.max(0, allocated - SLACK) / (double) CALLS;
+	}
+
+	private static void assertBudget(String expression, double budget, Calculation calculation) {
+		final double bytes = allocatedBytesPerCall(calculation);
+		assertTrue("'" + expression + "' allocates " + bytes + " bytes per calculation, the budget is " + budget,
+				bytes <= budget);
+	}
+
+	// an upper bound of the size of a double array, whose header takes 16 or 24 bytes depending on the JVM
+	private static long arrayBytes(int length) {
+		return 24 + 8L * length;
+	}
+
+	private static long stackBytes(Calculable calc) {
+		if (!(calc instanceof RPNExpression)) {
+			return 0;
+		}
+		final RPNExpression rpn = (RPNExpression) calc;
+		return arrayBytes(rpn.temporaryCount + rpn.stackDepth);
+	}
+
+	private static void assertStackOnly(final Calculable calc) {
+		assertBudget(calc.getExpression(), stackBytes(calc), new Calculation() {
+			public double run() {
+				return calc.calculate();
+			}
+		});
+	}
+
+	private static ExpressionBuilder builder(String expression) {
+		return new ExpressionBuilder(expression).withVariable("x", 1.5).withVariable("y", 2.5);
+	}
+
+	@Test
+	public void testBuiltinOperators() throws Exception {
+		assertStackOnly(builder("42").build());
+		assertStackOnly(builder("3 * x + y").build());
+		assertStackOnly(builder("-x^2 + y % 3 / 2 - x^0.5").build());
+		assertStackOnly(builder("(x + y) * (x - y) / (x * y) ^ 3").withSimplification(false).build());
+	}
+
+	@Test
+	public void testBuiltinFunctions() throws Exception {
+		assertStackOnly(builder("sin(x) * cos(y) + sqrt(x) - abs(-y) + log(x) * exp(y)").build());
+	}
+
+	@Test
+	public void testCommonSubexpressions() throws Exception {
+		assertStackOnly(builder("sin(x * y) + sin(x * y) * 2 + (x - y) ^ 2 / (x - y)").build());
+	}
+
+	@Test
+	public void testSpecializedCustomOperations() throws Exception {
+		assertStackOnly(builder("clamp(twice(x) # avg(x, y), 0, 10)").withCustomFunction(twice)
+				.withCustomFunction(avg).withCustomFunction(clamp).withOperation(max).build());
+	}
+
+	@Test
+	public void testVariableValues() throws Exception {
+		final Calculable calc = builder("3 * x + y").build();
+		final double[] values = { 1, 2 };
+		assertBudget(calc.getExpression(), stackBytes(calc), new Calculation() {
+			public double run() {
+				return calc.calculate(values);
+			}
+		});
+	}
+
+	@Test
+	public void testExpression() throws Exception {
+		final Expression expression = builder("sin(x) * 3 + y ^ 2").buildExpression();
+		final EvaluationContext context = expression.newContext();
+		assertBudget(expression.getExpression(), 0, new Calculation() {
+			public double run() {
+				return expression.evaluate(context.setVariable(0, 0.5));
+			}
+		});
+	}
+
+	@Test
+	public void testCompiled() throws Exception {
+		final Calculable calc = builder("sin(x) * 3 + y ^ 2 - x % 2").compile();
+		assertBudget(calc.getExpression(), 0, new Calculation() {
+			public double run() {
+				return calc.calculate();
+			}
+		});
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		final Calculable calc = builder("sin(x) * 3 + y ^ 2 - x % 2").build();
+		final double[][] columns = new double[2][1000];
+		final double[] out = new double[1000];
+		for (int row = 0; row < out.length; row++) {
+			columns[0][row] = row;
+			columns[1][row] = row + 1;
+		}
+		// the blocks of the operand stack are allocated once per call, not per row
+		final RPNExpression rpn = (RPNExpression) calc;
+		final int depth = rpn.temporaryCount + rpn.stackDepth;
+		final long scratch = 24 + 8L * depth + depth * arrayBytes(RPNExpression.BLOCK_SIZE);
+		assertBudget(calc.getExpression(), scratch, new Calculation() {
+			public double run() {
+				calc.calculate(columns, out);
+				return out[0];
+			}
+		});
+	}
+
+	@Test
+	public void testArrayBasedCustomOperations() throws Exception {
+		// an array of two doubles is allocated for every call of the varargs function and the array operator, which
+		// takes up to 40 bytes depending on the object header size
+		final Calculable calc = builder("vavg(x, y) # x").withCustomFunction(varargsAvg).withOperation(arrayMax)
+				.build();
+		assertBudget(calc.getExpression(), 2 * 40 + stackBytes(calc), new Calculation() {
+			public double run() {
+				return calc.calculate();
+			}
+		});
+	}
+}
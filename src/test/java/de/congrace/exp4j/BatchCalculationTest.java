@@ -0,0 +1,162 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BatchCalculationTest {
+
+	private static double[][] randomColumns(int columnCount, int rowCount) {
+		Random rnd = new Random(42);
+		double[][] columns = new double[columnCount][rowCount];
+		for (double[] column : columns) {
+			for (int i = 0; i < rowCount; i++) {
+				column[i] = (rnd.nextDouble() - 0.5d) * 100d;
+			}
+		}
+		return columns;
+	}
+
+	private static void assertBatchEquals(Calculable calc, double[][] columns, int rowCount) {
+		double[] out = new double[rowCount];
+		calc.calculate(columns, out);
+		double[] row = new double[columns.length];
+		for (int i = 0; i < rowCount; i++) {
+			for (int slot = 0; slot < columns.length; slot++) {
+				row[slot] = columns[slot][i];
+			}
+			assertEquals(Double.doubleToLongBits(calc.calculate(row)), Double.doubleToLongBits(out[i]));
+		}
+	}
+
+	// a Calculable implemented outside of exp4j which only implements the methods without a default implementation
+	private static final class ExternalCalculable implements Calculable {
+		private final Calculable delegate;
+
+		ExternalCalculable(Calculable delegate) {
+			this.delegate = delegate;
+		}
+
+		public double calculate() {
+			return delegate.calculate();
+		}
+
+		public double calculate(double... variableValues) {
+			return delegate.calculate(variableValues);
+		}
+
+		public String getExpression() {
+			return delegate.getExpression();
+		}
+
+		public void setVariable(String name, double value) {
+			delegate.setVariable(name, value);
+		}
+
+		public Calculable copy() {
+			return new ExternalCalculable(delegate.copy());
+		}
+	}
+
+	@Test
+	public void testDefaultBatch() throws Exception {
+		double[][] columns = randomColumns(2, 100);
+		assertBatchEquals(new ExternalCalculable(new ExpressionBuilder("x * y - 1").withVariableNames("x", "y")
+				.build()), columns, 100);
+		double[] out = new double[3];
+		new ExternalCalculable(new ExpressionBuilder("2 + 3").build()).calculate(new double[0][], out);
+		assertEquals(5d, out[2], 0d);
+	}
+
+	@Test
+	public void testDefaultParallel() throws Exception {
+		double[][] columns = randomColumns(2, 100);
+		Calculable calc = new ExpressionBuilder("x * y - 1").withVariableNames("x", "y").build();
+		double[] expected = new double[100];
+		calc.calculate(columns, expected);
+		double[] out = new double[100];
+		new ExternalCalculable(calc).calculateParallel(columns, out);
+		assertArrayEquals(expected, out, 0d);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDefaultBatchShortColumn() throws Exception {
+		new ExternalCalculable(new ExpressionBuilder("x * y").withVariableNames("x", "y").build()).calculate(
+				new double[][] { { 1d, 2d }, { 1d } }, new double[2]);
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		String expr = "3 * x^2 - y / 4 + -x % 7 + sqrt(y^2) * sin(x) + (x - y)^0.5";
+		double[][] columns = randomColumns(2, 1000);
+		assertBatchEquals(new ExpressionBuilder(expr).withVariableNames("x", "y").build(), columns, 1000);
+		assertBatchEquals(new ExpressionBuilder(expr).withVariableNames("x", "y").compile(), columns, 1000);
+	}
+
+	@Test
+	public void testBatchBlockBoundaries() throws Exception {
+		Calculable calc = new ExpressionBuilder("(x + 1) * (x + 1) - x").withVariableNames("x").build();
+		for (int rowCount : new int[] { 0, 1, RPNExpression.BLOCK_SIZE - 1, RPNExpression.BLOCK_SIZE,
+				RPNExpression.BLOCK_SIZE + 1, 3 * RPNExpression.BLOCK_SIZE + 17 }) {
+			assertBatchEquals(calc, randomColumns(1, rowCount), rowCount);
+		}
+	}
+
+	@Test
+	public void testBatchCustomFunctionAndOperator() throws Exception {
+		CustomFunction avg = new CustomFunction("avg", 3) {
+			@Override
+			public double applyFunction(double... values) {
+				return (values[0] + values[1] + values[2]) / 3d;
+			}
+		};
+		CustomOperator gt = new CustomOperator(">", true, 0) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] > values[1] ? 1d : 0d;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("avg(x, y, 2) > x").withVariableNames("x", "y")
+				.withCustomFunction(avg).withOperation(gt).build();
+		assertBatchEquals(calc, randomColumns(2, 700), 700);
+	}
+
+	@Test
+	public void testBatchWithoutVariables() throws Exception {
+		double[] out = new double[3];
+		new ExpressionBuilder("2 + 3").build().calculate(new double[0][], out);
+		assertEquals(5d, out[0], 0d);
+		assertEquals(5d, out[2], 0d);
+	}
+
+	@Test
+	public void testBatchLongerColumns() throws Exception {
+		double[] out = new double[2];
+		new ExpressionBuilder("x * 2").withVariableNames("x").build()
+				.calculate(new double[][] { { 1d, 2d, 3d } }, out);
+		assertEquals(2d, out[0], 0d);
+		assertEquals(4d, out[1], 0d);
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testBatchDivisionByZero() throws Exception {
+		double[] out = new double[3];
+		new ExpressionBuilder("1 / x").withVariableNames("x").build()
+				.calculate(new double[][] { { 1d, 0d, 2d } }, out);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatchColumnCount() throws Exception {
+		new ExpressionBuilder("x * y").withVariableNames("x", "y").build()
+				.calculate(new double[][] { { 1d } }, new double[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatchShortColumn() throws Exception {
+		new ExpressionBuilder("x * y").withVariableNames("x", "y").build()
+				.calculate(new double[][] { { 1d, 2d }, { 1d } }, new double[2]);
+	}
+}
@@ -6,12 +6,14 @@ import static java.lang.Math.log;
 import static java.lang.Math.pow;
 import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -48,6 +50,34 @@ public class ConcurrentExpressionBuilderTest {
 		}
 	}
 
+	@Test
+	public void testSharedCalculable() throws Exception {
+		final Calculable calc = new ExpressionBuilder("sin(x * y) + sin(x * y) * 2 - (x - y) ^ 3")
+				.withVariableNames("x", "y").build();
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						double x = offset + i % 7;
+						double y = offset * 3 - i % 5;
+						double expected = sin(x * y) + sin(x * y) * 2 - pow(x - y, 3);
+						if (calc.calculate(x, y) != expected) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, errors.get());
+	}
+
 	static class EvaluationThread implements Runnable {
 		private final String expr;
 		private final double expected;
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Field;
+import java.nio.CharBuffer;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.Map;
@@ -599,43 +600,43 @@ public class ExpressionBuilderTest {
 		assertTrue(operators.get("-").leftAssociative);
 		assertTrue(operators.get("/").leftAssociative);
 		assertTrue(!operators.get("^").leftAssociative);
-		assertTrue(!operators.get("\'").leftAssociative);
+		assertTrue(!operators.get(OperatorTrie.UNARY_MINUS).leftAssociative);
 
 		assertTrue(operators.get("+").precedence == operators.get("-").precedence);
 		assertTrue(operators.get("+").precedence < operators.get("*").precedence);
 		assertTrue(operators.get("+").precedence < operators.get("/").precedence);
 		assertTrue(operators.get("+").precedence < operators.get("^").precedence);
-		assertTrue(operators.get("+").precedence < operators.get("\'").precedence);
+		assertTrue(operators.get("+").precedence < operators.get(OperatorTrie.UNARY_MINUS).precedence);
 
 		assertTrue(operators.get("-").precedence == operators.get("+").precedence);
 		assertTrue(operators.get("-").precedence < operators.get("*").precedence);
 		assertTrue(operators.get("-").precedence < operators.get("/").precedence);
 		assertTrue(operators.get("-").precedence < operators.get("^").precedence);
-		assertTrue(operators.get("-").precedence < operators.get("\'").precedence);
+		assertTrue(operators.get("-").precedence < operators.get(OperatorTrie.UNARY_MINUS).precedence);
 
 		assertTrue(operators.get("*").precedence > operators.get("+").precedence);
 		assertTrue(operators.get("*").precedence > operators.get("-").precedence);
 		assertTrue(operators.get("*").precedence == operators.get("/").precedence);
 		assertTrue(operators.get("*").precedence < operators.get("^").precedence);
-		assertTrue(operators.get("*").precedence < operators.get("\'").precedence);
+		assertTrue(operators.get("*").precedence < operators.get(OperatorTrie.UNARY_MINUS).precedence);
 
 		assertTrue(operators.get("/").precedence > operators.get("+").precedence);
 		assertTrue(operators.get("/").precedence > operators.get("-").precedence);
 		assertTrue(operators.get("/").precedence == operators.get("*").precedence);
 		assertTrue(operators.get("/").precedence < operators.get("^").precedence);
-		assertTrue(operators.get("/").precedence < operators.get("\'").precedence);
+		assertTrue(operators.get("/").precedence < operators.get(OperatorTrie.UNARY_MINUS).precedence);
 
 		assertTrue(operators.get("^").precedence > operators.get("+").precedence);
 		assertTrue(operators.get("^").precedence > operators.get("-").precedence);
 		assertTrue(operators.get("^").precedence > operators.get("*").precedence);
 		assertTrue(operators.get("^").precedence > operators.get("/").precedence);
-		assertTrue(operators.get("^").precedence < operators.get("\'").precedence);
+		assertTrue(operators.get("^").precedence < operators.get(OperatorTrie.UNARY_MINUS).precedence);
 
-		assertTrue(operators.get("\'").precedence > operators.get("+").precedence);
-		assertTrue(operators.get("\'").precedence > operators.get("-").precedence);
-		assertTrue(operators.get("\'").precedence > operators.get("*").precedence);
-		assertTrue(operators.get("\'").precedence > operators.get("/").precedence);
-		assertTrue(operators.get("\'").precedence > operators.get("^").precedence);
+		assertTrue(operators.get(OperatorTrie.UNARY_MINUS).precedence > operators.get("+").precedence);
+		assertTrue(operators.get(OperatorTrie.UNARY_MINUS).precedence > operators.get("-").precedence);
+		assertTrue(operators.get(OperatorTrie.UNARY_MINUS).precedence > operators.get("*").precedence);
+		assertTrue(operators.get(OperatorTrie.UNARY_MINUS).precedence > operators.get("/").precedence);
+		assertTrue(operators.get(OperatorTrie.UNARY_MINUS).precedence > operators.get("^").precedence);
 	}
 
 	@Test
@@ -980,7 +981,8 @@ public class ExpressionBuilderTest {
 	@Test
 	public void testExpression42() throws Exception {
 		String expr = "7.2973525698e-3";
-		double expected = 7.2973525698d * Math.pow(10, -3);
+		// literals are rounded correctly as a whole instead of multiplying the rounded mantissa by a power of ten
+		double expected = 7.2973525698e-3d;
 		Calculable calc = new ExpressionBuilder(expr).build();
 		assertTrue(expected == calc.calculate());
 	}
@@ -988,7 +990,7 @@ public class ExpressionBuilderTest {
 	@Test
 	public void testExpression43() throws Exception {
 		String expr = "6.02214E23";
-		double expected = 6.02214d * Math.pow(10, 23);
+		double expected = 6.02214E23d;
 		Calculable calc = new ExpressionBuilder(expr).build();
 		assertTrue(expected == calc.calculate());
 	}
@@ -996,7 +998,7 @@ public class ExpressionBuilderTest {
 	@Test
 	public void testExpression44() throws Exception {
 		String expr = "6.02214E23";
-		double expected = 6.02214d * Math.pow(10, 23);
+		double expected = 6.02214E23d;
 		Calculable calc = new ExpressionBuilder(expr).build();
 		assertTrue(expected == calc.calculate());
 	}
@@ -1683,4 +1685,236 @@ public class ExpressionBuilderTest {
         assertTrue(calc.calculate(2) == 25);
         assertNull(calc.variables.get("x"));
     }
+
+    @Test
+    public void testRepeatedCalculation() throws Exception {
+        Calculable calc = new ExpressionBuilder("log(x) - y * (sqrt(x^cos(y)))")
+                .withVariableNames("x", "y")
+                .build();
+        for (int i = 1; i < 100; i++) {
+            double x = i / 7d;
+            double y = i / 13d;
+            assertTrue(Math.log(x) - y * (Math.sqrt(Math.pow(x, Math.cos(y)))) == calc.calculate(x, y));
+        }
+    }
+
+    @Test(expected = UnparsableExpressionException.class)
+    public void testMissingOperand() throws Exception {
+        new ExpressionBuilder("2 * 3 -").build();
+    }
+
+    @Test
+    public void testVariableSlots() throws Exception {
+        Calculable calc = new ExpressionBuilder("z - 2 * y + x / 4 - y")
+                .withVariableNames("x", "y", "z")
+                .build();
+        assertTrue(3 - 2 * 2 + 1 / 4d - 2 == calc.calculate(1, 2, 3));
+        assertTrue(1 - 2 * 3 + 2 / 4d - 3 == calc.calculate(2, 3, 1));
+    }
+
+    @Test
+    public void testVariablesIndependentOfBuilder() throws Exception {
+        ExpressionBuilder builder = new ExpressionBuilder("x * 2").withVariable("x", 2);
+        Calculable calc = builder.build();
+        builder.withVariable("x", 3);
+        assertTrue(4d == calc.calculate());
+        calc.setVariable("x", 5);
+        assertTrue(10d == calc.calculate());
+        assertTrue(4d == calc.calculate(2));
+        assertTrue(10d == calc.calculate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetUnknownVariable() throws Exception {
+        Calculable calc = new ExpressionBuilder("x * 2").withVariable("x", 2).build();
+        calc.setVariable("y", 1);
+    }
+
+    @Test
+    public void testConstantFolding1() throws Exception {
+        RPNExpression calc = (RPNExpression) new ExpressionBuilder("2 * pi_const * r + 3^2")
+                .withVariableNames("pi_const", "r")
+                .build();
+        assertEquals(Arrays.<Token>asList(new NumberToken("2"), new VariableToken("pi_const", 0),
+                new OperatorToken("*", null), new VariableToken("r", 1), new OperatorToken("*", null),
+                new NumberToken(9d), new OperatorToken("+", null)), calc.tokens);
+        assertTrue(2 * Math.PI * 3 + 9 == calc.calculate(Math.PI, 3));
+    }
+
+    @Test
+    public void testConstantFolding2() throws Exception {
+        RPNExpression calc = (RPNExpression) new ExpressionBuilder("-sin(1) * log(2)^-cos(0.5) - x * (2 % 3)")
+                .withVariableNames("x")
+                .build();
+        assertEquals(5, calc.tokens.size());
+        assertTrue(-Math.sin(1) * Math.pow(Math.log(2), -Math.cos(0.5)) - 7 * 2 == calc.calculate(7));
+    }
+
+    @Test
+    public void testConstantFolding3() throws Exception {
+        RPNExpression calc = (RPNExpression) new ExpressionBuilder("2 * 3 - 1 / (4 - 4)").build();
+        assertEquals(Arrays.<Token>asList(new NumberToken(6d), new NumberToken("1"), new NumberToken(0d),
+                new OperatorToken("/", null), new OperatorToken("-", null)), calc.tokens);
+        try {
+            calc.calculate();
+            Assert.fail("expected ArithmeticException");
+        } catch (ArithmeticException e) {
+            // division by zero has to be reported when calculating
+        }
+    }
+
+    @Test
+    public void testConstantFoldingCustomFunction() throws Exception {
+        final int[] calls = new int[1];
+        CustomFunction counter = new CustomFunction("counter") {
+            @Override
+            public double applyFunction(double... values) {
+                return values[0] + calls[0]++;
+            }
+        };
+        Calculable calc = new ExpressionBuilder("counter(2 * 3)").withCustomFunction(counter).build();
+        assertTrue(6d == calc.calculate());
+        assertTrue(7d == calc.calculate());
+    }
+
+    @Test
+    public void testCharArrayRange() throws Exception {
+        char[] buffer = "ignored;3 * x + 1.5;ignored".toCharArray();
+        Calculable calc = new ExpressionBuilder(buffer, 8, 11).withVariableNames("x").build();
+        // the buffer may be reused once the expression has been built
+        Arrays.fill(buffer, '9');
+        assertEquals(7.5d, calc.calculate(2), 0d);
+        assertEquals("3 x * 1.5 +", calc.getExpression());
+    }
+
+    @Test
+    public void testCharBuffer() throws Exception {
+        CharBuffer buffer = CharBuffer.wrap("x=2^y-1;".toCharArray());
+        buffer.position(2).limit(7);
+        ExpressionBuilder builder = new ExpressionBuilder(buffer).withVariable("y", 3);
+        // moving the buffer does not change the expression of the builder
+        buffer.position(0);
+        assertEquals(7d, builder.build().calculate(), 0d);
+    }
+
+    @Test
+    public void testCharSequence() throws Exception {
+        StringBuilder expression = new StringBuilder("sin(x)").append(" * 2");
+        assertEquals(2 * Math.sin(1), new ExpressionBuilder(expression).withVariable("x", 1).build().calculate(), 0d);
+    }
+
+    @Test
+    public void testCharArrayErrorPosition() throws Exception {
+        char[] buffer = "xxxx1 + ?".toCharArray();
+        try {
+            new ExpressionBuilder(buffer, 4, 5).build();
+            Assert.fail("expected UnparsableExpressionException");
+        } catch (UnparsableExpressionException e) {
+            assertEquals("Unable to parse character '?' at position 5 in expression '1 + ?'", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlankCharArray() throws Exception {
+        new ExpressionBuilder("1+ \t  ".toCharArray(), 2, 4);
+    }
+
+    @Test
+    public void testCustomFunctionArities() throws Exception {
+        CustomFunction1 triple = new CustomFunction1("triple") {
+            @Override
+            public double apply(double x) {
+                return 3 * x;
+            }
+        };
+        CustomFunction2 minus = new CustomFunction2("minus") {
+            @Override
+            public double apply(double x, double y) {
+                return x - y;
+            }
+        };
+        CustomFunction3 clamp = new CustomFunction3("clamp", true) {
+            @Override
+            public double apply(double value, double min, double max) {
+                return Math.max(min, Math.min(max, value));
+            }
+        };
+        Calculable calc = new ExpressionBuilder("clamp(minus(triple(x), y), 0, 10)").withVariableNames("x", "y")
+                .withCustomFunction(triple).withCustomFunction(minus).withCustomFunction(clamp).build();
+        assertEquals(5d, calc.calculate(3, 4), 0d);
+        assertEquals(0d, calc.calculate(1, 4), 0d);
+        assertEquals(10d, calc.calculate(5, 1), 0d);
+        double[] out = new double[3];
+        calc.calculate(new double[][] { { 3, 1, 5 }, { 4, 4, 1 } }, out);
+        assertTrue(Arrays.equals(new double[] { 5, 0, 10 }, out));
+        // the varargs method is an adapter for the specialized one
+        assertEquals(-1d, minus.applyFunction(3, 4), 0d);
+        assertEquals(3, clamp.getArgumentCount());
+    }
+
+    @Test
+    public void testPrimitiveCustomOperators() throws Exception {
+        CustomOperator gte = new CustomOperator(">=", true, 0) {
+            @Override
+            protected double applyBinary(double left, double right) {
+                return left >= right ? 1d : 0d;
+            }
+        };
+        CustomOperator factorial = new CustomOperator("!", true, 6, 1) {
+            @Override
+            protected double applyUnary(double operand) {
+                double result = 1;
+                for (int i = 2; i <= operand; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        Calculable calc = new ExpressionBuilder("x! >= 2 * x").withVariableNames("x").withOperation(gte)
+                .withOperation(factorial).build();
+        assertEquals(0d, calc.calculate(2), 0d);
+        assertEquals(1d, calc.calculate(3), 0d);
+        double[] out = new double[3];
+        calc.calculate(new double[][] { { 1, 2, 3 } }, out);
+        assertTrue(Arrays.equals(new double[] { 0, 0, 1 }, out));
+        // the array method is an adapter for the primitive ones
+        assertEquals(6d, factorial.applyOperation(new double[] { 3 }), 0d);
+        assertEquals(1d, gte.applyOperation(new double[] { 3, 3 }), 0d);
+    }
+
+    @Test
+    public void testCustomOperatorWithoutImplementation() throws Exception {
+        try {
+            new CustomOperator("<>") {
+            };
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The operator '<>' has to override applyOperation(double[]) or applyBinary", e.getMessage());
+        }
+        try {
+            // a unary operator can not be implemented by the binary method
+            new CustomOperator("~", true, 6, 1) {
+                @Override
+                protected double applyBinary(double left, double right) {
+                    return left;
+                }
+            };
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The operator '~' has to override applyOperation(double[]) or applyUnary", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIntrinsicOperators() throws Exception {
+        Calculable calc = new ExpressionBuilder("-x + y - x * y / 2 % 3 ^ 2").withVariableNames("x", "y")
+                .withSimplification(false).build();
+        assertEquals(-1.5 + 4 - (1.5 * 4 / 2) % 9, calc.calculate(1.5, 4), 0d);
+        try {
+            new ExpressionBuilder("1 / x").withVariable("x", 0).build().calculate();
+            Assert.fail("expected ArithmeticException");
+        } catch (ArithmeticException e) {
+            assertEquals("Division by zero!", e.getMessage());
+        }
+    }
 }
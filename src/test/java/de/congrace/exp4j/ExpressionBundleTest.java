@@ -0,0 +1,168 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionBundleTest {
+
+	private static File createBundle(Map<String, Calculable> expressions) throws IOException {
+		File file = File.createTempFile("exp4j", ".bundle");
+		file.deleteOnExit();
+		ExpressionBundle.write(expressions, file.toPath());
+		return file;
+	}
+
+	@Test
+	public void testGetByName() throws Exception {
+		Map<String, Calculable> expressions = new HashMap<String, Calculable>();
+		for (int i = 0; i < 100; i++) {
+			expressions.put("rule" + i, new ExpressionBuilder("x * " + i + " + y").withVariableNames("x", "y").build());
+		}
+		expressions.put("ärger", new ExpressionBuilder("sqrt(x)").withVariable("x", 16).build());
+		ExpressionBundle bundle = ExpressionBundle.open(createBundle(expressions).toPath(), FunctionRegistry.builtins());
+		assertEquals(101, bundle.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(2d * i + 1, bundle.get("rule" + i).calculate(2, 1), 0d);
+		}
+		assertEquals(4d, bundle.get("ärger").calculate(), 0d);
+		assertEquals("x 42 * y +", bundle.get("rule42").getExpression());
+		assertNull(bundle.get("rule100"));
+		assertEquals(-1, bundle.indexOf(""));
+	}
+
+	@Test
+	public void testNamesAreOrdered() throws Exception {
+		Map<String, Calculable> expressions = new HashMap<String, Calculable>();
+		expressions.put("b", new ExpressionBuilder("2").build());
+		expressions.put("c", new ExpressionBuilder("3").build());
+		expressions.put("a", new ExpressionBuilder("1").build());
+		ExpressionBundle bundle = ExpressionBundle.open(createBundle(expressions).toPath(), FunctionRegistry.builtins());
+		for (int i = 0; i < bundle.size(); i++) {
+			assertEquals(String.valueOf((char) ('a' + i)), bundle.getName(i));
+			assertEquals(i, bundle.indexOf(bundle.getName(i)));
+			assertEquals(i + 1d, bundle.get(i).calculate(), 0d);
+		}
+	}
+
+	@Test
+	public void testNamesAreNotOrderedByLength() throws Exception {
+		Map<String, Calculable> expressions = new HashMap<String, Calculable>();
+		String[] names = { "rule1", "rule10", "rule2", "s" };
+		for (String name : names) {
+			expressions.put(name, new ExpressionBuilder("1").build());
+		}
+		ExpressionBundle bundle = ExpressionBundle.open(createBundle(expressions).toPath(), FunctionRegistry.builtins());
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(names[i], bundle.getName(i));
+			assertEquals(i, bundle.indexOf(names[i]));
+		}
+		assertEquals(-1, bundle.indexOf("rule"));
+		assertEquals(-1, bundle.indexOf("rule100"));
+	}
+
+	@Test
+	public void testGetReturnsCopies() throws Exception {
+		Map<String, Calculable> expressions = new HashMap<String, Calculable>();
+		expressions.put("f", new ExpressionBuilder("x + 1").withVariable("x", 1).build());
+		ExpressionBundle bundle = ExpressionBundle.open(createBundle(expressions).toPath(), FunctionRegistry.builtins());
+		Calculable first = bundle.get("f");
+		first.setVariable("x", 5);
+		Calculable second = bundle.get("f");
+		assertNotSame(first, second);
+		assertEquals(6d, first.calculate(), 0d);
+		assertEquals(2d, second.calculate(), 0d);
+	}
+
+	@Test
+	public void testEmptyBundle() throws Exception {
+		ExpressionBundle bundle = ExpressionBundle.open(createBundle(new HashMap<String, Calculable>()).toPath(),
+				FunctionRegistry.builtins());
+		assertEquals(0, bundle.size());
+		assertNull(bundle.get("a"));
+	}
+
+	@Test(expected = UnknownFunctionException.class)
+	public void testUnregisteredFunctionOnFirstUse() throws Exception {
+		CustomFunction twice = new CustomFunction("twice") {
+			@Override
+			public double applyFunction(double... values) {
+				return 2 * values[0];
+			}
+		};
+		Map<String, Calculable> expressions = new HashMap<String, Calculable>();
+		expressions.put("t", new ExpressionBuilder("twice(3)").withCustomFunction(twice).build());
+		ExpressionBundle bundle = ExpressionBundle.open(createBundle(expressions).toPath(), FunctionRegistry.builtins());
+		bundle.get("t");
+	}
+
+	private static ExpressionBundle corrupt(int position, int value, boolean isShort) throws Exception {
+		Map<String, Calculable> expressions = new HashMap<String, Calculable>();
+		expressions.put("a", new ExpressionBuilder("1 + 2").build());
+		File file = createBundle(expressions);
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (isShort) {
+			bytes.putShort(position, (short) value);
+		} else {
+			bytes.putInt(position, value);
+		}
+		Files.write(file.toPath(), bytes.array());
+		return ExpressionBundle.open(file.toPath(), FunctionRegistry.builtins());
+	}
+
+	@Test
+	public void testCorruptOffset() throws Exception {
+		for (int offset : new int[] { Integer.MAX_VALUE, -1, 0, 12 }) {
+			ExpressionBundle bundle = corrupt(9, offset, false);
+			try {
+				bundle.get(0);
+				Assert.fail("expected UnparsableExpressionException");
+			} catch (UnparsableExpressionException e) {
+				assertTrue(e.getMessage().contains("Invalid offset " + offset));
+			}
+			try {
+				bundle.get("a");
+				Assert.fail("expected UnparsableExpressionException");
+			} catch (UnparsableExpressionException e) {
+				assertTrue(e.getMessage().startsWith("The bundle is corrupt"));
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptNameLength() throws Exception {
+		// the entry of the only expression starts right after the index
+		ExpressionBundle bundle = corrupt(13, 0xffff, true);
+		try {
+			bundle.get(0);
+			Assert.fail("expected UnparsableExpressionException");
+		} catch (UnparsableExpressionException e) {
+			assertTrue(e.getMessage().contains("exceeds the bundle"));
+		}
+		try {
+			bundle.getName(0);
+			Assert.fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().startsWith("The bundle is corrupt"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotABundle() throws Exception {
+		File file = File.createTempFile("exp4j", ".bundle");
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+		ExpressionBundle.open(file.toPath(), FunctionRegistry.builtins());
+	}
+}
@@ -0,0 +1,179 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExpressionCacheTest {
+
+	@Test
+	public void testHit() throws Exception {
+		ExpressionCache cache = new ExpressionCache(10);
+		Expression first = cache.get(new ExpressionBuilder("3 * x + y").withVariableNames("x", "y"));
+		Expression second = cache.get(new ExpressionBuilder("3 * x + y").withVariableNames("x", "y"));
+		assertSame(first, second);
+		assertEquals(5d, second.evaluate(second.newContext().setVariables(1, 2)), 0d);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		ExpressionCache cache = new ExpressionCache(10);
+		Expression expression = cache.get(new ExpressionBuilder("x + y").withVariableNames("x", "y"));
+		// the variable order determines the slots
+		assertNotSame(expression, cache.get(new ExpressionBuilder("x + y").withVariableNames("y", "x")));
+		assertNotSame(expression, cache.get(new ExpressionBuilder("x + y").withVariable("x", 1).withVariableNames("y")));
+		assertNotSame(expression, cache.get(new ExpressionBuilder("x + y").withVariableNames("x", "y")
+				.withSimplification(false)));
+		assertNotSame(expression, cache.getCompiled(new ExpressionBuilder("x + y").withVariableNames("x", "y")));
+		assertNotSame(expression, cache.get(new ExpressionBuilder("x + y", FunctionRegistry.builtins(false))
+				.withVariableNames("x", "y")));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(6, cache.size());
+	}
+
+	@Test
+	public void testCustomFunctionIdentity() throws Exception {
+		ExpressionCache cache = new ExpressionCache(10);
+		CustomFunction1 twice = new CustomFunction1("f") {
+			@Override
+			public double apply(double x) {
+				return 2 * x;
+			}
+		};
+		CustomFunction1 thrice = new CustomFunction1("f") {
+			@Override
+			public double apply(double x) {
+				return 3 * x;
+			}
+		};
+		Expression first = cache.get(new ExpressionBuilder("f(2)").withCustomFunction(twice));
+		assertSame(first, cache.get(new ExpressionBuilder("f(2)").withCustomFunction(twice)));
+		Expression second = cache.get(new ExpressionBuilder("f(2)").withCustomFunction(thrice));
+		assertEquals(4d, first.evaluate(first.newContext()), 0d);
+		assertEquals(6d, second.evaluate(second.newContext()), 0d);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		ExpressionCache cache = new ExpressionCache(2);
+		Expression one = cache.get(new ExpressionBuilder("1"));
+		cache.get(new ExpressionBuilder("2"));
+		// using "1" makes "2" the least recently used expression
+		assertSame(one, cache.get(new ExpressionBuilder("1")));
+		cache.get(new ExpressionBuilder("3"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertSame(one, cache.get(new ExpressionBuilder("1")));
+		cache.get(new ExpressionBuilder("2"));
+		assertEquals(4, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testErrorIsNotCached() throws Exception {
+		ExpressionCache cache = new ExpressionCache(2);
+		try {
+			cache.get(new ExpressionBuilder("1 + "));
+		} finally {
+			assertEquals(0, cache.size());
+		}
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final ExpressionCache cache = new ExpressionCache(16);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Double>> results = new ArrayList<Future<Double>>();
+			for (int i = 0; i < 1000; i++) {
+				final int n = i % 32;
+				results.add(executor.submit(new Callable<Double>() {
+					public Double call() throws Exception {
+						Expression expression = cache.get(new ExpressionBuilder("x * " + n).withVariableNames("x"));
+						return expression.evaluate(expression.newContext().setVariables(2));
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(2d * (i % 32), results.get(i).get(), 0d);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1000, cache.getHitCount() + cache.getMissCount());
+		assertEquals(16, cache.size());
+	}
+
+	@Test
+	public void testConcurrentMiss() throws Exception {
+		final ExpressionCache cache = new ExpressionCache(16);
+		final CountDownLatch building = new CountDownLatch(2);
+		// both threads wait for each other while building, so both of them miss the key
+		final ExpressionListener listener = new ExpressionListener() {
+			public void expressionBuilt(String expression, long tokenizeNanos, long convertNanos, long validateNanos,
+					long compileNanos) {
+				building.countDown();
+				try {
+					building.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			public void buildFailed(String expression, Exception e) {
+			}
+
+			public void expressionCalculated(String expression, int rows, long nanos) {
+			}
+
+			public void calculationFailed(String expression, RuntimeException e) {
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<Expression>> results = new ArrayList<Future<Expression>>();
+			for (int i = 0; i < 2; i++) {
+				results.add(executor.submit(new Callable<Expression>() {
+					public Expression call() throws Exception {
+						return cache.get(new ExpressionBuilder("x + 1").withVariableNames("x").withListener(listener));
+					}
+				}));
+			}
+			assertSame(results.get(0).get(), results.get(1).get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testFailedBuildIsAMiss() throws Exception {
+		ExpressionCache cache = new ExpressionCache(2);
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get(new ExpressionBuilder("1 + "));
+			} catch (UnparsableExpressionException e) {
+				// expected
+			}
+		}
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getHitCount());
+	}
+}
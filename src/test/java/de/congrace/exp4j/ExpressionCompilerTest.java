@@ -0,0 +1,132 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ExpressionCompilerTest {
+
+	private static void assertSameResult(String expr, String[] variables, double... values) throws Exception {
+		Calculable interpreted = new ExpressionBuilder(expr).withVariableNames(variables).build();
+		Calculable compiled = new ExpressionBuilder(expr).withVariableNames(variables).compile();
+		assertTrue(compiled instanceof CompiledCalculable);
+		if (variables.length == 0) {
+			assertEquals(Double.doubleToRawLongBits(interpreted.calculate()),
+					Double.doubleToRawLongBits(compiled.calculate()));
+		} else {
+			assertEquals(Double.doubleToRawLongBits(interpreted.calculate(values)),
+					Double.doubleToRawLongBits(compiled.calculate(values)));
+		}
+	}
+
+	@Test
+	public void testCompile1() throws Exception {
+		Calculable calc = new ExpressionBuilder("2 + 4").compile();
+		assertTrue(calc instanceof CompiledCalculable);
+		assertTrue(6d == calc.calculate());
+		assertEquals("2 4 +", calc.getExpression());
+	}
+
+	@Test
+	public void testCompile2() throws Exception {
+		assertSameResult("log(x) - y * (sqrt(x^cos(y)))", new String[] { "x", "y" }, 1.2d, 4.3d);
+		assertSameResult("-2 *33.34/log(x)^-2 + 14 *6", new String[] { "x" }, 1.334d);
+		assertSameResult("(3 + 3 * 14) * (2 * (24-17) - 14)/((34) -2)", new String[0]);
+		assertSameResult("x % 7 - -y", new String[] { "x", "y" }, 23.5d, -0d);
+		assertSameResult("0 - 1 + 0.1 * 0 - -0", new String[0]);
+	}
+
+	@Test
+	public void testCompileBuiltinFunctions() throws Exception {
+		String expr = "abs(x) + acos(x) + asin(x) + atan(x) + cbrt(x) + ceil(x) + cos(x) + cosh(x) + exp(x)"
+				+ " + expm1(x) + floor(x) + log(x) + sin(x) + sinh(x) + sqrt(x) + tan(x) + tanh(x)";
+		for (double x = 0.01d; x < 1d; x += 0.07d) {
+			assertSameResult(expr, new String[] { "x" }, x);
+		}
+	}
+
+	@Test
+	public void testCompileVariables() throws Exception {
+		Calculable calc = new ExpressionBuilder("x * y - z").withVariable("x", 2).withVariable("y", 3)
+				.withVariable("z", 4).compile();
+		assertTrue(2d == calc.calculate());
+		calc.setVariable("z", 1);
+		assertTrue(5d == calc.calculate());
+		assertTrue(19d == calc.calculate(4, 5, 1));
+		Calculable copy = calc.copy();
+		copy.setVariable("x", 1);
+		assertTrue(2d == copy.calculate());
+		assertTrue(5d == calc.calculate());
+	}
+
+	@Test
+	public void testCompileManyVariables() throws Exception {
+		StringBuilder expr = new StringBuilder();
+		String[] names = new String[300];
+		double[] values = new double[names.length];
+		double expected = 0d;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "x" + i;
+			values[i] = i * 0.5d;
+			expected += values[i] * i;
+			if (i > 0) {
+				expr.append(" + ");
+			}
+			expr.append(names[i]).append(" * ").append(i);
+		}
+		Calculable calc = new ExpressionBuilder(expr.toString()).withVariableNames(names).compile();
+		assertTrue(calc instanceof CompiledCalculable);
+		assertTrue(expected == calc.calculate(values));
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testCompileDivisionByZero() throws Exception {
+		new ExpressionBuilder("x / 0").withVariableNames("x").compile().calculate(1d);
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testCompileModuloByZero() throws Exception {
+		new ExpressionBuilder("x % y").withVariableNames("x", "y").compile().calculate(1d, -0d);
+	}
+
+	@Test
+	public void testCompileCustomFunction() throws Exception {
+		CustomFunction custom = new CustomFunction("timespi") {
+			@Override
+			public double applyFunction(double... values) {
+				return values[0] * Math.PI;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("timespi(x)").withVariable("x", 1).withCustomFunction(custom)
+				.compile();
+		assertTrue(calc instanceof RPNExpression);
+		assertTrue(Math.PI == calc.calculate());
+	}
+
+	@Test
+	public void testCompileOverriddenBuiltinFunction() throws Exception {
+		CustomFunction custom = new CustomFunction("sin") {
+			@Override
+			public double applyFunction(double... values) {
+				return 42d;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("sin(1)").withCustomFunction(custom).compile();
+		assertTrue(calc instanceof RPNExpression);
+		assertTrue(42d == calc.calculate());
+	}
+
+	@Test
+	public void testCompileCustomOperator() throws Exception {
+		CustomOperator greaterEq = new CustomOperator(">=", true, 4, 2) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] >= values[1] ? 1d : 0d;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("2>=1").withOperation(greaterEq).compile();
+		assertTrue(calc instanceof RPNExpression);
+		assertTrue(1d == calc.calculate());
+	}
+}
@@ -0,0 +1,252 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionListenerTest {
+
+	private static final class RecordingListener implements ExpressionListener {
+		final List<String> events = new ArrayList<String>();
+
+		long[] lastBuild;
+
+		public synchronized void expressionBuilt(String expression, long tokenizeNanos, long convertNanos,
+				long validateNanos, long compileNanos) {
+			events.add("built " + expression);
+			lastBuild = new long[] { tokenizeNanos, convertNanos, validateNanos, compileNanos };
+		}
+
+		public synchronized void buildFailed(String expression, Exception e) {
+			events.add("build failed " + expression + ": " + e.getClass().getSimpleName());
+		}
+
+		public synchronized void expressionCalculated(String expression, int rows, long nanos) {
+			assertTrue(nanos >= 0);
+			events.add("calculated " + expression + " " + rows);
+		}
+
+		public synchronized void calculationFailed(String expression, RuntimeException e) {
+			events.add("calculation failed " + expression + ": " + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testBuildAndCalculate() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		Calculable calc = new ExpressionBuilder("3 * x + y").withVariableNames("x", "y").withListener(listener)
+				.build();
+		assertEquals(9d, calc.calculate(2, 3), 0d);
+		calc.calculate(new double[][] { { 1, 2, 3 }, { 4, 5, 6 } }, new double[3]);
+		assertEquals(3, listener.events.size());
+		assertEquals("built 3 * x + y", listener.events.get(0));
+		assertEquals("calculated 3 * x + y 1", listener.events.get(1));
+		assertEquals("calculated 3 * x + y 3", listener.events.get(2));
+		assertTrue(listener.lastBuild[RPNConverter.TOKENIZE] >= 0);
+		assertTrue(listener.lastBuild[RPNConverter.CONVERT] >= 0);
+		assertTrue(listener.lastBuild[RPNConverter.VALIDATE] >= 0);
+		assertTrue(listener.lastBuild[RPNConverter.TOKENIZE] + listener.lastBuild[RPNConverter.CONVERT]
+				+ listener.lastBuild[RPNConverter.VALIDATE] > 0);
+		assertEquals(0, listener.lastBuild[RPNConverter.COMPILE]);
+	}
+
+	@Test
+	public void testCompile() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		Calculable calc = new ExpressionBuilder("x * x").withVariableNames("x").withListener(listener).compile();
+		assertTrue(calc instanceof CompiledCalculable);
+		assertTrue(listener.lastBuild[RPNConverter.COMPILE] > 0);
+		calc.copy().calculate(3);
+		assertEquals("calculated x * x 1", listener.events.get(1));
+	}
+
+	@Test
+	public void testExpression() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		Expression expression = new ExpressionBuilder("1 / x").withVariableNames("x").withListener(listener)
+				.buildExpression();
+		assertEquals(0.5d, expression.evaluate(expression.newContext().setVariable("x", 2d)), 0d);
+		try {
+			expression.evaluate(expression.newContext().setVariable("x", 0d));
+			Assert.fail("expected ArithmeticException");
+		} catch (ArithmeticException e) {
+			assertEquals("calculation failed 1 / x: Division by zero!", listener.events.get(2));
+		}
+		assertEquals("calculated 1 / x 1", listener.events.get(1));
+	}
+
+	@Test
+	public void testCalculationFailure() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		Calculable calc = new ExpressionBuilder("x % 0").withVariableNames("x").withListener(listener).build();
+		try {
+			calc.calculate(1);
+			Assert.fail("expected ArithmeticException");
+		} catch (ArithmeticException e) {
+			assertEquals(2, listener.events.size());
+			assertTrue(listener.events.get(1).startsWith("calculation failed x % 0"));
+		}
+	}
+
+	@Test
+	public void testBuildFailure() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		try {
+			new ExpressionBuilder("foo(x)").withVariableNames("x").withListener(listener).build();
+			Assert.fail("expected UnparsableExpressionException");
+		} catch (UnparsableExpressionException e) {
+			assertEquals("build failed foo(x): UnparsableExpressionException", listener.events.get(0));
+			assertEquals(1, listener.events.size());
+		}
+	}
+
+	@Test
+	public void testCharArray() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		char[] chars = "[2 + 3]".toCharArray();
+		assertEquals(5d, new ExpressionBuilder(chars, 1, 5).withListener(listener).build().calculate(), 0d);
+		assertEquals("built 2 + 3", listener.events.get(0));
+		assertEquals("calculated 2 + 3 1", listener.events.get(1));
+	}
+
+	@Test
+	public void testSourceConvertedOnce() throws Exception {
+		final List<String> sources = new ArrayList<String>();
+		ExpressionListener listener = new ExpressionListener() {
+			public void expressionBuilt(String expression, long tokenizeNanos, long convertNanos, long validateNanos,
+					long compileNanos) {
+				sources.add(expression);
+			}
+
+			public void buildFailed(String expression, Exception e) {
+			}
+
+			public void expressionCalculated(String expression, int rows, long nanos) {
+				sources.add(expression);
+			}
+
+			public void calculationFailed(String expression, RuntimeException e) {
+			}
+		};
+		Calculable calc = new ExpressionBuilder(new StringBuilder("x + 1")).withVariableNames("x")
+				.withListener(listener).build();
+		calc.calculate(1);
+		assertEquals(Arrays.asList("x + 1", "x + 1"), sources);
+		// the listener receives the same string for the build and every calculation
+		assertSame(sources.get(0), sources.get(1));
+	}
+
+	@Test
+	public void testDefaultListener() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		ExpressionBuilder.setDefaultListener(listener);
+		ExpressionBuilder builder;
+		try {
+			builder = new ExpressionBuilder("2 * x").withVariableNames("x");
+		} finally {
+			ExpressionBuilder.setDefaultListener(null);
+		}
+		assertNull(ExpressionBuilder.getDefaultListener());
+		builder.build().calculate(1);
+		assertEquals(2, listener.events.size());
+		// a builder created without a default listener is not observed
+		new ExpressionBuilder("2 * x").withVariableNames("x").build().calculate(1);
+		assertEquals(2, listener.events.size());
+		// the listener can be removed from a single builder
+		listener.events.clear();
+		ExpressionBuilder.setDefaultListener(listener);
+		try {
+			new ExpressionBuilder("2 * x").withVariableNames("x").withListener(null).build().calculate(1);
+		} finally {
+			ExpressionBuilder.setDefaultListener(null);
+		}
+		assertEquals(0, listener.events.size());
+	}
+
+	@Test
+	public void testCacheKey() throws Exception {
+		ExpressionCache cache = new ExpressionCache(10);
+		ExpressionMetrics metrics = new ExpressionMetrics();
+		Expression plain = cache.get(new ExpressionBuilder("x + 1").withVariableNames("x"));
+		Expression observed = cache.get(new ExpressionBuilder("x + 1").withVariableNames("x").withListener(metrics));
+		assertNotSame(plain, observed);
+		assertSame(observed, cache.get(new ExpressionBuilder("x + 1").withVariableNames("x").withListener(metrics)));
+		assertEquals(1, metrics.getBuildCount());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		ExpressionMetrics metrics = new ExpressionMetrics();
+		Calculable calc = new ExpressionBuilder("x / y").withVariableNames("x", "y").withListener(metrics).build();
+		for (int i = 1; i <= 100; i++) {
+			calc.calculate(i, 2);
+		}
+		double[] ones = new double[10];
+		Arrays.fill(ones, 1d);
+		calc.calculate(new double[][] { ones, ones }, new double[10]);
+		try {
+			calc.calculate(1, 0);
+		} catch (ArithmeticException e) {
+			// counted as a failure
+		}
+		try {
+			new ExpressionBuilder("x / ").withVariableNames("x").withListener(metrics).build();
+		} catch (UnparsableExpressionException e) {
+			// counted as a failure
+		}
+		assertEquals(1, metrics.getBuildCount());
+		assertEquals(1, metrics.getBuildFailureCount());
+		assertEquals(metrics.getBuildNanos(), metrics.getTokenizeNanos() + metrics.getConvertNanos()
+				+ metrics.getValidateNanos() + metrics.getCompileNanos());
+		assertTrue(metrics.getBuildPercentileNanos(99) >= metrics.getBuildNanos());
+		assertEquals(101, metrics.getCalculationCount());
+		assertEquals(1, metrics.getCalculationFailureCount());
+		ExpressionMetrics.Statistics stats = metrics.getStatistics("x / y");
+		assertSame(stats, metrics.getStatistics().get("x / y"));
+		assertEquals(1, metrics.getStatistics().size());
+		assertEquals(101, stats.getCalculationCount());
+		assertEquals(110, stats.getRowCount());
+		assertEquals(1, stats.getFailureCount());
+		long total = 0;
+		for (long count : stats.getHistogram()) {
+			total += count;
+		}
+		assertEquals(101, total);
+		assertTrue(stats.getPercentileNanos(50) <= stats.getPercentileNanos(99));
+		assertNull(metrics.getStatistics("x * y"));
+	}
+
+	@Test
+	public void testHistogram() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99));
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(5000);
+		histogram.record(-1);
+		assertEquals(101, histogram.getCount());
+		assertEquals(99 * 100 + 5000, histogram.getTotalNanos());
+		assertEquals(0, histogram.getPercentile(0));
+		assertEquals(127, histogram.getPercentile(50));
+		assertEquals(127, histogram.getPercentile(99));
+		assertEquals(8191, histogram.getPercentile(100));
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.BUCKET_COUNT - 1));
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(1, histogram.getBuckets()[LatencyHistogram.BUCKET_COUNT - 1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPercentile() throws Exception {
+		new LatencyHistogram().getPercentile(101);
+	}
+}
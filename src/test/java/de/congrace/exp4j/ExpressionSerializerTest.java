@@ -0,0 +1,259 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ExpressionSerializerTest {
+
+	private static CustomFunction AVG;
+
+	private static final CustomOperator FACTORIAL = new CustomOperator("!", true, 6, 1) {
+		@Override
+		protected double applyOperation(double[] values) {
+			double result = 1;
+			for (int i = 2; i <= values[0]; i++) {
+				result *= i;
+			}
+			return result;
+		}
+	};
+
+	private static FunctionRegistry REGISTRY;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		AVG = new CustomFunction("avg", 2) {
+			@Override
+			public double applyFunction(double... values) {
+				return (values[0] + values[1]) / 2;
+			}
+		};
+		REGISTRY = FunctionRegistry.builtins().withCustomFunction(AVG).withOperation(FACTORIAL);
+	}
+
+	private static Calculable roundTrip(Calculable calc) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		ExpressionSerializer.write(calc, buffer);
+		buffer.flip();
+		Calculable read = ExpressionSerializer.read(buffer, REGISTRY);
+		assertEquals(0, buffer.remaining());
+		return read;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Calculable calc = new ExpressionBuilder("3 * sin(x)^2 + 1.50 * y - -2").withVariableNames("x", "y").build();
+		Calculable read = roundTrip(calc);
+		assertEquals(calc.getExpression(), read.getExpression());
+		assertEquals("3 x sin 2 ^ * 1.50 y * + 2 ' -", read.getExpression());
+		assertEquals(calc.calculate(0.5, 2), read.calculate(0.5, 2), 0d);
+		read.setVariable("x", 1);
+		read.setVariable("y", 3);
+		assertEquals(3 * Math.pow(Math.sin(1), 2) + 1.5 * 3 + 2, read.calculate(), 0d);
+	}
+
+	@Test
+	public void testRoundTripCustomOperations() throws Exception {
+		Calculable calc = new ExpressionBuilder("avg(x, 4!) + avg(x, 4!)").withVariable("x", 6)
+				.withCustomFunction(AVG).withOperation(FACTORIAL).build();
+		Calculable read = roundTrip(calc);
+		assertEquals(30d, read.calculate(), 0d);
+		assertEquals(calc.getExpression(), read.getExpression());
+	}
+
+	@Test
+	public void testRoundTripUnaryMinusSymbol() throws Exception {
+		CustomOperator increment = new CustomOperator("'", true, 6, 1) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] + 1;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("-x' * 3'").withVariable("x", 2).withOperation(increment).build();
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		ExpressionSerializer.write(calc, buffer);
+		buffer.flip();
+		Calculable read = ExpressionSerializer.read(buffer, REGISTRY.withOperation(increment));
+		assertEquals(calc.getExpression(), read.getExpression());
+		assertEquals(-4d, read.calculate(), 0d);
+	}
+
+	@Test
+	public void testRoundTripSubexpressions() throws Exception {
+		Calculable calc = new ExpressionBuilder("sin(x * y) * 2 + sin(x * y)").withVariable("x", 2).withVariable("y",
+				3).build();
+		Calculable read = roundTrip(calc);
+		// the common subexpression is still calculated once
+		assertEquals(1, ((RPNExpression) read).temporaryCount);
+		assertEquals(((RPNExpression) calc).tokens.size(), ((RPNExpression) read).tokens.size());
+		assertEquals(3 * Math.sin(6), read.calculate(), 0d);
+	}
+
+	@Test
+	public void testRoundTripSimplified() throws Exception {
+		Calculable read = roundTrip(new ExpressionBuilder("x^2 + x^0.5").withVariable("x", 4).build());
+		assertEquals(18d, read.calculate(), 0d);
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < 10; i++) {
+			ExpressionSerializer.write(new ExpressionBuilder("x * " + i).withVariableNames("x").build(), out);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int i = 0; i < 10; i++) {
+			assertEquals(2d * i, ExpressionSerializer.read(in, REGISTRY).calculate(2), 0d);
+		}
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testUnregisteredFunction() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		ExpressionSerializer.write(new ExpressionBuilder("avg(1, x)").withVariableNames("x").withCustomFunction(AVG)
+				.build(), buffer);
+		buffer.flip();
+		try {
+			ExpressionSerializer.read(buffer, FunctionRegistry.builtins());
+			Assert.fail("expected UnknownFunctionException");
+		} catch (UnknownFunctionException e) {
+			assertEquals("Unknown function: avg", e.getMessage());
+		}
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testUnregisteredOperator() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		ExpressionSerializer.write(new ExpressionBuilder("x!").withVariableNames("x").withOperation(FACTORIAL).build(),
+				buffer);
+		buffer.flip();
+		ExpressionSerializer.read(buffer, FunctionRegistry.builtins());
+	}
+
+	@Test
+	public void testUnsupportedVersion() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		ExpressionSerializer.write(new ExpressionBuilder("1 + 2").build(), buffer);
+		buffer.put(4, (byte) (ExpressionSerializer.VERSION + 1));
+		buffer.flip();
+		try {
+			ExpressionSerializer.read(buffer, REGISTRY);
+			Assert.fail("expected IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Unsupported format version"));
+		}
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testInvalidProgram() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ExpressionSerializer.MAGIC);
+		out.writeByte(ExpressionSerializer.VERSION);
+		out.writeByte(0); // variables
+		out.writeByte(0); // functions
+		out.writeByte(1); // operators
+		out.writeUTF("+");
+		out.writeByte(2);
+		out.writeByte(2); // program: 1 +
+		out.writeByte(ExpressionSerializer.OP_CONSTANT);
+		out.writeDouble(1d);
+		out.writeByte(ExpressionSerializer.OP_OPERATOR);
+		out.writeByte(0);
+		ExpressionSerializer.read(ByteBuffer.wrap(bytes.toByteArray()), REGISTRY);
+	}
+
+	private static byte[] variableOnly(String name) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ExpressionSerializer.MAGIC);
+		out.writeByte(ExpressionSerializer.VERSION);
+		out.writeByte(1); // variables
+		out.writeUTF(name);
+		out.writeDouble(1d);
+		out.writeByte(0); // functions
+		out.writeByte(0); // operators
+		for (int i = 0; i < 2; i++) {
+			out.writeByte(1); // program and postfix: the variable
+			out.writeByte(ExpressionSerializer.OP_VARIABLE);
+			out.writeByte(0);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testVariableNames() throws Exception {
+		assertEquals(1d, ExpressionSerializer.read(ByteBuffer.wrap(variableOnly("_x1")), REGISTRY).calculate(), 0d);
+		try {
+			ExpressionSerializer.read(ByteBuffer.wrap(variableOnly("1 + x")), REGISTRY);
+			Assert.fail("expected UnparsableExpressionException");
+		} catch (UnparsableExpressionException e) {
+			assertTrue(e.getMessage().startsWith("1 + x is not a valid variable name"));
+		}
+		try {
+			ExpressionSerializer.read(ByteBuffer.wrap(variableOnly("avg")), REGISTRY);
+			Assert.fail("expected UnparsableExpressionException");
+		} catch (UnparsableExpressionException e) {
+			assertEquals("Variable 'avg' cannot have the same name as a function", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInvalidCounts() throws Exception {
+		for (int count : new int[] { ExpressionSerializer.MAX_COUNT + 1, Integer.MAX_VALUE, 1 << 30 }) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(ExpressionSerializer.MAGIC);
+			out.writeByte(ExpressionSerializer.VERSION);
+			ExpressionSerializer.writeVarInt(out, count); // variables
+			try {
+				ExpressionSerializer.read(ByteBuffer.wrap(bytes.toByteArray()), REGISTRY);
+				Assert.fail("expected IOException");
+			} catch (IOException e) {
+				assertEquals("Invalid variable count " + count, e.getMessage());
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedTable() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ExpressionSerializer.MAGIC);
+		out.writeByte(ExpressionSerializer.VERSION);
+		out.writeByte(0); // variables
+		ExpressionSerializer.writeVarInt(out, ExpressionSerializer.MAX_COUNT); // functions
+		ExpressionSerializer.read(ByteBuffer.wrap(bytes.toByteArray()), REGISTRY);
+	}
+
+	@Test
+	public void testBufferOverflow() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		try {
+			ExpressionSerializer.write(new ExpressionBuilder("1 + 2 * x").withVariableNames("x").build(), buffer);
+			Assert.fail("expected BufferOverflowException");
+		} catch (BufferOverflowException e) {
+			assertEquals(0, buffer.position());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompiled() throws Exception {
+		ExpressionSerializer.write(new ExpressionBuilder("1 + x").withVariableNames("x").compile(),
+				ByteBuffer.allocate(256));
+	}
+}
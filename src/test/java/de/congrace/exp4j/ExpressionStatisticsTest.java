@@ -0,0 +1,130 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionStatisticsTest {
+
+	@Test
+	public void testAttributes() throws Exception {
+		ExpressionMetrics metrics = new ExpressionMetrics();
+		ExpressionCache cache = new ExpressionCache(10);
+		ExpressionStatistics statistics = new ExpressionStatistics(metrics, cache);
+		assertEquals(0d, statistics.getAverageBuildNanos(), 0d);
+		assertTrue(Double.isNaN(statistics.getCacheHitRatio()));
+		for (int i = 0; i < 4; i++) {
+			Expression expression = cache.get(new ExpressionBuilder("x * 2").withVariableNames("x").withListener(
+					metrics));
+			expression.evaluate(expression.newContext().setVariable("x", i));
+		}
+		Calculable calc = new ExpressionBuilder("y + 1").withVariableNames("y").withListener(metrics).build();
+		calc.calculate(1);
+		try {
+			new ExpressionBuilder("y + ").withVariableNames("y").withListener(metrics).build();
+			Assert.fail("expected UnparsableExpressionException");
+		} catch (UnparsableExpressionException e) {
+			// counted as a failure
+		}
+		assertEquals(2, statistics.getBuildCount());
+		assertEquals(1, statistics.getBuildFailureCount());
+		assertEquals(metrics.getBuildNanos() / 2d, statistics.getAverageBuildNanos(), 0d);
+		assertTrue(statistics.getBuildNanos99thPercentile() >= statistics.getAverageBuildNanos());
+		assertEquals(5, statistics.getCalculationCount());
+		assertEquals(0, statistics.getCalculationFailureCount());
+		assertEquals(0.75d, statistics.getCacheHitRatio(), 0d);
+		assertEquals(1, statistics.getCacheSize());
+		assertArrayEquals(new String[] { "4 x * 2", "1 y + 1" }, statistics.getTopExpressions());
+		statistics.setTopExpressionCount(1);
+		assertArrayEquals(new String[] { "4 x * 2" }, statistics.getTopExpressions());
+		statistics.setTopExpressionCount(0);
+		assertEquals(0, statistics.getTopExpressions().length);
+	}
+
+	@Test
+	public void testNoCache() throws Exception {
+		ExpressionStatistics statistics = new ExpressionStatistics(new ExpressionMetrics(), null);
+		assertTrue(Double.isNaN(statistics.getCacheHitRatio()));
+		assertEquals(0, statistics.getCacheSize());
+	}
+
+	@Test
+	public void testTopExpressions() throws Exception {
+		ExpressionMetrics metrics = new ExpressionMetrics();
+		for (int i = 1; i <= 20; i++) {
+			Calculable calc = new ExpressionBuilder("x + " + i).withVariableNames("x").withListener(metrics).build();
+			for (int j = 0; j < i % 7; j++) {
+				calc.calculate(j);
+			}
+		}
+		ExpressionStatistics statistics = new ExpressionStatistics(metrics, null);
+		statistics.setTopExpressionCount(5);
+		// the counts are 6, 6, 6, 5, 5 and expressions with the same count are ordered by name
+		assertArrayEquals(new String[] { "6 x + 13", "6 x + 20", "6 x + 6", "5 x + 12", "5 x + 19" },
+				statistics.getTopExpressions());
+	}
+
+	@Test
+	public void testLiveCompiledExpressions() throws Exception {
+		ExpressionStatistics statistics = new ExpressionStatistics(new ExpressionMetrics(), null);
+		int before = statistics.getLiveCompiledExpressionCount();
+		Calculable calc = new ExpressionBuilder("x * x + 1").withVariableNames("x").compile();
+		// copies share the generated code
+		Calculable copy = calc.copy();
+		assertTrue(statistics.getLiveCompiledExpressionCount() >= before + 1);
+		assertEquals(10d, calc.calculate(3) + copy.calculate(0) - 1, 0d);
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		ExpressionMetrics metrics = new ExpressionMetrics();
+		ExpressionStatistics statistics = new ExpressionStatistics(metrics, null);
+		ObjectName name = new ObjectName(ExpressionStatistics.DEFAULT_NAME);
+		assertEquals(name, statistics.register(server, name));
+		try {
+			statistics.register(server, name);
+			Assert.fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// already registered
+		}
+		new ExpressionBuilder("2 * x").withVariableNames("x").withListener(metrics).build().calculate(1);
+		assertEquals(1L, server.getAttribute(name, "BuildCount"));
+		assertEquals(1L, server.getAttribute(name, "CalculationCount"));
+		assertArrayEquals(new String[] { "1 2 * x" }, (String[]) server.getAttribute(name, "TopExpressions"));
+		server.setAttribute(name, new Attribute("TopExpressionCount", 3));
+		assertEquals(3, statistics.getTopExpressionCount());
+		statistics.unregister();
+		assertFalse(server.isRegistered(name));
+		// unregistering twice does nothing
+		statistics.unregister();
+	}
+
+	@Test
+	public void testRegisterPlatform() throws Exception {
+		ExpressionStatistics statistics = new ExpressionStatistics(new ExpressionMetrics(), null);
+		ObjectName name = statistics.register();
+		try {
+			assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+		} finally {
+			statistics.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeTopExpressionCount() throws Exception {
+		new ExpressionStatistics(new ExpressionMetrics(), null).setTopExpressionCount(-1);
+	}
+}
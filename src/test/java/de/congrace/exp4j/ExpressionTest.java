@@ -0,0 +1,110 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ExpressionTest {
+
+	@Test
+	public void testEvaluate() throws Exception {
+		Expression expression = new ExpressionBuilder("3 * x + y").withVariableNames("x", "y").buildExpression();
+		EvaluationContext context = expression.newContext();
+		assertEquals(5d, expression.evaluate(context.setVariable("x", 1d).setVariable("y", 2d)), 0d);
+		assertEquals(11d, expression.evaluate(context.setVariables(3d, 2d)), 0d);
+		assertEquals(12d, expression.evaluate(context.setVariable(expression.getVariableSlot("y"), 3d)), 0d);
+		assertEquals(3d, context.getVariable("x"), 0d);
+	}
+
+	@Test
+	public void testDefaultValues() throws Exception {
+		Expression expression = new ExpressionBuilder("x + y").withVariable("x", 2d).withVariableNames("y")
+				.buildExpression();
+		EvaluationContext context = expression.newContext();
+		assertTrue(Double.isNaN(expression.evaluate(context)));
+		assertEquals(5d, expression.evaluate(context.setVariable("y", 3d)), 0d);
+		// a new context starts with the values set on the builder
+		assertTrue(Double.isNaN(expression.newContext().getVariable("y")));
+	}
+
+	@Test
+	public void testVariableNames() throws Exception {
+		Expression expression = new ExpressionBuilder("a * b - c").withVariableNames("c", "a", "b").buildExpression();
+		assertEquals(Arrays.asList("c", "a", "b"), expression.getVariableNames());
+		assertEquals(1, expression.getVariableSlot("a"));
+	}
+
+	@Test
+	public void testCompiled() throws Exception {
+		String expr = "sqrt(x^2 + y^2) * sqrt(x^2 + y^2) / 2";
+		Expression interpreted = new ExpressionBuilder(expr).withVariableNames("x", "y").buildExpression();
+		Expression compiled = new ExpressionBuilder(expr).withVariableNames("x", "y").compileExpression();
+		for (int i = 0; i < 100; i++) {
+			double x = i / 7d;
+			double y = i / 3d;
+			assertEquals(interpreted.evaluate(interpreted.newContext().setVariables(x, y)),
+					compiled.evaluate(compiled.newContext().setVariables(x, y)), 0d);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForeignContext() throws Exception {
+		Expression first = new ExpressionBuilder("x").withVariableNames("x").buildExpression();
+		Expression second = new ExpressionBuilder("x").withVariableNames("x").buildExpression();
+		second.evaluate(first.newContext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownVariable() throws Exception {
+		Expression expression = new ExpressionBuilder("x").withVariableNames("x").buildExpression();
+		expression.newContext().setVariable("y", 1d);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testVariableCount() throws Exception {
+		Expression expression = new ExpressionBuilder("x").withVariableNames("x").buildExpression();
+		expression.newContext().setVariables(1d, 2d);
+	}
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		final Expression expression = new ExpressionBuilder("log(x) - y * (sqrt(x^cos(y))) + (x + y) * (x + y)")
+				.withVariableNames("x", "y").buildExpression();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 16; t++) {
+				final int offset = t;
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						EvaluationContext context = expression.newContext();
+						for (int i = 1; i < 10000; i++) {
+							double x = (i + offset) / 7d;
+							double y = i / 13d;
+							double expected = Math.log(x) - y * (Math.sqrt(Math.pow(x, Math.cos(y)))) + (x + y)
+									* (x + y);
+							if (expected != expression.evaluate(context.setVariables(x, y))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FunctionRegistryTest {
+
+	private static CustomFunction avg() throws Exception {
+		return new CustomFunction("avg", 2) {
+			@Override
+			public double applyFunction(double... values) {
+				return (values[0] + values[1]) / 2d;
+			}
+		};
+	}
+
+	private static CustomOperator greaterEq() {
+		return new CustomOperator(">=", true, 0) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] >= values[1] ? 1d : 0d;
+			}
+		};
+	}
+
+	@Test
+	public void testBuiltinsShared() throws Exception {
+		assertSame(FunctionRegistry.builtins(true), FunctionRegistry.builtins());
+		assertSame(FunctionRegistry.builtins(true).getFunction("sin"), FunctionRegistry.builtins(false)
+				.getFunction("sin"));
+		assertEquals(7, FunctionRegistry.builtins(true).getOperation(OperatorTrie.UNARY_MINUS).precedence);
+		assertEquals(5, FunctionRegistry.builtins(false).getOperation(OperatorTrie.UNARY_MINUS).precedence);
+	}
+
+	@Test
+	public void testBuiltinsProperty() throws Exception {
+		System.setProperty(ExpressionBuilder.PROPERTY_UNARY_HIGH_PRECEDENCE, "false");
+		try {
+			assertSame(FunctionRegistry.builtins(false), FunctionRegistry.builtins());
+		} finally {
+			System.clearProperty(ExpressionBuilder.PROPERTY_UNARY_HIGH_PRECEDENCE);
+		}
+	}
+
+	@Test
+	public void testCopyOnWrite() throws Exception {
+		FunctionRegistry builtins = FunctionRegistry.builtins();
+		FunctionRegistry registry = builtins.withCustomFunction(avg()).withOperation(greaterEq());
+		assertNotNull(registry.getFunction("avg"));
+		assertNotNull(registry.getOperation(">="));
+		assertNotNull(registry.getFunction("sqrt"));
+		assertNull(builtins.getFunction("avg"));
+		assertNull(builtins.getOperation(">="));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutable() throws Exception {
+		FunctionRegistry.builtins().withCustomFunction(avg()).functions.remove("sin");
+	}
+
+	@Test
+	public void testBuilderWithRegistry() throws Exception {
+		FunctionRegistry registry = FunctionRegistry.builtins().withCustomFunction(avg()).withOperation(greaterEq());
+		Calculable calc = new ExpressionBuilder("avg(x, 4) >= 3", registry).withVariableNames("x").build();
+		assertEquals(1d, calc.calculate(2d), 0d);
+		assertEquals(0d, calc.calculate(1d), 0d);
+		assertEquals(2d, new ExpressionBuilder("sqrt(4)", registry).build().calculate(), 0d);
+	}
+
+	@Test
+	public void testBuilderOverlay() throws Exception {
+		FunctionRegistry registry = FunctionRegistry.builtins().withCustomFunction(avg());
+		CustomFunction avg = new CustomFunction("avg", 2) {
+			@Override
+			public double applyFunction(double... values) {
+				return 42d;
+			}
+		};
+		assertEquals(42d, new ExpressionBuilder("avg(1, 2)", registry).withCustomFunction(avg).build()
+				.calculate(), 0d);
+		// the overlay of a builder does not change the registry
+		assertEquals(1.5d, new ExpressionBuilder("avg(1, 2)", registry).build().calculate(), 0d);
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testInvalidOperatorInRegistry() throws Exception {
+		CustomOperator invalid = new CustomOperator("@", true, 0) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return 0d;
+			}
+		};
+		new ExpressionBuilder("1", FunctionRegistry.builtins().withOperation(invalid)).build();
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testVariableNamedLikeRegistryFunction() throws Exception {
+		FunctionRegistry registry = FunctionRegistry.builtins().withCustomFunction(avg());
+		new ExpressionBuilder("avg", registry).withVariableNames("avg").build();
+	}
+
+	@Test
+	public void testHighUnaryPrecedence() throws Exception {
+		assertTrue(9d == new ExpressionBuilder("-3^2", FunctionRegistry.builtins(true)).build().calculate());
+		assertTrue(-9d == new ExpressionBuilder("-3^2", FunctionRegistry.builtins(false)).build().calculate());
+	}
+}
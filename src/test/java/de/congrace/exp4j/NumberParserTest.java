@@ -0,0 +1,68 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberParserTest {
+
+	private static void assertParsed(String literal) {
+		char[] chars = ("1+" + literal + "*2").toCharArray();
+		assertEquals(literal, Double.doubleToLongBits(Double.parseDouble(literal)),
+				Double.doubleToLongBits(NumberParser.parse(chars, 2, literal.length())));
+	}
+
+	@Test
+	public void testFastPath() throws Exception {
+		String[] literals = { "0", "0.0", "000.000", "1", "12", "3.14", "0.1", "0.3", "1.5e3", "1e22", "1e-22",
+				"123456789012345", "0.000123456789012345", "7.2973525698e-3", "6.02214E23", "6.02214E+23", "2.5E-0",
+				"9007199254740993", "1.", "4.35" };
+		for (String literal : literals) {
+			assertParsed(literal);
+		}
+	}
+
+	@Test
+	public void testSlowPath() throws Exception {
+		String[] literals = { "1e23", "1e-23", "1e308", "1e309", "4.9e-324", "1e-400", "1234567890123456789",
+				"0.12345678901234567890", "2.2250738585072014E-308", "1e99999" };
+		for (String literal : literals) {
+			assertParsed(literal);
+		}
+	}
+
+	@Test
+	public void testRandomLiterals() throws Exception {
+		Random rnd = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			double value = Double.longBitsToDouble(rnd.nextLong() & Long.MAX_VALUE);
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				continue;
+			}
+			assertParsed(Double.toString(value));
+			assertParsed(Long.toString(rnd.nextLong() & Long.MAX_VALUE >> rnd.nextInt(63)) + "." + rnd.nextInt(1000)
+					+ "e" + (rnd.nextInt(60) - 30));
+		}
+	}
+
+	@Test
+	public void testFractionalExponent() throws Exception {
+		char[] chars = "4e-0.5".toCharArray();
+		assertEquals(4d * Math.pow(10, -0.5), NumberParser.parse(chars, 0, chars.length), 0d);
+	}
+
+	@Test
+	public void testTokenValue() throws Exception {
+		Calculable calc = new ExpressionBuilder("x * 1.50e2").withVariableNames("x").build();
+		assertEquals("x 1.50e2 *", calc.getExpression());
+		assertEquals(300d, calc.calculate(2d), 0d);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testInvalidLiteral() throws Exception {
+		char[] chars = "1.2.3".toCharArray();
+		NumberParser.parse(chars, 0, chars.length);
+	}
+}
@@ -0,0 +1,85 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class OperatorTrieTest {
+
+	private static CustomOperator operator(String symbol, final double result) {
+		return new CustomOperator(symbol, true, 0) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return result;
+			}
+		};
+	}
+
+	private static Map<String, CustomOperator> operators(String... symbols) {
+		Map<String, CustomOperator> operators = new HashMap<String, CustomOperator>();
+		for (int i = 0; i < symbols.length; i++) {
+			operators.put(symbols[i], operator(symbols[i], i));
+		}
+		return operators;
+	}
+
+	@Test
+	public void testOperatorCharacters() throws Exception {
+		OperatorTrie trie = new OperatorTrie(operators("+", ">=", "§§"));
+		assertTrue(trie.isOperatorCharacter('+'));
+		assertTrue(trie.isOperatorCharacter('>'));
+		assertTrue(trie.isOperatorCharacter('='));
+		assertTrue(trie.isOperatorCharacter('§'));
+		assertFalse(trie.isOperatorCharacter('-'));
+		assertFalse(trie.isOperatorCharacter('x'));
+		assertFalse(trie.isOperatorCharacter('€'));
+	}
+
+	@Test
+	public void testLongestMatch() throws Exception {
+		Map<String, CustomOperator> operators = operators(">", ">=", ">>=", "=");
+		OperatorTrie trie = new OperatorTrie(operators);
+		char[] chars = "1>>=2>=3>4".toCharArray();
+		assertSame(operators.get(">>="), trie.match(chars, 1, chars.length));
+		assertSame(operators.get(">="), trie.match(chars, 5, chars.length));
+		assertSame(operators.get(">"), trie.match(chars, 8, chars.length));
+		// the end limits the match
+		assertSame(operators.get(">"), trie.match(chars, 5, 6));
+		assertNull(trie.match(chars, 0, chars.length));
+	}
+
+	@Test
+	public void testNoMatchForPrefix() throws Exception {
+		OperatorTrie trie = new OperatorTrie(operators("<=>"));
+		char[] chars = "<=".toCharArray();
+		assertNull(trie.match(chars, 0, chars.length));
+	}
+
+	@Test
+	public void testMultiCharacterOperators() throws Exception {
+		CustomOperator gt = new CustomOperator(">", true, 0) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] > values[1] ? 1d : 0d;
+			}
+		};
+		CustomOperator gteq = new CustomOperator(">=", true, 0) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] >= values[1] ? 1d : 0d;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("(x >= 2) + (x > 2)").withVariableNames("x").withOperation(gt)
+				.withOperation(gteq).build();
+		assertEquals(0d, calc.calculate(1d), 0d);
+		assertEquals(1d, calc.calculate(2d), 0d);
+		assertEquals(2d, calc.calculate(3d), 0d);
+	}
+}
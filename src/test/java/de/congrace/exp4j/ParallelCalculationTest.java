@@ -0,0 +1,79 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelCalculationTest {
+
+	private static final String EXPRESSION = "log(x) - y * (sqrt(x^cos(y))) + (x + y) * (x + y)";
+
+	private static double[][] randomColumns(int columnCount, int rowCount) {
+		Random rnd = new Random(42);
+		double[][] columns = new double[columnCount][rowCount];
+		for (double[] column : columns) {
+			for (int i = 0; i < rowCount; i++) {
+				column[i] = rnd.nextDouble() * 100d;
+			}
+		}
+		return columns;
+	}
+
+	private static void assertParallelEquals(Calculable calc, int rowCount, ForkJoinPool pool) {
+		double[][] columns = randomColumns(2, rowCount);
+		double[] expected = new double[rowCount];
+		calc.calculate(columns, expected);
+		double[] actual = new double[rowCount];
+		if (pool == null) {
+			calc.calculateParallel(columns, actual);
+		} else {
+			calc.calculateParallel(columns, actual, pool);
+		}
+		assertArrayEquals(expected, actual, 0d);
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		Calculable calc = new ExpressionBuilder(EXPRESSION).withVariableNames("x", "y").build();
+		for (int rowCount : new int[] { 0, 1, ParallelCalculation.CHUNK_SIZE, ParallelCalculation.CHUNK_SIZE + 1,
+				10 * ParallelCalculation.CHUNK_SIZE + 123 }) {
+			assertParallelEquals(calc, rowCount, null);
+		}
+	}
+
+	@Test
+	public void testParallelCompiled() throws Exception {
+		Calculable calc = new ExpressionBuilder(EXPRESSION).withVariableNames("x", "y").compile();
+		assertParallelEquals(calc, 5 * ParallelCalculation.CHUNK_SIZE + 7, null);
+	}
+
+	@Test
+	public void testParallelPool() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			Calculable calc = new ExpressionBuilder(EXPRESSION).withVariableNames("x", "y").build();
+			assertParallelEquals(calc, 20 * ParallelCalculation.CHUNK_SIZE, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testParallelDivisionByZero() throws Exception {
+		double[] column = new double[4 * ParallelCalculation.CHUNK_SIZE];
+		Arrays.fill(column, 1d);
+		column[3 * ParallelCalculation.CHUNK_SIZE + 5] = 0d;
+		new ExpressionBuilder("1 / x").withVariableNames("x").build()
+				.calculateParallel(new double[][] { column }, new double[column.length]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParallelShortColumn() throws Exception {
+		new ExpressionBuilder("x * y").withVariableNames("x", "y").build()
+				.calculateParallel(new double[][] { { 1d, 2d }, { 1d } }, new double[2]);
+	}
+}
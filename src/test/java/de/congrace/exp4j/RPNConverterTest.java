@@ -17,7 +17,9 @@
 package de.congrace.exp4j;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -74,7 +76,7 @@ public class RPNConverterTest {
 				return values[0] / values[1];
 			}
 		};
-		CustomOperator umin = new CustomOperator("\'", false, 4) {
+		CustomOperator umin = new CustomOperator("\'", false, 4, 1) {
 			@Override
 			protected double applyOperation(double[] values) {
 				return -values[0];
@@ -84,14 +86,14 @@ public class RPNConverterTest {
 		operations.put("-", sub);
 		operations.put("*", mul);
 		operations.put("/", div);
-		operations.put("\'", umin);
+		operations.put(OperatorTrie.UNARY_MINUS, umin);
 	}
 
 	@Test
 	public void testInfixTranslation1() throws Exception {
 		String expr = "2 + 2";
 		String expected = "2 2 +";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -103,7 +105,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation10() throws Exception {
 		String expr = "log(1) / -sin(2)";
 		String expected = "1 log 2 sin ' /";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -115,7 +117,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation11() throws Exception {
 		String expr = "24/log(1)-2";
 		String expected = "24 1 log / 2 -";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t\t" + actual);
@@ -127,7 +129,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation2() throws Exception {
 		String expr = "1 + 2 * 4";
 		String expected = "1 2 4 * +";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -139,7 +141,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation3() throws Exception {
 		String expr = "3 - 4 * 5";
 		String expected = "3 4 5 * -";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -151,7 +153,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation4() throws Exception {
 		String expr = "(1+2) * 4";
 		String expected = "1 2 + 4 *";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -163,7 +165,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation5() throws Exception {
 		String expr = "(1+2) * (3-4) * 4";
 		String expected = "1 2 + 3 4 - * 4 *";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -175,7 +177,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation6() throws Exception {
 		String expr = "1.23 + 3.14";
 		String expected = "1.23 3.14 +";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -187,7 +189,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation7() throws Exception {
 		String expr = "1.23 + 3.14 * 7";
 		String expected = "1.23 3.14 7 * +";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -199,7 +201,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation8() throws Exception {
 		String expr = "log(1) + sin(2)";
 		String expected = "1 log 2 sin +";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -211,7 +213,7 @@ public class RPNConverterTest {
 	public void testInfixTranslation9() throws Exception {
 		String expr = "log(1) / sin(2)";
 		String expected = "1 log 2 sin /";
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t" + actual);
@@ -233,11 +235,37 @@ public class RPNConverterTest {
 			}
 		};
 		customFunctions.put("min", minFunction);
-		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).expression;
+		String actual = RPNConverter.toRPNExpression(expr, variables, customFunctions, operations).getExpression();
 		if (!actual.equals(expected)) {
 			System.err.println("expected:\t" + expected);
 			System.err.println("actual:\t\t" + actual);
 		}
 		assertEquals(actual, expected);
 	}
+
+	@Test
+	public void testStackDepth1() throws Exception {
+		assertEquals(1, RPNConverter.toRPNExpression("2", variables, customFunctions, operations).stackDepth);
+		assertEquals(2, RPNConverter.toRPNExpression("2 + 2", variables, customFunctions, operations).stackDepth);
+		assertEquals(3, RPNConverter.toRPNExpression("1 + 2 * 4", variables, customFunctions, operations).stackDepth);
+		assertEquals(2, RPNConverter.toRPNExpression("(1+2) * 4", variables, customFunctions, operations).stackDepth);
+		assertEquals(4, RPNConverter.toRPNExpression("1 + 2 * (3 - 4)", variables, customFunctions, operations).stackDepth);
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testStackDepth2() throws Exception {
+		RPNConverter.toRPNExpression("2 +", variables, customFunctions, operations);
+	}
+
+	@Test
+	public void testPostfixTokens() throws Exception {
+		RPNExpression rpn = RPNConverter.toRPNExpression("log(2) + 3 * -4", variables, customFunctions, operations);
+		assertEquals(Arrays.<Token> asList(new NumberToken("2"), new FunctionToken("log", customFunctions.get("log")),
+				new NumberToken("3"), new NumberToken("4"),
+				new OperatorToken("'", operations.get(OperatorTrie.UNARY_MINUS)),
+				new OperatorToken("*", operations.get("*")), new OperatorToken("+", operations.get("+"))), rpn.postfix);
+		assertEquals("2 log 3 4 ' * +", rpn.getExpression());
+		// the string is created once
+		assertSame(rpn.getExpression(), rpn.getExpression());
+	}
 }
@@ -0,0 +1,113 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RPNSimplifierTest {
+
+	private static final double[] SPECIAL_VALUES = new double[] { 0d, -0d, 1d, -1d, 2d, -2d, 0.5d, -0.5d, 3.7d,
+			-3.7d, 1e-320d, -1e-320d, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.POSITIVE_INFINITY,
+			Double.NEGATIVE_INFINITY, Double.NaN };
+
+	private static List<Token> simplifiedTokens(String expr, String... variables) throws Exception {
+		return ((RPNExpression) new ExpressionBuilder(expr).withVariableNames(variables).build()).tokens;
+	}
+
+	private static void assertBitIdentical(String expr) throws Exception {
+		Calculable simplified = new ExpressionBuilder(expr).withVariableNames("x").build();
+		Calculable literal = new ExpressionBuilder(expr).withVariableNames("x").withSimplification(false).build();
+		Calculable compiled = new ExpressionBuilder(expr).withVariableNames("x").compile();
+		Random rnd = new Random(42);
+		double[] values = new double[SPECIAL_VALUES.length + 1000];
+		System.arraycopy(SPECIAL_VALUES, 0, values, 0, SPECIAL_VALUES.length);
+		for (int i = SPECIAL_VALUES.length; i < values.length; i++) {
+			values[i] = (rnd.nextDouble() - 0.5d) * Math.pow(10, rnd.nextInt(40) - 20);
+		}
+		for (double x : values) {
+			long expected = Double.doubleToLongBits(literal.calculate(x));
+			assertEquals(expr + " for x=" + x, expected, Double.doubleToLongBits(simplified.calculate(x)));
+			assertEquals(expr + " for x=" + x, expected, Double.doubleToLongBits(compiled.calculate(x)));
+		}
+	}
+
+	@Test
+	public void testIdentities() throws Exception {
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("x * 1", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("1 * x", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("x / 1", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("x - 0", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("x ^ 1", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("--x", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("x + -0", "x"));
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0)), simplifiedTokens("(x * (3 - 2))^(4 / 4)", "x"));
+	}
+
+	@Test
+	public void testNoInexactIdentities() throws Exception {
+		// x+0 is not x for x=-0
+		assertEquals(3, simplifiedTokens("x + 0", "x").size());
+		assertEquals(3, simplifiedTokens("0 + x", "x").size());
+		// x*x*x is rounded twice
+		assertEquals(3, simplifiedTokens("x ^ 3", "x").size());
+	}
+
+	@Test
+	public void testStrengthReduction() throws Exception {
+		assertEquals(Arrays.<Token>asList(new VariableToken("x", 0), new OperatorToken("^2", RPNSimplifier.SQUARE)),
+				simplifiedTokens("x^2", "x"));
+		assertEquals(
+				Arrays.<Token>asList(new VariableToken("x", 0), new OperatorToken("^0.5", RPNSimplifier.SQUARE_ROOT)),
+				simplifiedTokens("x^0.5", "x"));
+		assertEquals(Arrays.<Token>asList(new NumberToken(1d)), simplifiedTokens("sin(x)^0", "x"));
+		assertEquals(Arrays.<Token>asList(new NumberToken(3d)), simplifiedTokens("2 + (x*2)^0", "x"));
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testPowerOfZeroKeepsDivision() throws Exception {
+		new ExpressionBuilder("(1/x)^0").withVariableNames("x").build().calculate(0d);
+	}
+
+	@Test
+	public void testPowerOfZeroKeepsCustomFunction() throws Exception {
+		final int[] calls = new int[1];
+		CustomFunction counter = new CustomFunction("counter") {
+			@Override
+			public double applyFunction(double... values) {
+				return calls[0]++;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("counter(x)^0").withVariableNames("x").withCustomFunction(counter)
+				.build();
+		assertTrue(1d == calc.calculate(1d));
+		assertEquals(1, calls[0]);
+	}
+
+	@Test
+	public void testSimplificationDisabled() throws Exception {
+		assertEquals(3, ((RPNExpression) new ExpressionBuilder("x * 1").withVariableNames("x")
+				.withSimplification(false).build()).tokens.size());
+	}
+
+	@Test
+	public void testBitIdenticalResults() throws Exception {
+		assertBitIdentical("x * 1");
+		assertBitIdentical("1 * x");
+		assertBitIdentical("x / 1");
+		assertBitIdentical("x - 0");
+		assertBitIdentical("x + -0");
+		assertBitIdentical("-0 + x");
+		assertBitIdentical("--x");
+		assertBitIdentical("x ^ 1");
+		assertBitIdentical("x ^ 2");
+		assertBitIdentical("x ^ 0.5");
+		assertBitIdentical("x ^ 0");
+		assertBitIdentical("sin(x) ^ 0");
+		assertBitIdentical("(x - 1) ^ 2 * 1 - -(-(x ^ 0.5))");
+	}
+}
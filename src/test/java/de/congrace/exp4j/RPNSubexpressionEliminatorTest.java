@@ -0,0 +1,99 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class RPNSubexpressionEliminatorTest {
+
+	private static int count(List<Token> tokens, Class<? extends Token> type) {
+		int count = 0;
+		for (Token token : tokens) {
+			if (type.isInstance(token)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testEliminate() throws Exception {
+		String expr = "sqrt(x^2 + y^2) * sqrt(x^2 + y^2)";
+		RPNExpression calc = (RPNExpression) new ExpressionBuilder(expr).withVariableNames("x", "y").build();
+		assertEquals(1, count(calc.tokens, StoreToken.class));
+		assertEquals(1, count(calc.tokens, LoadToken.class));
+		assertEquals(1, calc.temporaryCount);
+		assertEquals(25d, calc.calculate(3d, 4d), 0d);
+		assertEquals(169d, calc.calculate(5d, 12d), 0d);
+	}
+
+	@Test
+	public void testEliminateNested() throws Exception {
+		String expr = "(x + 1) * (x + 1) + sin((x + 1) * (x + 1))";
+		RPNExpression calc = (RPNExpression) new ExpressionBuilder(expr).withVariableNames("x").build();
+		assertEquals(2, calc.temporaryCount);
+		assertEquals(2, count(calc.tokens, LoadToken.class));
+		Calculable literal = new ExpressionBuilder(expr).withVariableNames("x").withSimplification(false).build();
+		Calculable compiled = new ExpressionBuilder(expr).withVariableNames("x").compile();
+		for (double x = -5d; x < 5d; x += 0.25d) {
+			assertEquals(literal.calculate(x), calc.calculate(x), 0d);
+			assertEquals(literal.calculate(x), compiled.calculate(x), 0d);
+		}
+	}
+
+	@Test
+	public void testNothingShared() throws Exception {
+		RPNExpression calc = (RPNExpression) new ExpressionBuilder("x * x + y").withVariableNames("x", "y").build();
+		assertEquals(0, calc.temporaryCount);
+		assertEquals(5, calc.tokens.size());
+	}
+
+	@Test
+	public void testImpureFunction() throws Exception {
+		final int[] calls = new int[1];
+		CustomFunction next = new CustomFunction("next") {
+			@Override
+			public double applyFunction(double... values) {
+				return values[0] + calls[0]++;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("next(x) - next(x)").withVariableNames("x").withCustomFunction(next)
+				.build();
+		assertEquals(-1d, calc.calculate(1d), 0d);
+		assertEquals(2, calls[0]);
+	}
+
+	@Test
+	public void testPureFunction() throws Exception {
+		final int[] calls = new int[1];
+		CustomFunction twice = new CustomFunction("twice", 1, true) {
+			@Override
+			public double applyFunction(double... values) {
+				calls[0]++;
+				return 2 * values[0];
+			}
+		};
+		Calculable calc = new ExpressionBuilder("twice(x) + twice(x)").withVariableNames("x").withCustomFunction(twice)
+				.build();
+		assertEquals(12d, calc.calculate(3d), 0d);
+		assertEquals(1, calls[0]);
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		Calculable calc = new ExpressionBuilder("(x + y) / (x + y)").withVariableNames("x", "y").build();
+		Calculable copy = ((RPNExpression) calc).copy();
+		assertEquals(1d, calc.calculate(1d, 2d), 0d);
+		assertEquals(1d, copy.calculate(3d, 4d), 0d);
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testDivisionByZero() throws Exception {
+		Calculable calc = new ExpressionBuilder("1 / (x - x) + 1 / (x - x)").withVariableNames("x").compile();
+		assertTrue(calc instanceof CompiledCalculable);
+		calc.calculate(2d);
+	}
+}
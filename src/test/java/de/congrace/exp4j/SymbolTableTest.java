@@ -0,0 +1,64 @@
+package de.congrace.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SymbolTableTest {
+
+	private static Set<String> names(String... names) {
+		Set<String> set = new LinkedHashSet<String>();
+		Collections.addAll(set, names);
+		return set;
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		Map<String, CustomFunction> functions = FunctionRegistry.builtins().functions;
+		SymbolTable symbols = new SymbolTable(names("x", "y_1"), functions);
+		char[] chars = "3*y_1+sin(x)-z".toCharArray();
+		SymbolTable.Symbol y = symbols.get(chars, 2, 3);
+		assertTrue(y.isVariable());
+		assertEquals("y_1", y.name);
+		assertEquals(1, y.slot);
+		SymbolTable.Symbol sin = symbols.get(chars, 6, 3);
+		assertFalse(sin.isVariable());
+		assertSame(functions.get("sin"), sin.function);
+		assertEquals(0, symbols.get(chars, 10, 1).slot);
+		assertNull(symbols.get(chars, 13, 1));
+		// a prefix of a name is not the name
+		assertNull(symbols.get(chars, 2, 1));
+	}
+
+	@Test
+	public void testHashCollision() throws Exception {
+		// "Aa" and "BB" have the same hash code
+		SymbolTable symbols = new SymbolTable(names("Aa", "BB"), FunctionRegistry.builtins().functions);
+		assertEquals(0, symbols.get("Aa".toCharArray(), 0, 2).slot);
+		assertEquals(1, symbols.get("BB".toCharArray(), 0, 2).slot);
+	}
+
+	@Test
+	public void testManyVariables() throws Exception {
+		int count = 500;
+		String[] names = new String[count];
+		StringBuilder expr = new StringBuilder();
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = "v" + i;
+			values[i] = i;
+			expr.append(i == 0 ? "" : " + ").append(names[i]);
+		}
+		Calculable calc = new ExpressionBuilder(expr.toString()).withVariableNames(names).build();
+		assertEquals(count * (count - 1) / 2d, calc.calculate(values), 0d);
+	}
+}
@@ -17,6 +17,7 @@
 package de.congrace.exp4j;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -236,7 +237,7 @@ public class TokenizerTest {
 				new NumberToken("4.4"), new OperatorToken("+", operations.get('+')), new ParenthesesToken("("),
 				new NumberToken("2.3"), new OperatorToken("/", operations.get('/')), new NumberToken("12"),
 				new ParenthesesToken(")"), new OperatorToken("-", operations.get('-')),
-				new FunctionToken("cos", functions.get("cos")), new ParenthesesToken("("), new VariableToken("x"),
+				new FunctionToken("cos", functions.get("cos")), new ParenthesesToken("("), new VariableToken("x", 0),
 				new ParenthesesToken(")"), new OperatorToken("*", operations.get('*')), new NumberToken("4"),
 				new OperatorToken("+", operations.get('+')), new ParenthesesToken("("), new NumberToken("20"),
 				new OperatorToken("-", operations.get('-')), new NumberToken("2"), new ParenthesesToken(")") };
@@ -254,7 +255,7 @@ public class TokenizerTest {
 				new NumberToken("4.4"), new OperatorToken("+", operations.get('+')), new ParenthesesToken("("),
 				new NumberToken("2.3"), new OperatorToken("/", operations.get('/')), new NumberToken("12"),
 				new ParenthesesToken(")"), new OperatorToken("-", operations.get('-')),
-				new FunctionToken("cos", functions.get("cos")), new ParenthesesToken("("), new VariableToken("x"),
+				new FunctionToken("cos", functions.get("cos")), new ParenthesesToken("("), new VariableToken("x", 0),
 				new ParenthesesToken(")"), new OperatorToken("*", operations.get('*')), new NumberToken("4"),
 				new OperatorToken("+", operations.get('+')), new ParenthesesToken("("), new NumberToken("20"),
 				new OperatorToken("-", operations.get('-')), new NumberToken("2"), new ParenthesesToken(")") };
@@ -272,7 +273,7 @@ public class TokenizerTest {
 				new NumberToken("4.4"), new OperatorToken("+", operations.get('+')), new ParenthesesToken("("),
 				new NumberToken("2.3"), new OperatorToken("/", operations.get('/')), new NumberToken("12"),
 				new ParenthesesToken(")"), new OperatorToken("-", operations.get('-')),
-				new FunctionToken("cos", functions.get("cos")), new ParenthesesToken("("), new VariableToken("x"),
+				new FunctionToken("cos", functions.get("cos")), new ParenthesesToken("("), new VariableToken("x", 0),
 				new ParenthesesToken(")"), new OperatorToken("*", operations.get('*')), new NumberToken("4"),
 				new OperatorToken("+", operations.get('+')), new ParenthesesToken("("), new NumberToken("20"),
 				new OperatorToken("-", operations.get('-')), new NumberToken("2"), new ParenthesesToken(")") };
@@ -282,4 +283,51 @@ public class TokenizerTest {
 		Token[] actual = tokenizer.getTokens(expr).toArray(new Token[0]);
 		assertArrayEquals(expected, actual);
 	}
+
+	@Test
+	public void testUnaryOperators() throws Exception {
+		Map<String, CustomOperator> builtins = FunctionRegistry.builtins().operators;
+		Set<String> variableNames = new HashSet<String>();
+		variableNames.add("x");
+		Tokenizer tokenizer = new Tokenizer(variableNames, functions, builtins);
+		CustomOperator umin = builtins.get(OperatorTrie.UNARY_MINUS);
+		Token[] expected = new Token[] { new OperatorToken("'", umin), new VariableToken("x", 0),
+				new OperatorToken("-", builtins.get("-")), new OperatorToken("'", umin), new ParenthesesToken("("),
+				new NumberToken("2"), new OperatorToken("^", builtins.get("^")), new OperatorToken("'", umin),
+				new NumberToken("1"), new ParenthesesToken(")"), new OperatorToken("-", builtins.get("-")),
+				new NumberToken("3") };
+		Token[] actual = tokenizer.getTokens("-x - -(+2^-+1) - 3").toArray(new Token[0]);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void testUnaryAfterSeparator() throws Exception {
+		CustomFunction max = new CustomFunction("max", 2) {
+			@Override
+			public double applyFunction(double... values) {
+				return Math.max(values[0], values[1]);
+			}
+		};
+		assertEquals(-1d, new ExpressionBuilder("max(-2, -1)").withCustomFunction(max).build().calculate(), 0d);
+	}
+
+	@Test(expected = UnparsableExpressionException.class)
+	public void testUnaryMinusSymbolNotReserved() throws Exception {
+		new ExpressionBuilder("'2").build();
+	}
+
+	@Test
+	public void testCustomOperatorWithUnaryMinusSymbol() throws Exception {
+		CustomOperator increment = new CustomOperator("'", true, 6, 1) {
+			@Override
+			protected double applyOperation(double[] values) {
+				return values[0] + 1;
+			}
+		};
+		Calculable calc = new ExpressionBuilder("-x' * 3'").withVariableNames("x").withOperation(increment).build();
+		assertEquals("x ' ' 3 ' *", calc.getExpression());
+		assertEquals(-4d, calc.calculate(2), 0d);
+		assertEquals(-12d, new ExpressionBuilder("-(x') * 3'").withVariableNames("x").withOperation(increment).build()
+				.calculate(2), 0d);
+	}
 }